@@ -16,18 +16,44 @@ package de.akquinet.innovation.play.maven;
 
 
 
+import org.apache.commons.exec.CommandLine;
+import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.io.FileUtils;
+import de.akquinet.innovation.play.maven.utils.BuildCache;
+import de.akquinet.innovation.play.maven.utils.DependencyGraph;
+import de.akquinet.innovation.play.maven.utils.Fingerprint;
+import de.akquinet.innovation.play.maven.utils.RemoteBuildCache;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactCollector;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
+import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
+import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
 
 import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 /**
  * Common parent of all Play 2 Mojo
  */
@@ -63,6 +89,47 @@ public abstract class AbstractPlay2Mojo extends AbstractMojo {
      */
     File baseDirectory;
 
+    /**
+     * Used to look up Artifacts in the remote repository.
+     *
+     * @component
+     */
+    protected ArtifactFactory factory;
+
+    /**
+     * Artifact collector, needed to resolve dependencies.
+     *
+     * @component role="org.apache.maven.artifact.resolver.ArtifactCollector"
+     * @required
+     * @readonly
+     */
+    protected ArtifactCollector artifactCollector;
+
+    /**
+     * The dependency tree builder to use.
+     *
+     * @component
+     * @required
+     * @readonly
+     */
+    protected DependencyTreeBuilder dependencyTreeBuilder;
+
+    /**
+     * @component role="org.apache.maven.artifact.metadata.ArtifactMetadataSource" hint="maven"
+     * @required
+     * @readonly
+     */
+    protected ArtifactMetadataSource artifactMetadataSource;
+
+    /**
+     * Location of the local repository.
+     *
+     * @parameter expression="${localRepository}"
+     * @readonly
+     * @required
+     */
+    protected ArtifactRepository local;
+
     /**
      * Maven ProjectHelper.
      *
@@ -94,11 +161,117 @@ public abstract class AbstractPlay2Mojo extends AbstractMojo {
      */
     long timeout;
 
+    /**
+     * Enables the reuse of a long-lived <tt>play</tt> process across the goals of the build.
+     * When enabled, the first goal starts <tt>play</tt> in interactive mode and the following goals (of the same
+     * project) send their commands to this process instead of forking a new JVM. It avoids paying the sbt boot,
+     * the project loading and the Scala compiler warm-up for every goal.
+     * @parameter default-value="false" expression="${play2daemon}"
+     */
+    boolean daemon;
+
+    /**
+     * Sets the time (in milliseconds) after which an idle shared <tt>play</tt> process is stopped.
+     * This option has no impact if the <tt>daemon</tt> mode is disabled.
+     * @parameter default-value="60000" expression="${play2daemonIdleTimeout}"
+     */
+    long daemonIdleTimeout;
+
+    /**
+     * Enables the batching of the play commands of the build.
+     * When enabled, the compile goal detects the phases requested for the current build and executes all the
+     * corresponding commands in a single invocation (such as <tt>play compile test package dist</tt>). The test and
+     * package goals then only collect the results. It avoids loading the project and resolving the sbt dependencies
+     * several times.
+     * @parameter default-value="false" expression="${play2batch}"
+     */
+    boolean batch;
+
+    /**
+     * Enables the local cache of the compilation outputs.
+     * The classes and resources produced by Play are stored in a cache directory (shared by all projects), under a
+     * key computed from the sources, the dependencies and the Play version. When the key is found in the cache, the
+     * outputs are restored instead of being compiled again, for instance after a <tt>clean</tt> or a branch switch.
+     * @parameter default-value="false" expression="${play2outputCache}"
+     */
+    boolean outputCache;
+
+    /**
+     * The directory storing the cached compilation outputs.
+     * @parameter default-value="${user.home}/.m2/play2-cache" expression="${play2outputCacheDirectory}"
+     */
+    File outputCacheDirectory;
+
+    /**
+     * The url of a remote build cache, shared between machines. Entries missing from the local output cache are
+     * downloaded from this cache (<tt>GET url/key.zip</tt>). This option has no impact if the <tt>outputCache</tt>
+     * is disabled.
+     * @parameter expression="${play2remoteCacheUrl}"
+     */
+    String remoteCacheUrl;
+
+    /**
+     * Enables the upload of the new local cache entries to the remote build cache (<tt>PUT url/key.zip</tt>).
+     * Generally only enabled on CI servers.
+     * @parameter default-value="false" expression="${play2remoteCachePush}"
+     */
+    boolean remoteCachePush;
+
+    /**
+     * The number of threads compressing the archives built by the plugin (the War file, the files added to the
+     * distribution). <tt>0</tt> uses one thread per processor.
+     * @parameter default-value="0" expression="${play2archiveThreads}"
+     */
+    int archiveThreads;
+
+    /**
+     * The number of threads copying the files of the distribution and of the War file. <tt>1</tt> copies the files
+     * one at a time.
+     * @parameter default-value="4" expression="${play2copyThreads}"
+     */
+    int copyThreads = 4;
+
+    /**
+     * The timestamp of the entries of the archives built by the plugin, making them reproducible: the same inputs
+     * produce the same archives, byte for byte. It is either an ISO-8601 date (<tt>2013-01-01T00:00:00Z</tt>) or a
+     * number of seconds since the epoch. Unset, or a single character, keeps the times of the files.
+     * @parameter default-value="${project.build.outputTimestamp}" expression="${play2outputTimestamp}"
+     */
+    String outputTimestamp;
+
 
     public static final String ENV_PLAY2_HOME = "PLAY2_HOME";
 
     public static final String PLAY2_ARG_FORMAT = "-D%s=%s";
 
+    /**
+     * The directory (relative to the build directory) storing the state kept by the plugin between builds.
+     */
+    public static final String PLUGIN_STATE_DIRECTORY = "play2";
+
+    /**
+     * The version of the Play sbt plugin, in <tt>project/plugins.sbt</tt>.
+     */
+    static final Pattern PLAY_VERSION = Pattern.compile("\"play\"\\s*%\\s*\"sbt-plugin\"\\s*%\\s*\"([^\"]+)\"");
+
+    /**
+     * The version of sbt, in <tt>project/build.properties</tt>.
+     */
+    static final Pattern SBT_VERSION = Pattern.compile("sbt\\.version\\s*=\\s*(\\S+)");
+
+    /**
+     * The directories of a Play application containing the inputs of the compilation.
+     */
+    public static final String[] PLAY2_SOURCE_DIRECTORIES = new String[]{"app", "conf", "project", "public", "lib"};
+
+    /**
+     * The environment variables changing the result of the play invocation, fingerprinted with the inputs of the
+     * compilation. The other variables (shell, terminal, IDE...) change between invocations without changing the
+     * result.
+     */
+    public static final List<String> FINGERPRINTED_ENVIRONMENT_ENTRIES = Arrays.asList("JAVA_HOME", "PLAY2_HOME",
+            "SBT_OPTS", "JAVA_OPTS", "JAVA_TOOL_OPTIONS", "_JAVA_OPTIONS", "SCALA_HOME");
+
     /**
      * Stored the play 2 executable once found to avoid multiple searches.
      */
@@ -318,4 +491,290 @@ public abstract class AbstractPlay2Mojo extends AbstractMojo {
         }
         return args.toArray(new String[0]);
     }
+
+    /**
+     * Executes the given commands with <tt>play</tt>.
+     * The commands are either executed by a forked <tt>play</tt> process (<tt>play command1 command2...</tt>), or, if
+     * the <tt>daemon</tt> mode is enabled, sent to the shared <tt>play</tt> process.
+     *
+     * @param withSystemProperties whether the <tt>play2SystemProperties</tt> are passed to a forked process. The
+     *                             shared process is always launched with these properties.
+     * @param commands             the commands to execute
+     * @throws IOException             if the execution failed
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    protected void executePlay2(boolean withSystemProperties, String... commands)
+            throws IOException, MojoExecutionException {
+        if (daemon) {
+            Play2Daemon.get(this).execute(timeout, commands);
+            return;
+        }
+
+        CommandLine cmdLine = getPlay2CommandLine(withSystemProperties, commands);
+        DefaultExecutor executor = new DefaultExecutor();
+
+        if (timeout > 0) {
+            ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
+            executor.setWatchdog(watchdog);
+        }
+
+        executor.setWorkingDirectory(project.getBasedir());
+        executor.setExitValue(0);
+        executor.execute(cmdLine, getEnvironment());
+    }
+
+    /**
+     * Builds the command line of a forked <tt>play</tt> process executing the given commands.
+     *
+     * @param withSystemProperties whether the <tt>play2SystemProperties</tt> are passed to the process
+     * @param commands             the commands to execute
+     * @return the command line
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    protected CommandLine getPlay2CommandLine(boolean withSystemProperties, String... commands)
+            throws MojoExecutionException {
+        String line = getPlay2().getAbsolutePath();
+
+        CommandLine cmdLine = CommandLine.parse(line);
+        if (withSystemProperties) {
+            cmdLine.addArguments(getPlay2SystemPropertiesArguments(), false);
+        }
+        for (String command : commands) {
+            // Commands such as 'test-only a.B c.D' must be given as a single argument.
+            cmdLine.addArgument(command, false);
+        }
+        return cmdLine;
+    }
+
+    /**
+     * Gets the directory containing the files produced by Play (<tt>target/scala-*</tt>).
+     *
+     * @return the directory
+     * @throws IOException if there is no such directory, or if there are several candidates
+     */
+    public File findScalaDirectory() throws IOException {
+        File[] array = buildDirectory.listFiles(new FilenameFilter() {
+            public boolean accept(File file, String s) {
+                return s.startsWith("scala-");
+            }
+        });
+
+        if (array == null || array.length == 0) {
+            throw new IOException("Cannot find Play output files");
+        }
+        if (array.length > 1) {
+            throw new IOException("Cannot find Play output files - too many candidates");
+        }
+        return array[0];
+    }
+
+    /**
+     * Computes the fingerprint of the inputs of the compilation: the Play source directories, the Maven source and
+     * resource roots, the <tt>play</tt> executable (and so the Play version), the project coordinates and properties
+     * given to <tt>play</tt>, the relevant environment variables ({@link #FINGERPRINTED_ENVIRONMENT_ENTRIES}) and the
+     * system properties arguments.
+     *
+     * @return the fingerprint
+     * @throws IOException            if a source file cannot be read
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    public Fingerprint computeSourceFingerprint() throws IOException, MojoExecutionException {
+        Fingerprint fingerprint = new Fingerprint();
+        addSources(fingerprint);
+
+        fingerprint.add("play", getPlay2().getAbsolutePath());
+
+        fingerprint.add("project", project.getGroupId() + ":" + project.getArtifactId() + ":" + project.getVersion());
+        Properties properties = project.getProperties();
+        if (properties != null) {
+            for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+                fingerprint.add("property:" + entry.getKey(), entry.getValue().toString());
+            }
+        }
+        // The system properties override the environment variables.
+        Map<String, String> environment = getEnvironment();
+        for (String key : FINGERPRINTED_ENVIRONMENT_ENTRIES) {
+            fingerprint.add("env:" + key, environment.containsKey(key) ? environment.get(key) : "unset");
+        }
+
+        for (String argument : getPlay2SystemPropertiesArguments()) {
+            fingerprint.add("arg:" + argument, argument);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Computes the key identifying the outputs of the compilation in the output cache. Unlike
+     * {@link #computeSourceFingerprint()}, the key does not depend on the machine: it is computed from the sources
+     * (using paths relative to the project base directory), the Play and sbt versions of the project, the project
+     * coordinates and properties, the resolved artifacts (with the checksum of the snapshots, which change without
+     * changing their version), and the system properties arguments.
+     *
+     * @return the cache key
+     * @throws IOException            if a source file or a snapshot cannot be read
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    public String computeCacheKey() throws IOException, MojoExecutionException {
+        Fingerprint fingerprint = new Fingerprint();
+        addSources(fingerprint);
+
+        File build = new File(project.getBasedir(), "project");
+        fingerprint.add("play", getVersion(new File(build, "plugins.sbt"), PLAY_VERSION));
+        fingerprint.add("sbt", getVersion(new File(build, "build.properties"), SBT_VERSION));
+        fingerprint.add("project", project.getGroupId() + ":" + project.getArtifactId() + ":" + project.getVersion());
+        Properties properties = project.getProperties();
+        if (properties != null) {
+            for (Map.Entry<Object, Object> entry : properties.entrySet()) {
+                fingerprint.add("property:" + entry.getKey(), entry.getValue().toString());
+            }
+        }
+        if (project.getArtifacts() != null) {
+            for (Object object : project.getArtifacts()) {
+                Artifact artifact = (Artifact) object;
+                String value = artifact.getVersion() + ":" + artifact.getScope();
+                if (artifact.isSnapshot() && artifact.getFile() != null && artifact.getFile().isFile()) {
+                    value += ":" + Fingerprint.sha1(artifact.getFile());
+                }
+                fingerprint.add("dependency:" + artifact.getDependencyConflictId(), value);
+            }
+        }
+        for (String argument : getPlay2SystemPropertiesArguments()) {
+            fingerprint.add("arg:" + argument, argument);
+        }
+        return fingerprint.getDigest();
+    }
+
+    /**
+     * Extracts a version from a build file of the project.
+     *
+     * @param file    the file, such as <tt>project/plugins.sbt</tt>
+     * @param pattern the pattern, whose first group is the version
+     * @return the version, or the checksum of the file if the version cannot be found, <tt>missing</tt> if there is
+     *         no such file
+     * @throws IOException if the file cannot be read
+     */
+    static String getVersion(File file, Pattern pattern) throws IOException {
+        if (!file.isFile()) {
+            return "missing";
+        }
+        Matcher matcher = pattern.matcher(FileUtils.readFileToString(file));
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        // Computed by the build definition.
+        return Fingerprint.sha1(file);
+    }
+
+    /**
+     * @return the output cache, backed by the remote cache if configured.
+     */
+    public BuildCache getOutputCache() {
+        RemoteBuildCache remote = null;
+        if (remoteCacheUrl != null && remoteCacheUrl.length() != 0) {
+            remote = new RemoteBuildCache(remoteCacheUrl);
+        }
+        return new BuildCache(outputCacheDirectory, remote, remoteCachePush);
+    }
+
+    /**
+     * Adds the Play source directories, and the Maven source and resource roots to the given fingerprint.
+     */
+    private void addSources(Fingerprint fingerprint) throws IOException {
+        File basedir = project.getBasedir();
+
+        for (String directory : PLAY2_SOURCE_DIRECTORIES) {
+            fingerprint.addDirectory(directory, new File(basedir, directory));
+        }
+        for (Object root : project.getCompileSourceRoots()) {
+            File directory = new File(root.toString());
+            fingerprint.addDirectory("source:" + getRelativePath(basedir, directory), directory);
+        }
+        for (Object resource : project.getBuild().getResources()) {
+            File directory = new File(((Resource) resource).getDirectory());
+            fingerprint.addDirectory("resource:" + getRelativePath(basedir, directory), directory);
+        }
+    }
+
+    /**
+     * @return the path of <tt>file</tt> relative to <tt>basedir</tt>, or its absolute path if the file is not
+     * contained in <tt>basedir</tt>.
+     */
+    static String getRelativePath(File basedir, File file) {
+        String base = basedir.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        if (path.startsWith(base)) {
+            return path.substring(base.length()).replace(File.separatorChar, '/');
+        }
+        return path;
+    }
+
+    /**
+     * @param name the name of the file
+     * @return the file stored in the plugin state directory (<tt>target/play2</tt>)
+     */
+    public File getStateFile(String name) {
+        return new File(new File(buildDirectory, PLUGIN_STATE_DIRECTORY), name);
+    }
+
+    /**
+     * @return the timestamp of the entries of the archives, <tt>-1</tt> if the archives are not reproducible
+     * @throws MojoExecutionException if the <tt>outputTimestamp</tt> parameter is invalid
+     */
+    public long getOutputTimestamp() throws MojoExecutionException {
+        if (outputTimestamp == null || outputTimestamp.trim().length() < 2) {
+            return -1;
+        }
+        String value = outputTimestamp.trim();
+        if (value.matches("[0-9]+")) {
+            return Long.parseLong(value) * 1000;
+        }
+        // SimpleDateFormat does not support the 'Z' and '+01:00' ISO-8601 zones.
+        String date = value.replaceFirst("Z$", "+0000").replaceFirst("([+-][0-9]{2}):([0-9]{2})$", "$1$2");
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ENGLISH);
+        format.setLenient(false);
+        ParsePosition position = new ParsePosition(0);
+        Date parsed = format.parse(date, position);
+        if (parsed == null || position.getIndex() != date.length()) {
+            throw new MojoExecutionException("Invalid outputTimestamp " + value + ", expected an ISO-8601 date " +
+                    "(2013-01-01T00:00:00Z) or a number of seconds since the epoch");
+        }
+        return parsed.getTime();
+    }
+
+    /**
+     * @return the number of threads compressing the archives
+     */
+    public int getArchiveThreads() {
+        return archiveThreads > 0 ? archiveThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the number of threads copying the files
+     */
+    public int getCopyThreads() {
+        return Math.max(1, copyThreads);
+    }
+
+    /**
+     * Gets the dependency graph of the project. It is built once per build, and shared by the goals of the plugin
+     * executed on the project.
+     *
+     * @return the graph
+     * @throws MojoExecutionException if the dependency tree cannot be built
+     */
+    public DependencyGraph getDependencyGraph() throws MojoExecutionException {
+        DependencyGraph graph = DependencyGraph.get(project, session);
+        if (graph != null) {
+            getLog().debug("Reusing the dependency tree built earlier in the build");
+            return graph;
+        }
+        try {
+            getLog().debug("Building dependency tree");
+            return DependencyGraph.put(project, session, dependencyTreeBuilder.buildDependencyTree(project, local,
+                    factory, artifactMetadataSource, null, artifactCollector));
+        } catch (DependencyTreeBuilderException e) {
+            getLog().error("Cannot build the dependency tree", e);
+            throw new MojoExecutionException("Cannot build the dependency tree", e);
+        }
+    }
 }
@@ -15,17 +15,14 @@
 
 package de.akquinet.innovation.play.maven;
 
-import org.apache.maven.artifact.factory.ArtifactFactory;
-import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import de.akquinet.innovation.play.maven.utils.ParallelCopy;
 import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.artifact.resolver.ArtifactCollector;
 import org.apache.maven.artifact.resolver.ArtifactResolver;
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.dependency.CopyDependenciesMojo;
-import org.apache.maven.project.MavenProject;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -35,24 +32,7 @@ import java.util.List;
  * @requiresDependencyResolution test
  */
 public class CopyDependenciesToLibMojo
-        extends AbstractMojo {
-
-    /**
-     * The maven project.
-     *
-     * @parameter expression="${project}"
-     * @required
-     * @readonly
-     */
-    protected MavenProject project;
-
-
-    /**
-     * Used to look up Artifacts in the remote repository.
-     *
-     * @component
-     */
-    protected ArtifactFactory factory;
+        extends AbstractPlay2Mojo {
 
     /**
      * Used to look up Artifacts in the remote repository.
@@ -61,32 +41,6 @@ public class CopyDependenciesToLibMojo
      */
     protected ArtifactResolver resolver;
 
-    /**
-     * Artifact collector, needed to resolve dependencies.
-     *
-     * @component role="org.apache.maven.artifact.resolver.ArtifactCollector"
-     * @required
-     * @readonly
-     */
-    protected ArtifactCollector artifactCollector;
-
-    /**
-     * @component role="org.apache.maven.artifact.metadata.ArtifactMetadataSource"
-     * hint="maven"
-     * @required
-     * @readonly
-     */
-    protected ArtifactMetadataSource artifactMetadataSource;
-
-    /**
-     * Location of the local repository.
-     *
-     * @parameter expression="${localRepository}"
-     * @readonly
-     * @required
-     */
-    private ArtifactRepository local;
-
     /**
      * List of Remote Repositories used by the resolver
      *
@@ -138,5 +92,36 @@ public class CopyDependenciesToLibMojo
             excludeTransitive = false;
             excludeScope = "provided";
         }
+
+        private ParallelCopy copy;
+
+        public void execute() throws MojoExecutionException {
+            // The lib directory is part of the sources, its files must not be hard links to the local repository.
+            copy = new ParallelCopy(getCopyThreads(), false, getLog());
+            boolean executed = false;
+            try {
+                super.execute();
+                executed = true;
+            } finally {
+                try {
+                    copy.finish();
+                } catch (IOException e) {
+                    if (executed) {
+                        throw new MojoExecutionException("Cannot copy the dependencies to " + lib, e);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copies the files on the threads of the copier, the copies are completed by {@link #execute()}.
+         */
+        protected void copyFile(File artifact, File destFile) throws MojoExecutionException {
+            try {
+                copy.copy(artifact, destFile, "Copying " + artifact.getName() + " to " + destFile);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error copying artifact from " + artifact + " to " + destFile, e);
+            }
+        }
     }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the play commands already executed by a batched invocation (<tt>play compile test package
+ * dist</tt>), so the goals executed later in the build only collect the results instead of invoking play again.
+ * <p/>
+ * The executed commands are recorded per project and per Maven session; the commands of the previous sessions are
+ * released when a new session starts.
+ */
+public class Play2Batch {
+
+    /**
+     * The phases of the default lifecycle, in order.
+     */
+    public static final List<String> LIFECYCLE = Arrays.asList(
+            "validate", "initialize", "generate-sources", "process-sources", "generate-resources",
+            "process-resources", "compile", "process-classes", "generate-test-sources", "process-test-sources",
+            "generate-test-resources", "process-test-resources", "test-compile", "process-test-classes", "test",
+            "prepare-package", "package", "pre-integration-test", "integration-test", "post-integration-test",
+            "verify", "install", "deploy");
+
+    private static final Map<String, Executed> EXECUTED = new HashMap<String, Executed>();
+
+    private Play2Batch() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Gets the last lifecycle phase reached by the current build, according to the goals given to Maven.
+     *
+     * @param goals the goals and phases given to Maven
+     * @return the index of the last phase reached in {@link #LIFECYCLE}, <tt>-1</tt> if no phase of the default
+     *         lifecycle is requested.
+     */
+    public static int getLastPhase(List<String> goals) {
+        int last = -1;
+        if (goals == null) {
+            return last;
+        }
+        for (String goal : goals) {
+            last = Math.max(last, LIFECYCLE.indexOf(goal));
+        }
+        return last;
+    }
+
+    /**
+     * Checks whether the given phase is reached by the current build.
+     *
+     * @param goals the goals and phases given to Maven
+     * @param phase the phase
+     * @return <code>true</code> if the phase is executed
+     */
+    public static boolean isPhaseReached(List<String> goals, String phase) {
+        return getLastPhase(goals) >= LIFECYCLE.indexOf(phase);
+    }
+
+    /**
+     * Records the successful execution of the given commands. The commands recorded during the previous sessions are
+     * released.
+     *
+     * @param mojo     the mojo having executed the commands
+     * @param commands the commands
+     */
+    public static synchronized void markExecuted(AbstractPlay2Mojo mojo, String... commands) {
+        String session = getSessionKey(mojo);
+        for (Iterator<Executed> it = EXECUTED.values().iterator(); it.hasNext(); ) {
+            if (!it.next().session.equals(session)) {
+                it.remove();
+            }
+        }
+        String key = getProjectKey(mojo);
+        Executed executed = EXECUTED.get(key);
+        if (executed == null) {
+            executed = new Executed(session);
+            EXECUTED.put(key, executed);
+        }
+        executed.commands.addAll(Arrays.asList(commands));
+    }
+
+    /**
+     * Checks whether the given command has already been executed by a batched invocation for the project of the
+     * given mojo during the current session.
+     *
+     * @param mojo    the mojo
+     * @param command the command
+     * @return <code>true</code> if the command was already executed
+     */
+    public static synchronized boolean isExecuted(AbstractPlay2Mojo mojo, String command) {
+        Executed executed = EXECUTED.get(getProjectKey(mojo));
+        return executed != null && executed.session.equals(getSessionKey(mojo))
+                && executed.commands.contains(command);
+    }
+
+    private static String getProjectKey(AbstractPlay2Mojo mojo) {
+        return mojo.getProject().getBasedir().getAbsolutePath();
+    }
+
+    private static String getSessionKey(AbstractPlay2Mojo mojo) {
+        if (mojo.session != null && mojo.session.getStartTime() != null) {
+            return String.valueOf(mojo.session.getStartTime().getTime());
+        }
+        return "";
+    }
+
+    /**
+     * The commands executed for a project during a session.
+     */
+    private static class Executed {
+        private final String session;
+        private final Set<String> commands = new HashSet<String>();
+
+        private Executed(String session) {
+            this.session = session;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven;
+
+import de.akquinet.innovation.play.maven.utils.BuildCacheServer;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Starts a remote build cache server, usable with the <tt>remoteCacheUrl</tt> parameter.
+ * The server stores the cache entries in a directory, and runs until Maven is stopped. It is meant for local testing
+ * of the remote cache.
+ *
+ * @goal cache-server
+ * @requiresProject false
+ */
+public class Play2CacheServerMojo extends AbstractMojo {
+
+    /**
+     * The port of the server.
+     *
+     * @parameter default-value="9088" expression="${play2cacheServerPort}"
+     */
+    int port;
+
+    /**
+     * The directory storing the cache entries.
+     *
+     * @parameter default-value="${user.home}/.m2/play2-remote-cache" expression="${play2cacheServerDirectory}"
+     */
+    File directory;
+
+    public void execute() throws MojoExecutionException {
+        BuildCacheServer server = new BuildCacheServer(directory);
+        try {
+            server.start(port);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot start the cache server on port " + port, e);
+        }
+
+        getLog().info("Build cache server listening on http://localhost:" + server.getPort() + "/ - entries stored in "
+                + directory.getAbsolutePath());
+        getLog().info("Press Ctrl+C to stop the server");
+
+        try {
+            synchronized (this) {
+                while (true) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } finally {
+            server.stop();
+        }
+    }
+}
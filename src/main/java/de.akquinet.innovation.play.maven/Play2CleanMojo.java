@@ -15,9 +15,6 @@
 
 package de.akquinet.innovation.play.maven;
 
-import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 
@@ -50,21 +47,8 @@ public class Play2CleanMojo
     public void execute()
             throws MojoExecutionException {
 
-        String line = getPlay2().getAbsolutePath();
-
-        CommandLine cmdLine = CommandLine.parse(line);
-        cmdLine.addArgument("clean");
-        DefaultExecutor executor = new DefaultExecutor();
-
-        if (timeout > 0) {
-            ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
-            executor.setWatchdog(watchdog);
-        }
-
-        executor.setWorkingDirectory(project.getBasedir());
-        executor.setExitValue(0);
         try {
-            executor.execute(cmdLine, getEnvironment());
+            executePlay2(false, "clean");
         } catch (IOException e) {
             throw new MojoExecutionException("Error during cleanup", e);
         }
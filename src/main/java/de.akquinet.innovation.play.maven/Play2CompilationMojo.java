@@ -15,19 +15,14 @@
 
 package de.akquinet.innovation.play.maven;
 
-import org.apache.commons.exec.CommandLine;
-import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteWatchdog;
-import org.apache.maven.artifact.factory.ArtifactFactory;
-import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
-import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.artifact.resolver.ArtifactCollector;
-import org.apache.maven.artifact.resolver.ArtifactResolver;
+import de.akquinet.innovation.play.maven.utils.Fingerprint;
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.plugin.dependency.CopyDependenciesMojo;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -35,31 +30,306 @@ import java.util.List;
  *
  * @goal compile
  * @phase compile
+ * @requiresDependencyResolution test
  */
 public class Play2CompilationMojo
         extends AbstractPlay2Mojo {
 
+    /**
+     * The name of the file storing the fingerprint of the last successful compilation.
+     */
+    public static final String FINGERPRINT_FILE = "compile.fingerprint";
+
+    /**
+     * The name of the file storing the key of the cache entry matching the current compilation outputs.
+     */
+    public static final String CACHE_KEY_FILE = "compile.cache-key";
+
+    /**
+     * The directories (relative to <tt>target/scala-*</tt>) stored in the output cache. The sbt incremental
+     * compilation state (<tt>cache</tt>) is not cached: it holds absolute paths and timestamps, invalid in another
+     * checkout.
+     */
+    public static final List<String> CACHED_OUTPUTS = Arrays.asList("classes", "classes_managed",
+            "resource_managed");
+
+    /**
+     * Whether the tests are skipped. Used to compute the batched commands.
+     * This parameter is shared with the test mojo.
+     *
+     * @parameter default-value="false" expression="${skipTests}"
+     */
+    boolean skipTests;
+
+    /**
+     * Whether the tests are skipped. Used to compute the batched commands.
+     * This parameter is shared with the test mojo.
+     *
+     * @parameter default-value="false" expression="${maven.test.skip}"
+     */
+    boolean skip;
+
+    /**
+     * Whether the tests are run in shards. The test mojo then runs its own commands, so <tt>test</tt> is not batched.
+     * This parameter is shared with the test mojo.
+     *
+     * @parameter default-value="false" expression="${play2shardTests}"
+     */
+    boolean shardTests;
+
+    /**
+     * Whether only the tests affected by the changes are run. The test mojo then runs its own commands, so
+     * <tt>test</tt> is not batched. This parameter is shared with the test mojo.
+     *
+     * @parameter default-value="false" expression="${play2testImpact}"
+     */
+    boolean testImpact;
+
+    /**
+     * The number of re-runs of the failing test classes. The test mojo then runs its own commands, so <tt>test</tt>
+     * is not batched. This parameter is shared with the test mojo.
+     *
+     * @parameter default-value="0" expression="${play2rerunFailingTestsCount}"
+     */
+    int rerunFailingTestsCount;
+
+    /**
+     * Whether the distribution is built. Used to compute the batched commands.
+     * This parameter is shared with the package mojo.
+     *
+     * @parameter default-value=true
+     */
+    boolean buildDist;
+
+    /**
+     * Whether the distribution is assembled by the plugin instead of <tt>play dist</tt>. Used to compute the batched
+     * commands. This parameter is shared with the package mojo.
+     *
+     * @parameter default-value=false expression="${play2nativeDist}"
+     */
+    boolean nativeDist;
+
+    /**
+     * Enables the skipping of the compilation when nothing has changed since the last successful compilation.
+     * The Play source directories, the Maven source roots, the Play version, the environment and the system
+     * properties given to <tt>play</tt> are fingerprinted. If the fingerprint matches the one stored by the last
+     * successful compilation (in <tt>target/play2</tt>), <tt>play</tt> is not invoked.
+     *
+     * @parameter default-value="false" expression="${play2skipUnchanged}"
+     */
+    boolean skipUnchanged;
 
     public void execute()
             throws MojoExecutionException {
 
-        String line = getPlay2().getAbsolutePath();
+        Fingerprint fingerprint = null;
+        if (skipUnchanged) {
+            fingerprint = getFingerprint();
+            if (isUpToDate(fingerprint)) {
+                getLog().info("Nothing to compile - all inputs are unchanged since the last compilation");
+                return;
+            }
+        }
+
+        String cacheKey = null;
+        if (outputCache) {
+            cacheKey = getCacheKey();
+            if (!restoreFromCache(cacheKey)) {
+                compile();
+                storeInCache(cacheKey);
+            }
+        } else {
+            compile();
+        }
+
+        if (fingerprint != null) {
+            try {
+                fingerprint.store(getStateFile(FINGERPRINT_FILE));
+            } catch (IOException e) {
+                getLog().warn("Cannot store the compilation fingerprint", e);
+            }
+        }
+    }
+
+    private String getCacheKey() throws MojoExecutionException {
+        try {
+            return computeCacheKey();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot compute the cache key of the sources", e);
+        }
+    }
+
+    /**
+     * Restores the compilation outputs from the output cache.
+     * Nothing is copied if the outputs were already restored from (or stored in) the same cache entry.
+     *
+     * @param key the cache key
+     * @return <code>true</code> if the outputs are available, so the compilation can be skipped
+     */
+    private boolean restoreFromCache(String key) {
+        File marker = getStateFile(CACHE_KEY_FILE);
+        try {
+            if (marker.isFile() && key.equals(FileUtils.readFileToString(marker).trim())
+                    && new File(findScalaDirectory(), "classes").isDirectory()) {
+                getLog().info("Compilation outputs up to date with the cache entry " + key);
+                return true;
+            }
+        } catch (IOException e) {
+            getLog().debug("Cannot check the current compilation outputs : " + e.getMessage());
+        }
+
+        try {
+            // The current outputs are deleted first, so classes absent from the entry do not shadow it.
+            if (getOutputCache().restore(key, getBuildDirectory(), getCurrentOutputs())) {
+                FileUtils.writeStringToFile(marker, key);
+                getLog().info("Compilation outputs restored from the cache entry " + key);
+                return true;
+            }
+        } catch (IOException e) {
+            getLog().warn("Cannot restore the compilation outputs from the cache, compiling", e);
+        }
+        return false;
+    }
+
+    /**
+     * Lists the cached outputs present in the build directory.
+     *
+     * @return the paths of the outputs, relative to the build directory
+     */
+    private List<String> getCurrentOutputs() {
+        List<String> paths = new ArrayList<String>();
+        File[] files = getBuildDirectory().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory() && file.getName().startsWith("scala-")) {
+                    for (String output : CACHED_OUTPUTS) {
+                        paths.add(file.getName() + "/" + output);
+                    }
+                }
+            }
+        }
+        return paths;
+    }
 
-        CommandLine cmdLine = CommandLine.parse(line);
-        cmdLine.addArgument("compile");
-        DefaultExecutor executor = new DefaultExecutor();
+    /**
+     * Stores the compilation outputs in the output cache. A failure is not fatal.
+     *
+     * @param key the cache key
+     */
+    private void storeInCache(String key) {
+        try {
+            String scala = findScalaDirectory().getName();
+            List<String> paths = new ArrayList<String>();
+            for (String output : CACHED_OUTPUTS) {
+                paths.add(scala + "/" + output);
+            }
+            if (getOutputCache().store(key, getBuildDirectory(), paths)) {
+                getLog().info("Compilation outputs stored in the cache entry " + key);
+            }
+            FileUtils.writeStringToFile(getStateFile(CACHE_KEY_FILE), key);
+        } catch (IOException e) {
+            getLog().warn("Cannot store the compilation outputs in the cache", e);
+        }
+    }
 
-        if (timeout > 0) {
-            ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
-            executor.setWatchdog(watchdog);
+    private void compile() throws MojoExecutionException {
+        if (batch) {
+            List<String> commands = getBatchedCommands();
+            if (commands.size() > 1) {
+                getLog().info("Executing the batched play commands " + commands);
+                try {
+                    if (commands.contains("test")) {
+                        Play2TestMojo.deleteReports(getBuildDirectory());
+                    }
+                    executePlay2(commands.contains("test"), commands.toArray(new String[commands.size()]));
+                    Play2Batch.markExecuted(this, commands.toArray(new String[commands.size()]));
+                    return;
+                } catch (IOException e) {
+                    // The failure may come from the tests, let the test goal report it.
+                    getLog().warn("The batched play invocation has failed, compiling the application alone");
+                }
+            }
         }
 
-        executor.setExitValue(0);
-        executor.setWorkingDirectory(project.getBasedir());
         try {
-            executor.execute(cmdLine, getEnvironment());
+            executePlay2(false, "compile");
         } catch (IOException e) {
             throw new MojoExecutionException("Error during compilation", e);
         }
     }
+
+    private Fingerprint getFingerprint() throws MojoExecutionException {
+        try {
+            return computeSourceFingerprint();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot compute the fingerprint of the sources", e);
+        }
+    }
+
+    /**
+     * Checks whether the given fingerprint matches the one stored by the last successful compilation, and whether
+     * the compiled classes are still there.
+     *
+     * @param fingerprint the fingerprint of the current inputs
+     * @return <code>true</code> if the compilation can be skipped
+     */
+    private boolean isUpToDate(Fingerprint fingerprint) {
+        try {
+            if (!new File(findScalaDirectory(), "classes").isDirectory()) {
+                return false;
+            }
+            Fingerprint previous = Fingerprint.load(getStateFile(FINGERPRINT_FILE));
+            if (fingerprint.matches(previous)) {
+                return true;
+            }
+            if (previous != null && getLog().isDebugEnabled()) {
+                getLog().debug("Changed inputs since the last compilation : " + fingerprint.diff(previous));
+            }
+        } catch (IOException e) {
+            getLog().debug("Cannot check the previous compilation : " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the tests are run by a plain <tt>play test</tt>. The sharded execution, the test impact analysis
+     * and the re-runs of the failing tests are handled by the test mojo, which must then run its own commands.
+     *
+     * @return <code>true</code> if the tests can be batched
+     */
+    private boolean isPlainTestExecution() {
+        return !shardTests && !testImpact && rerunFailingTestsCount <= 0;
+    }
+
+    /**
+     * Computes the play commands to execute for the current build, according to the phases requested to Maven.
+     *
+     * @return the list of commands, starting with <tt>compile</tt>
+     */
+    List<String> getBatchedCommands() {
+        return getBatchedCommands(session != null ? session.getGoals() : null);
+    }
+
+    /**
+     * Computes the play commands to execute for the given goals.
+     *
+     * @param goals the goals and phases given to Maven
+     * @return the list of commands, starting with <tt>compile</tt>
+     */
+    List<String> getBatchedCommands(List<String> goals) {
+        List<String> commands = new ArrayList<String>();
+        commands.add("compile");
+
+        if (Play2Batch.isPhaseReached(goals, "test") && !skip && !skipTests && isPlainTestExecution()) {
+            commands.add("test");
+        }
+        if (Play2Batch.isPhaseReached(goals, "package")) {
+            commands.add("package");
+            // The native distribution is assembled by the package mojo, without play dist.
+            if (buildDist && !nativeDist) {
+                commands.add("dist");
+            }
+        }
+        return commands;
+    }
 }
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * A long-lived <tt>play</tt> process shared by the goals of a build.
+ * <p/>
+ * The process is launched in interactive mode, and commands are written to its standard input. The completion of a
+ * command is detected using the summary line printed by sbt once the command is done (<tt>[success] Total time</tt>
+ * or <tt>[error] Total time</tt>). The output coloring is disabled to make this detection reliable.
+ * <p/>
+ * There is at most one process per project base directory. The process is stopped once it stayed idle for longer
+ * than the configured idle timeout, when its configuration (executable, arguments or environment) changes, and when
+ * the JVM exits.
+ */
+public class Play2Daemon {
+
+    /**
+     * Disables the sbt output formatting, so the summary lines can be recognized.
+     */
+    public static final String NO_FORMAT_ARGUMENT = "-Dsbt.log.noformat=true";
+
+    private static final Pattern SUCCESS = Pattern.compile("^\\[success\\] Total time.*");
+    private static final Pattern FAILURE = Pattern.compile("^\\[error\\] Total time.*");
+    private static final Pattern LOADING_FAILURE = Pattern.compile(".*Project loading failed.*");
+    private static final Pattern ANSI_ESCAPE = Pattern.compile("\u001B\\[[;\\d]*[A-Za-z]");
+
+    /**
+     * The running processes, by project base directory.
+     */
+    private static final Map<File, Play2Daemon> DAEMONS = new HashMap<File, Play2Daemon>();
+
+    private static final Timer IDLE_TIMER = new Timer("play2-daemon-idle-timer", true);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread("play2-daemon-shutdown") {
+            public void run() {
+                stopAll();
+            }
+        });
+    }
+
+    private final File baseDirectory;
+    private final List<String> command;
+    private final Map<String, String> environment;
+    private final BlockingQueue<Boolean> completions = new LinkedBlockingQueue<Boolean>();
+
+    private Process process;
+    private Writer input;
+    private TimerTask idleTask;
+    private long idleTimeout;
+    private volatile boolean alive;
+
+    Play2Daemon(File baseDirectory, List<String> command, Map<String, String> environment) {
+        this.baseDirectory = baseDirectory;
+        this.command = command;
+        this.environment = environment;
+    }
+
+    /**
+     * Gets the shared process of the project built by the given mojo.
+     * A new process is started if there is none, if the previous one has stopped, or if the configuration
+     * (executable, system properties, environment) has changed since it was launched.
+     *
+     * @param mojo the mojo
+     * @return the running process
+     * @throws IOException            if the process cannot be started
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    public static synchronized Play2Daemon get(AbstractPlay2Mojo mojo) throws IOException, MojoExecutionException {
+        File basedir = mojo.getProject().getBasedir().getAbsoluteFile();
+
+        List<String> command = new ArrayList<String>();
+        command.add(mojo.getPlay2().getAbsolutePath());
+        command.add(NO_FORMAT_ARGUMENT);
+        command.addAll(Arrays.asList(mojo.getPlay2SystemPropertiesArguments()));
+        Map<String, String> environment = mojo.getEnvironment();
+
+        Play2Daemon daemon = DAEMONS.get(basedir);
+        if (daemon != null && (!daemon.alive
+                || !daemon.command.equals(command) || !daemon.environment.equals(environment))) {
+            mojo.getLog().info("Stopping the shared play process of " + basedir.getAbsolutePath()
+                    + " - configuration changed or process stopped");
+            daemon.stop();
+            daemon = null;
+        }
+
+        if (daemon == null) {
+            mojo.getLog().info("Starting a shared play process in " + basedir.getAbsolutePath());
+            daemon = new Play2Daemon(basedir, command, environment);
+            daemon.start();
+            DAEMONS.put(basedir, daemon);
+        } else {
+            mojo.getLog().info("Reusing the shared play process of " + basedir.getAbsolutePath());
+        }
+
+        daemon.scheduleIdleShutdown(mojo.daemonIdleTimeout);
+        return daemon;
+    }
+
+    /**
+     * Stops all running processes.
+     */
+    public static synchronized void stopAll() {
+        for (Play2Daemon daemon : DAEMONS.values()) {
+            daemon.stop();
+        }
+        DAEMONS.clear();
+    }
+
+    void start() throws IOException {
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(baseDirectory);
+        builder.redirectErrorStream(true);
+        builder.environment().clear();
+        builder.environment().putAll(environment);
+
+        process = builder.start();
+        input = new OutputStreamWriter(process.getOutputStream());
+        alive = true;
+
+        final Process started = process;
+        Thread reader = new Thread("play2-daemon-output-" + baseDirectory.getName()) {
+            public void run() {
+                pumpOutput(started);
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Forwards the process output to the standard output, and detects the completion of the commands.
+     */
+    private void pumpOutput(Process started) {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(started.getInputStream()));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                System.out.println(line);
+                String raw = ANSI_ESCAPE.matcher(line).replaceAll("");
+                if (SUCCESS.matcher(raw).matches()) {
+                    completions.offer(Boolean.TRUE);
+                } else if (FAILURE.matcher(raw).matches()) {
+                    completions.offer(Boolean.FALSE);
+                } else if (LOADING_FAILURE.matcher(raw).matches()) {
+                    // sbt is waiting for an answer we can't give, give up.
+                    alive = false;
+                    completions.offer(Boolean.FALSE);
+                    started.destroy();
+                }
+            }
+        } catch (IOException e) {
+            // The process has been stopped.
+        } finally {
+            alive = false;
+            completions.offer(Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Executes the given commands, one after the other. The execution stops at the first failing command. The idle
+     * timeout is suspended during the execution, and restarted once it completes.
+     *
+     * @param timeout  the maximum time (in milliseconds) given to each command, <tt>-1</tt> to wait forever. When
+     *                 reached, the process is killed.
+     * @param commands the commands
+     * @throws IOException if a command has failed or if the process has stopped
+     */
+    public synchronized void execute(long timeout, String... commands) throws IOException {
+        cancelIdleShutdown();
+        try {
+            for (String cmd : commands) {
+                if (!alive) {
+                    throw new IOException("The shared play process has stopped");
+                }
+                completions.clear();
+                input.write(cmd);
+                input.write('\n');
+                input.flush();
+
+                Boolean success;
+                if (timeout > 0) {
+                    success = completions.poll(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    success = completions.take();
+                }
+
+                if (success == null) {
+                    stop();
+                    throw new IOException("Timeout reached while executing '" + cmd + "', shared play process killed");
+                }
+                if (!success) {
+                    throw new IOException("The execution of '" + cmd + "' has failed");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            IOException failure = new IOException("Interrupted while waiting for the shared play process");
+            failure.initCause(e);
+            throw failure;
+        } finally {
+            if (alive) {
+                scheduleIdleShutdown(idleTimeout);
+            }
+        }
+    }
+
+    /**
+     * Stops the process once it stayed idle for the given time.
+     *
+     * @param timeout the idle timeout in milliseconds, <tt>0</tt> or less to keep the process running
+     */
+    synchronized void scheduleIdleShutdown(long timeout) {
+        cancelIdleShutdown();
+        idleTimeout = timeout;
+        if (idleTimeout > 0) {
+            idleTask = new TimerTask() {
+                public void run() {
+                    synchronized (Play2Daemon.class) {
+                        if (DAEMONS.get(baseDirectory) == Play2Daemon.this) {
+                            DAEMONS.remove(baseDirectory);
+                        }
+                    }
+                    stop();
+                }
+            };
+            IDLE_TIMER.schedule(idleTask, idleTimeout);
+        }
+    }
+
+    private synchronized void cancelIdleShutdown() {
+        if (idleTask != null) {
+            idleTask.cancel();
+            idleTask = null;
+        }
+    }
+
+    /**
+     * Stops the process. It first asks sbt to exit, and kills the process if it does not stop in time.
+     */
+    public synchronized void stop() {
+        cancelIdleShutdown();
+        if (process == null) {
+            return;
+        }
+        try {
+            if (alive) {
+                input.write("exit\n");
+                input.flush();
+            }
+        } catch (IOException e) {
+            // Already stopped.
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (alive && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        process.destroy();
+        alive = false;
+        process = null;
+    }
+
+    /**
+     * @return whether the process is running.
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+}
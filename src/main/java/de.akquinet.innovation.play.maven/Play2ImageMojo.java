@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven;
+
+import de.akquinet.innovation.play.maven.utils.Distribution;
+import de.akquinet.innovation.play.maven.utils.DistributionLayers;
+import de.akquinet.innovation.play.maven.utils.OciImage;
+import org.apache.commons.lang.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Build a container image of the distribution, without Docker.
+ * The image is written in the OCI image layout, as a tar archive (<tt>target/finalName-image.tar</tt>) that can be
+ * loaded with <tt>docker load</tt> or pushed with <tt>skopeo</tt>. Its layers are the layers of the distribution:
+ * the dependencies, the snapshot dependencies and the application. The digests of the layers are cached in the build
+ * directory, so the unchanged layers are neither written nor hashed again.
+ * <p/>
+ * The distribution must have been built by the <tt>package</tt> goal.
+ *
+ * @goal image
+ * @phase package
+ */
+public class Play2ImageMojo
+        extends AbstractPlay2Mojo {
+
+    /**
+     * The classifier of the distribution, as configured for the <tt>package</tt> goal.
+     *
+     * @parameter default-value=""
+     */
+    String classifier;
+    /**
+     * The name of the image.
+     *
+     * @parameter default-value="${project.artifactId}" expression="${play2imageName}"
+     */
+    String imageName;
+    /**
+     * The tag of the image.
+     *
+     * @parameter default-value="${project.version}" expression="${play2imageTag}"
+     */
+    String imageTag;
+    /**
+     * The base image, providing the Java runtime used by the start script. It is a directory containing an OCI image
+     * layout, such as the one written by <tt>skopeo copy docker://eclipse-temurin:8-jre oci:target/base</tt>.
+     * Without base image, the image only contains the distribution.
+     *
+     * @parameter expression="${play2imageBase}"
+     */
+    File imageBase;
+    /**
+     * The architecture of the image, selecting the image in a multi-platform base image.
+     *
+     * @parameter default-value="amd64" expression="${play2imageArchitecture}"
+     */
+    String imageArchitecture;
+    /**
+     * The ports listened by the application, separated by commas.
+     *
+     * @parameter default-value="9000" expression="${play2imagePorts}"
+     */
+    String imagePorts;
+    /**
+     * The environment variables of the container.
+     *
+     * @parameter
+     */
+    Map<String, String> imageEnvironment;
+    /**
+     * Enables the attachment of the image archive to the project, with the <tt>image</tt> classifier and the
+     * <tt>tar</tt> type.
+     *
+     * @parameter default-value=false expression="${play2attachImage}"
+     */
+    boolean attachImage;
+
+    public void execute()
+            throws MojoExecutionException {
+
+        File dist = getFile(".zip");
+        File application = getFile(".jar");
+        if (!dist.isFile() || !application.isFile()) {
+            throw new MojoExecutionException("Cannot build the image - the distribution " + dist.getAbsolutePath()
+                    + " or the application " + application.getAbsolutePath() + " does not exist, the package goal "
+                    + "must be executed before");
+        }
+
+        long timestamp = getOutputTimestamp();
+        long time = timestamp != -1 ? timestamp : 0;
+        String base = StringUtils.substringBeforeLast(dist.getName(), ".zip");
+        File image = getFile("-image.tar");
+        try {
+            List<DistributionLayers.Layer> layers = DistributionLayers.write(dist, application, getBuildDirectory(),
+                    base, time, getStateFile("layers.properties"));
+
+            OciImage oci = new OciImage(imageName, imageTag);
+            oci.setArchitecture(imageArchitecture);
+            oci.setCreated(time);
+            if (imageBase != null) {
+                oci.setBase(imageBase);
+            }
+            for (DistributionLayers.Layer layer : layers) {
+                getLog().info("Layer " + layer.getName() + ": sha256:" + layer.getDigest()
+                        + (layer.isChanged() ? "" : " - unchanged"));
+                oci.addLayer(layer);
+            }
+            String root = "/" + Distribution.getRootDirectory(dist);
+            oci.setEntrypoint(Arrays.asList(root + "/start"));
+            oci.setWorkingDirectory(root);
+            for (String port : StringUtils.split(imagePorts, ", ")) {
+                oci.addExposedPort(port);
+            }
+            if (imageEnvironment != null) {
+                for (Map.Entry<String, String> variable : imageEnvironment.entrySet()) {
+                    oci.setEnvironment(variable.getKey(), variable.getValue());
+                }
+            }
+
+            String reference = imageName + ":" + imageTag;
+            String digest = oci.getDigest();
+            File state = getStateFile("image.properties");
+            Properties properties = load(state);
+            if (image.isFile() && digest.equals(properties.getProperty("digest"))
+                    && reference.equals(properties.getProperty("reference"))
+                    && Long.toString(image.length()).equals(properties.getProperty("size"))) {
+                getLog().info("Image " + reference + " unchanged (" + digest + ")");
+            } else {
+                oci.write(image);
+                properties.setProperty("digest", digest);
+                properties.setProperty("reference", reference);
+                properties.setProperty("size", Long.toString(image.length()));
+                store(state, properties);
+                getLog().info("Image " + reference + " written to " + image.getAbsolutePath() + " (" + digest + ")");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot build the image of the distribution " + dist.getAbsolutePath(),
+                    e);
+        }
+
+        if (attachImage) {
+            projectHelper.attachArtifact(project, "tar",
+                    StringUtils.isBlank(classifier) ? "image" : classifier + "-image", image);
+        }
+    }
+
+    /**
+     * Gets a file of the build directory, named after the final name, the classifier and the given suffix.
+     */
+    private File getFile(String suffix) {
+        String name = project.getBuild().getFinalName();
+        if (!StringUtils.isBlank(classifier)) {
+            name += "-" + classifier;
+        }
+        return new File(getBuildDirectory(), name + suffix);
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private static void store(File file, Properties properties) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "Play2 Maven Plugin - image");
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -15,13 +15,16 @@
 
 package de.akquinet.innovation.play.maven;
 
-import net.lingala.zip4j.core.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
-import net.lingala.zip4j.model.ZipParameters;
-import net.lingala.zip4j.util.Zip4jConstants;
+import de.akquinet.innovation.play.maven.utils.DirectorySync;
+import de.akquinet.innovation.play.maven.utils.Distribution;
+import de.akquinet.innovation.play.maven.utils.DistributionLayers;
+import de.akquinet.innovation.play.maven.utils.DistributionTar;
+import de.akquinet.innovation.play.maven.utils.FilePlacement;
+import de.akquinet.innovation.play.maven.utils.Fingerprint;
+import de.akquinet.innovation.play.maven.utils.ZipReader;
+import de.akquinet.innovation.play.maven.utils.ZipWriter;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
-import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.filefilter.AbstractFileFilter;
 import org.apache.commons.io.filefilter.PrefixFileFilter;
@@ -29,11 +32,18 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
 
 /**
  * Package the Play application.
@@ -41,6 +51,7 @@ import java.util.List;
  *
  * @goal package
  * @phase package
+ * @requiresDependencyResolution test
  */
 public class Play2PackageMojo
         extends AbstractPlay2Mojo {
@@ -96,62 +107,508 @@ public class Play2PackageMojo
      * @parameter default-value=false
      */
     boolean attachSources;
+    /**
+     * Enables the assembly of the distribution by the plugin, instead of <tt>play dist</tt>. The distribution is built
+     * from the application jar and the dependencies resolved by Maven (except the ones only pulled by
+     * <tt>play-test</tt>), which avoids a second <tt>play</tt> invocation. The layout is the one of <tt>play dist</tt>:
+     * the jars in <tt>lib</tt>, and a <tt>start</tt> script.
+     *
+     * @parameter default-value=false expression="${play2nativeDist}"
+     */
+    boolean nativeDist;
+    /**
+     * Enables the layered output of the distribution, for container images. The content of the distribution is split
+     * in three tar archives, written next to the distribution zip: the release dependencies
+     * (<tt>-dependencies.tar</tt>), the snapshot dependencies (<tt>-snapshot-dependencies.tar</tt>), and the
+     * application jar with the scripts and configuration (<tt>-application.tar</tt>). Each layer comes with its
+     * SHA-256 digest (<tt>.tar.sha256</tt>), and is only rewritten when its content changes.
+     *
+     * @parameter default-value=false expression="${play2layeredDist}"
+     */
+    boolean layeredDist;
+    /**
+     * Enables the exploded distribution: the content of the distribution, kept in sync in a directory
+     * (<tt>explodedDistDirectory</tt>), ready to be copied in a container image without unzipping the distribution.
+     * Only the changed files are written, and the removed ones are deleted. With <tt>nativeDist</tt>, the files are
+     * placed directly (hard-linked when possible), and <tt>buildDist</tt> can be disabled to skip the zip.
+     *
+     * @parameter default-value=false expression="${play2explodedDist}"
+     */
+    boolean explodedDist;
+    /**
+     * The directory of the exploded distribution.
+     *
+     * @parameter default-value="${project.build.directory}/${project.build.finalName}-dist"
+     *            expression="${play2explodedDistDirectory}"
+     */
+    File explodedDistDirectory;
+    /**
+     * Enables the attachment of the exploded distribution directory, with the <tt>dist</tt> classifier and the
+     * <tt>dir</tt> type, so the following modules of the reactor can depend on it. The install and deploy plugins do
+     * not support directories, they must be skipped.
+     *
+     * @parameter default-value=false expression="${play2attachExplodedDist}"
+     */
+    boolean attachExplodedDist;
+    /**
+     * Additional formats of the distribution, separated by commas: <tt>tar.gz</tt>, compressed on several threads
+     * (see <tt>archiveThreads</tt>), and <tt>tar.zst</tt>, compressed by the <tt>zstd</tt> command, which must be
+     * installed. Unlike the zip, the tar archives keep the permissions of the start script once extracted. They are
+     * written next to the distribution zip, and attached with their format as type if <tt>attachDist</tt> is enabled.
+     *
+     * @parameter default-value="" expression="${play2distFormats}"
+     */
+    String distFormats;
+    /**
+     * The compression level of the additional formats of the distribution, <tt>-1</tt> for the default level of the
+     * format (<tt>6</tt> for gzip, <tt>3</tt> for zstd). Gzip supports the levels <tt>1</tt> to <tt>9</tt>, zstd the
+     * levels <tt>1</tt> to <tt>22</tt>.
+     *
+     * @parameter default-value=-1 expression="${play2distCompressionLevel}"
+     */
+    int distCompressionLevel = -1;
+
+    /**
+     * The prefix of the artifact id of the Play test framework, whose dependencies are not embedded in the
+     * distribution.
+     */
+    private static final String PLAY_TEST_ARTIFACT = "play-test";
+
+    private static final String TAR_GZ = "tar.gz";
+    private static final String TAR_ZST = "tar.zst";
 
     public void execute()
             throws MojoExecutionException {
 
+        long timestamp = getOutputTimestamp();
+
         // Package
         packageApplication();
         File packagedApplication = moveApplicationPackageToTarget();
+        Map<String, File> replacements = new LinkedHashMap<String, File>();
+        if (timestamp != -1) {
+            replacements = makeApplicationReproducible(packagedApplication, timestamp);
+        }
 
         // Distribution
         File dist = null;
-        if (buildDist) {
+        if (nativeDist && (buildDist || explodedDist)) {
+            String root = StringUtils.substringBeforeLast(getDistributionFile().getName(), ".zip");
+            Map<String, File> entries = getDistributionEntries(packagedApplication, root);
+            if (buildDist) {
+                dist = assembleDistribution(entries, root, timestamp);
+            }
+            if (explodedDist) {
+                explodeDistribution(entries, root, null);
+            }
+
+            if (attachJavadoc || attachSources) {
+                packageDocumentation();
+                moveJavadocAndSourcesArtifactsToTarget(timestamp);
+            }
+        } else if (buildDist) {
             packageDistribution();
             dist = moveDistributionArtifactToTarget();
 
             // The javadoc and source files are created during the distribution construction.
-            moveJavadocAndSourcesArtifactsToTarget();
+            moveJavadocAndSourcesArtifactsToTarget(timestamp);
 
-            if (!additionalFiles.isEmpty()) {
-                packageAdditionalFiles(additionalFiles, dist);
+            if (!additionalFiles.isEmpty() || timestamp != -1) {
+                packageAdditionalFiles(additionalFiles, dist, replacements, timestamp);
+            }
+            if (explodedDist) {
+                explodeDistribution(null, null, dist);
             }
         }
-        attachArtifactsToProject(packagedApplication, dist);
+        if (dist != null && layeredDist) {
+            writeDistributionLayers(dist, packagedApplication, timestamp);
+        }
+        Map<String, File> archives = new LinkedHashMap<String, File>();
+        if (dist != null && !StringUtils.isBlank(distFormats)) {
+            archives = writeDistributionFormats(dist, timestamp);
+        }
+        attachArtifactsToProject(packagedApplication, dist, archives);
     }
 
-    private void packageAdditionalFiles(List<String> additionalFiles, File distributionFile) throws MojoExecutionException {
+    /**
+     * Writes the distribution in the additional formats.
+     *
+     * @param dist      the distribution zip
+     * @param timestamp the timestamp of the entries, <tt>-1</tt> to keep the times of the zip
+     * @return the archives, by format
+     * @throws MojoExecutionException if a format is not supported, or an archive cannot be written
+     */
+    private Map<String, File> writeDistributionFormats(File dist, long timestamp) throws MojoExecutionException {
+        Map<String, File> archives = new LinkedHashMap<String, File>();
+        String base = StringUtils.substringBeforeLast(dist.getAbsolutePath(), ".zip");
+        for (String format : StringUtils.split(distFormats, ", ")) {
+            File archive = new File(base + "." + format);
+            long start = System.currentTimeMillis();
+            try {
+                if (TAR_GZ.equals(format)) {
+                    int level = distCompressionLevel != -1 ? distCompressionLevel : Deflater.DEFAULT_COMPRESSION;
+                    DistributionTar.writeGzip(dist, archive, level, getArchiveThreads(), timestamp);
+                } else if (TAR_ZST.equals(format)) {
+                    writeZstd(dist, archive, timestamp);
+                } else {
+                    throw new MojoExecutionException("Unsupported distribution format '" + format + "' - the "
+                            + "supported formats are " + TAR_GZ + " and " + TAR_ZST);
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Cannot write the distribution " + archive.getAbsolutePath(), e);
+            }
+            getLog().info("Distribution written to " + archive.getName() + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            archives.put(format, archive);
+        }
+        return archives;
+    }
+
+    /**
+     * Writes the distribution as a tar archive compressed by the <tt>zstd</tt> command, on several threads.
+     *
+     * @param dist      the distribution zip
+     * @param archive   the <tt>.tar.zst</tt> file
+     * @param timestamp the timestamp of the entries, <tt>-1</tt> to keep the times of the zip
+     * @throws IOException if the archive cannot be written, or <tt>zstd</tt> fails
+     */
+    private void writeZstd(File dist, File archive, long timestamp) throws IOException {
+        File tar = getStateFile(archive.getName() + ".tar");
+        FileUtils.forceMkdir(tar.getParentFile());
         try {
-            ZipFile zipFile = new ZipFile(distributionFile);
+            DistributionTar.write(dist, new BufferedOutputStream(new FileOutputStream(tar)), timestamp);
+
+            int level = distCompressionLevel != -1 ? distCompressionLevel : 3;
+            CommandLine command = new CommandLine("zstd");
+            command.addArgument("-q");
+            command.addArgument("-f");
+            command.addArgument("-T" + getArchiveThreads());
+            if (level > 19) {
+                command.addArgument("--ultra");
+            }
+            command.addArgument("-" + level);
+            command.addArgument(tar.getAbsolutePath(), false);
+            command.addArgument("-o");
+            command.addArgument(archive.getAbsolutePath(), false);
+            DefaultExecutor executor = new DefaultExecutor();
+            executor.setExitValue(0);
+            executor.execute(command);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(archive);
+            throw new IOException("Cannot compress the distribution with zstd, check that it is installed", e);
+        } finally {
+            FileUtils.deleteQuietly(tar);
+        }
+    }
 
-            ArrayList<File> filesToAdd = new ArrayList<File>(additionalFiles.size());
-            for (String file : additionalFiles) {
-                File fileToAdd = new File(file);
-                if (!fileToAdd.exists()) {
-                    throw new MojoExecutionException(fileToAdd.getCanonicalPath() + " not found, can't add to package");
+    /**
+     * Synchronizes the exploded distribution directory, with the content of the distribution (without its root
+     * directory). Only the changed files are written. The directory is exposed to the following plugins with the
+     * <tt>play2.explodedDist</tt> project property.
+     *
+     * @param entries the content of the native distribution, <code>null</code> to extract the distribution zip
+     * @param root    the root directory of the native distribution
+     * @param dist    the distribution zip built by <tt>play dist</tt>, if there are no entries
+     * @throws MojoExecutionException if the directory cannot be synchronized
+     */
+    private void explodeDistribution(Map<String, File> entries, String root, File dist)
+            throws MojoExecutionException {
+        try {
+            DirectorySync sync = new DirectorySync(explodedDistDirectory, getStateFile("exploded-dist.properties"));
+            sync.setThreads(getCopyThreads());
+            if (entries != null) {
+                for (Map.Entry<String, File> entry : entries.entrySet()) {
+                    String path = entry.getKey().substring(root.length() + 1);
+                    if (entry.getValue().isDirectory()) {
+                        FileUtils.forceMkdir(new File(explodedDistDirectory, path));
+                    } else {
+                        sync.addFile(path, entry.getValue());
+                    }
                 }
-                filesToAdd.add(fileToAdd);
+            } else {
+                sync.addArchive(dist, Distribution.getRootDirectory(dist) + "/");
+            }
+            sync.finish();
+            getLog().info("Exploded distribution " + explodedDistDirectory.getAbsolutePath() + " synchronized - "
+                    + sync.getWritten() + " files written, " + sync.getUnchanged() + " unchanged, "
+                    + sync.getDeleted() + " deleted");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot synchronize the exploded distribution "
+                    + explodedDistDirectory.getAbsolutePath(), e);
+        }
+        project.getProperties().setProperty("play2.explodedDist", explodedDistDirectory.getAbsolutePath());
+        if (attachExplodedDist) {
+            projectHelper.attachArtifact(project, "dir", "dist", explodedDistDirectory);
+        }
+    }
+
+    /**
+     * Splits the distribution in layers, written next to it.
+     *
+     * @param dist        the distribution zip
+     * @param application the application jar
+     * @param timestamp   the timestamp of the entries, <tt>-1</tt> to use the epoch, so the layers only depend on
+     *                    their content
+     * @throws MojoExecutionException if the layers cannot be written
+     */
+    private void writeDistributionLayers(File dist, File application, long timestamp) throws MojoExecutionException {
+        try {
+            String base = StringUtils.substringBeforeLast(dist.getName(), ".zip");
+            List<DistributionLayers.Layer> layers = DistributionLayers.write(dist, application, dist.getParentFile(),
+                    base, timestamp != -1 ? timestamp : 0, getStateFile("layers.properties"));
+            for (DistributionLayers.Layer layer : layers) {
+                getLog().info("Layer " + layer.getName() + ": " + layer.getFile().getName() + " (sha256:"
+                        + layer.getDigest() + ")" + (layer.isChanged() ? "" : " - unchanged"));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot write the layers of the distribution " + dist.getAbsolutePath(),
+                    e);
+        }
+    }
+
+    /**
+     * Adds the additional files to the distribution, and makes it reproducible if a timestamp is set.
+     *
+     * @param additionalFiles  the files to add
+     * @param distributionFile the distribution
+     * @param replacements     the files replacing the application jar in the distribution, by file name
+     * @param timestamp        the timestamp of the entries, <tt>-1</tt> to keep the times
+     * @throws MojoExecutionException if the distribution cannot be rewritten
+     */
+    private void packageAdditionalFiles(List<String> additionalFiles, File distributionFile,
+                                        Map<String, File> replacements, long timestamp)
+            throws MojoExecutionException {
+        try {
+            // Let's safely assume that the zip filename is also the root directory all files are packaged in
+            String root = StringUtils.substringBeforeLast(distributionFile.getName(), ".zip");
 
-                ZipParameters parameters = new ZipParameters();
-                parameters.setCompressionLevel(Zip4jConstants.DEFLATE_LEVEL_FASTEST);
-                parameters.setIncludeRootFolder(true);
-                // Let's safely assume that the zip filename is also the root directory all files are packaged in
-                parameters.setRootFolderInZip(StringUtils.substringBeforeLast(distributionFile.getName(), ".zip"));
-                parameters.setReadHiddenFiles(true);
+            Map<String, File> filesToAdd = new LinkedHashMap<String, File>();
+            if (!replacements.isEmpty()) {
+                filesToAdd.putAll(findReplacedEntries(distributionFile, replacements));
+            }
+            filesToAdd.putAll(getAdditionalFiles(root));
 
+            if (!additionalFiles.isEmpty()) {
                 String message = String.format("Adding files to distribution zip [%s]: \n\t%s",
                         distributionFile.getCanonicalPath(), StringUtils.join(additionalFiles, "\n\t"));
                 getLog().info(message);
-
-                zipFile.addFiles(filesToAdd, parameters);
             }
-        } catch (ZipException e) {
-            throw new MojoExecutionException("Cannot add files to zipfile: " + distributionFile, e);
+            if (timestamp != -1) {
+                getLog().info("Making the distribution zip reproducible");
+            }
+
+            // The existing entries are copied without being recompressed, and the files are appended, in one pass.
+            ZipWriter.addFiles(distributionFile, filesToAdd, Deflater.BEST_SPEED, getArchiveThreads(), timestamp);
         } catch (IOException e) {
             throw new MojoExecutionException("Cannot add files to zipfile: " + distributionFile, e);
         }
     }
 
+    /**
+     * Lists the additional files to add to the distribution.
+     *
+     * @param root the root directory of the distribution
+     * @return the entry names and the files, directories being listed with their content
+     * @throws MojoExecutionException if an additional file does not exist
+     * @throws IOException            if the path of a file cannot be computed
+     */
+    private Map<String, File> getAdditionalFiles(String root) throws MojoExecutionException, IOException {
+        Map<String, File> files = new LinkedHashMap<String, File>();
+        for (String file : additionalFiles) {
+            File fileToAdd = new File(file);
+            if (!fileToAdd.exists()) {
+                throw new MojoExecutionException(fileToAdd.getCanonicalPath() + " not found, can't add to package");
+            }
+            // Directories are added with their content.
+            files.putAll(ZipWriter.listTree(root + "/" + fileToAdd.getName(), fileToAdd));
+        }
+        return files;
+    }
+
+    /**
+     * Computes the content of the distribution assembled without <tt>play dist</tt>, from the application jar and the
+     * resolved dependencies: the jars, the <tt>start</tt> script and the additional files.
+     *
+     * @param application the application jar
+     * @param root        the root directory of the distribution
+     * @return the files, by path in the distribution
+     * @throws MojoExecutionException if the content cannot be computed
+     */
+    private Map<String, File> getDistributionEntries(File application, String root) throws MojoExecutionException {
+        try {
+            Map<String, File> entries = new LinkedHashMap<String, File>();
+            List<String> libraries = new ArrayList<String>();
+
+            // The application first in the classpath, so its classes and configuration take precedence. In the
+            // archive, it comes after the dependencies: the distribution is updated in place, and only the entries
+            // following the first changed one are written again.
+            String applicationName = project.getGroupId() + "." + project.getArtifactId() + "-"
+                    + project.getVersion() + ".jar";
+            libraries.add(applicationName);
+
+            List<Artifact> artifacts = Distribution.getRuntimeArtifacts((Set<Artifact>) project.getArtifacts(),
+                    getDependencyGraph().getIndex(PLAY_TEST_ARTIFACT));
+            for (Artifact artifact : artifacts) {
+                String name = Distribution.getLibraryName(artifact);
+                entries.put(root + "/lib/" + name, artifact.getFile());
+                libraries.add(name);
+            }
+            for (File jar : Distribution.getUnmanagedJars(new File(project.getBasedir(), "lib"), artifacts)) {
+                entries.put(root + "/lib/" + jar.getName(), jar);
+                libraries.add(jar.getName());
+            }
+            entries.put(root + "/lib/" + applicationName, application);
+
+            // The script keeps its time if it did not change, so it is kept by the update.
+            File start = getStateFile("start");
+            String script = Distribution.getStartScript(libraries);
+            if (!start.isFile() || !script.equals(FileUtils.readFileToString(start))) {
+                FileUtils.writeStringToFile(start, script);
+            }
+            start.setExecutable(true, false);
+            entries.put(root + "/start", start);
+
+            File readme = new File(project.getBasedir(), "README");
+            if (readme.isFile()) {
+                entries.put(root + "/README", readme);
+            }
+
+            // The additional files replace the generated ones.
+            entries.putAll(getAdditionalFiles(root));
+            getLog().info("Distribution of " + libraries.size() + " libraries");
+            return entries;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot compute the content of the distribution", e);
+        }
+    }
+
+    /**
+     * Assembles the distribution without <tt>play dist</tt>. The distribution is updated in place.
+     *
+     * @param entries   the content of the distribution, see {@link #getDistributionEntries(File, String)}
+     * @param root      the root directory of the distribution
+     * @param timestamp the timestamp of the entries, <tt>-1</tt> to use the times of the files
+     * @return the distribution file, in <tt>target</tt>
+     * @throws MojoExecutionException if the distribution cannot be written
+     */
+    private File assembleDistribution(Map<String, File> entries, String root, long timestamp)
+            throws MojoExecutionException {
+        File out = getDistributionFile();
+        try {
+            getLog().info("Assembling the distribution " + out.getName());
+            // The directories get the time of the pom, which does not change at every build.
+            long time = timestamp;
+            if (time == -1) {
+                time = project.getFile() != null ? project.getFile().lastModified() : System.currentTimeMillis();
+            }
+            ZipWriter writer = ZipWriter.update(out);
+            try {
+                writer.setThreads(getArchiveThreads());
+                if (timestamp != -1) {
+                    writer.setTimestamp(timestamp);
+                }
+                writer.addDirectory(root + "/", time);
+                writer.addDirectory(root + "/lib/", time);
+                for (Map.Entry<String, File> entry : entries.entrySet()) {
+                    if (entry.getValue().isDirectory()) {
+                        writer.addDirectory(entry.getKey(), entry.getValue().lastModified());
+                    } else {
+                        writer.addFile(entry.getKey(), entry.getValue());
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+            if (writer.getKeptEntries() > 0) {
+                getLog().info("Distribution updated - " + writer.getKeptEntries() + " unchanged entries kept");
+            }
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(out);
+            throw new MojoExecutionException("Cannot assemble the distribution " + out.getAbsolutePath(), e);
+        }
+        return out;
+    }
+
+    /**
+     * Builds the javadoc and sources artifacts, which are otherwise built by <tt>play dist</tt>.
+     *
+     * @throws MojoExecutionException if the artifacts cannot be built
+     */
+    private void packageDocumentation() throws MojoExecutionException {
+        List<String> commands = new ArrayList<String>();
+        if (attachJavadoc) {
+            commands.add("package-doc");
+        }
+        if (attachSources) {
+            commands.add("package-src");
+        }
+        try {
+            executePlay2(false, commands.toArray(new String[commands.size()]));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error during the packaging of the javadoc and sources", e);
+        }
+    }
+
+    /**
+     * @return the distribution file, in <tt>target</tt>
+     */
+    private File getDistributionFile() {
+        if (classifier == null) {
+            return new File(getBuildDirectory(), project.getBuild().getFinalName() + ".zip");
+        } else {
+            return new File(getBuildDirectory(), project.getBuild().getFinalName() + "-" + classifier + ".zip");
+        }
+    }
+
+    /**
+     * Rewrites the application jar with the fixed timestamp. The distribution contains a copy of the jar built by Play,
+     * which must be replaced by the reproducible jar.
+     *
+     * @param jar       the application jar, in <tt>target</tt>
+     * @param timestamp the timestamp of the entries
+     * @return the reproducible jar, indexed by the checksum and size of the jar built by Play
+     * @throws MojoExecutionException if the jar cannot be rewritten
+     */
+    private Map<String, File> makeApplicationReproducible(File jar, long timestamp) throws MojoExecutionException {
+        try {
+            // The checksum identifies the jar in the distribution, whatever its name.
+            String key = FileUtils.checksumCRC32(jar) + ":" + jar.length();
+            getLog().info("Making " + jar.getName() + " reproducible");
+            ZipWriter.addFiles(jar, new LinkedHashMap<String, File>(), Deflater.DEFAULT_COMPRESSION, 1, timestamp);
+            Map<String, File> replacements = new LinkedHashMap<String, File>();
+            replacements.put(key, jar);
+            return replacements;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot rewrite the application jar " + jar.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Finds the entries of the distribution containing a replaced jar.
+     *
+     * @param distributionFile the distribution
+     * @param replacements     the replacing files, indexed by the checksum and size of the replaced jar
+     * @return the entry names and their replacing files
+     * @throws IOException if the distribution cannot be read
+     */
+    private Map<String, File> findReplacedEntries(File distributionFile, Map<String, File> replacements)
+            throws IOException {
+        Map<String, File> entries = new LinkedHashMap<String, File>();
+        ZipReader reader = new ZipReader(distributionFile);
+        try {
+            for (ZipReader.Entry entry : reader.getEntries()) {
+                File replacement = replacements.get(entry.getCrc() + ":" + entry.getSize());
+                if (replacement != null && entry.getName().endsWith(".jar")) {
+                    getLog().debug("Replacing " + entry.getName() + " by " + replacement.getName());
+                    entries.put(entry.getName(), replacement);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
     private File moveApplicationPackageToTarget() throws MojoExecutionException {
         File target = getBuildDirectory();
         File[] files = FileUtils.convertFileCollectionToFileArray(
@@ -172,66 +629,110 @@ public class Play2PackageMojo
         }
 
         try {
+            // The jar is kept in the scala directory, the distribution build depends on it.
             if (StringUtils.isBlank(classifier)) {
                 File out = new File(target, project.getBuild().getFinalName() + ".jar");
-                getLog().info("Copying " + files[0].getName() + " to " + out.getName());
-                FileUtils.copyFile(mainJar, out);
+                placeArtifact(mainJar, out, false);
                 return out;
             } else {
                 File out = new File(target, project.getBuild().getFinalName() + "-" + classifier + ".jar");
-                getLog().info("Copying " + files[0].getName() + " to " + out.getName());
-                FileUtils.copyFile(mainJar, out);
+                placeArtifact(mainJar, out, false);
                 return out;
             }
         } catch (IOException e) {
-            throw new MojoExecutionException("Cannot copy package file " + files[0].getAbsolutePath()
-                    + " to " + target.getAbsolutePath());
+            throw new MojoExecutionException("Cannot copy package file " + mainJar.getAbsolutePath()
+                    + " to " + target.getAbsolutePath(), e);
         }
     }
 
     private void packageApplication() throws MojoExecutionException {
-        String line = getPlay2().getAbsolutePath();
-
-        CommandLine cmdLine = CommandLine.parse(line);
-        cmdLine.addArgument("package");
-        DefaultExecutor executor = new DefaultExecutor();
-
-        if (timeout > 0) {
-            ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
-            executor.setWatchdog(watchdog);
+        if (batch && Play2Batch.isExecuted(this, "package")) {
+            getLog().info("Application already packaged by the batched play invocation");
+            return;
         }
 
-        executor.setWorkingDirectory(project.getBasedir());
-        executor.setExitValue(0);
         try {
-            executor.execute(cmdLine, getEnvironment());
+            executePlay2(false, "package");
         } catch (IOException e) {
             throw new MojoExecutionException("Error during packaging", e);
         }
     }
 
     private void packageDistribution() throws MojoExecutionException {
-        String line = getPlay2().getAbsolutePath();
-
-        CommandLine cmdLine = CommandLine.parse(line);
-        cmdLine.addArgument("dist");
-        DefaultExecutor executor = new DefaultExecutor();
+        if (batch && Play2Batch.isExecuted(this, "dist")) {
+            getLog().info("Distribution already built by the batched play invocation");
+            return;
+        }
 
-        if (timeout > 0) {
-            ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
-            executor.setWatchdog(watchdog);
+        // The javadoc and sources artifacts are not cached, so the distribution must be built to get them.
+        String cacheKey = null;
+        if (outputCache && !attachJavadoc && !attachSources) {
+            cacheKey = getDistributionCacheKey();
+            if (restoreDistributionFromCache(cacheKey)) {
+                return;
+            }
         }
 
-        executor.setWorkingDirectory(project.getBasedir());
-        executor.setExitValue(0);
         try {
-            executor.execute(cmdLine, getEnvironment());
+            executePlay2(false, "dist");
         } catch (IOException e) {
             throw new MojoExecutionException("Error during distribution creation", e);
         }
+
+        if (cacheKey != null) {
+            File file = findDistributionFile();
+            try {
+                if (getOutputCache().store(cacheKey, file.getParentFile().getParentFile(),
+                        Arrays.asList("dist/" + file.getName()))) {
+                    getLog().info("Distribution stored in the cache entry " + cacheKey);
+                }
+            } catch (IOException e) {
+                getLog().warn("Cannot store the distribution in the cache", e);
+            }
+        }
     }
 
-    private File moveDistributionArtifactToTarget() throws MojoExecutionException {
+    private String getDistributionCacheKey() throws MojoExecutionException {
+        try {
+            return new Fingerprint().add("main", computeCacheKey()).add("goal", "dist").getDigest();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot compute the cache key of the distribution", e);
+        }
+    }
+
+    /**
+     * Restores the distribution from the output cache, in <tt>target/dist</tt>.
+     *
+     * @param key the cache key
+     * @return <code>true</code> if the distribution was restored, so <tt>play dist</tt> can be skipped
+     */
+    private boolean restoreDistributionFromCache(String key) {
+        try {
+            // Avoid picking a stale distribution file from a previous build.
+            FileUtils.deleteDirectory(new File(getBuildDirectory(), "dist"));
+            File dist = new File(project.getBasedir(), "dist");
+            if (dist.isDirectory()) {
+                getLog().debug("Deleting " + dist.getAbsolutePath());
+                FileUtils.deleteDirectory(dist);
+            }
+
+            if (getOutputCache().restore(key, getBuildDirectory())) {
+                getLog().info("Distribution restored from the cache entry " + key);
+                return true;
+            }
+        } catch (IOException e) {
+            getLog().warn("Cannot restore the distribution from the cache, building it", e);
+        }
+        return false;
+    }
+
+    /**
+     * Looks for the distribution file built by <tt>play dist</tt>.
+     *
+     * @return the distribution file
+     * @throws MojoExecutionException if the distribution file cannot be found
+     */
+    private File findDistributionFile() throws MojoExecutionException {
         // The artifact is in dist, this is no more true with play 2.1 as the distribution directory can be customized.
         // we make the assumption that if dist does not exist, we try in target/dist.
         File dist = new File(project.getBasedir(), "dist");
@@ -251,21 +752,20 @@ public class Play2PackageMojo
         }
 
         // 1 file
-        File file = found.toArray(new File[0])[0];
+        return found.toArray(new File[0])[0];
+    }
+
+    private File moveDistributionArtifactToTarget() throws MojoExecutionException {
+        File file = findDistributionFile();
+        File dist = file.getParentFile();
 
         getLog().info("Distribution file found : " + file.getAbsolutePath());
 
-        File target = getBuildDirectory();
-        File out = null;
-        if (classifier == null) {
-            out = new File(target, project.getBuild().getFinalName() + ".zip");
-        } else {
-            out = new File(target, project.getBuild().getFinalName() + "-" + classifier + ".zip");
-        }
+        File out = getDistributionFile();
 
         try {
-            getLog().info("Copying " + file.getName() + " to " + out.getName());
-            FileUtils.copyFile(file, out, true);
+            // The dist folder is deleted afterwards, so the file can be moved.
+            placeArtifact(file, out, deleteDist);
         } catch (IOException e) {
             throw new MojoExecutionException("Can't copy the distribution file to the target folder", e);
         }
@@ -279,7 +779,7 @@ public class Play2PackageMojo
         return out;
     }
 
-    private void moveJavadocAndSourcesArtifactsToTarget() throws MojoExecutionException {
+    private void moveJavadocAndSourcesArtifactsToTarget(long timestamp) throws MojoExecutionException {
         File sourceJar = null;
         File javadocJar = null;
 
@@ -297,22 +797,54 @@ public class Play2PackageMojo
         }
         try {
             if (sourceJar != null) {
-                getLog().info("Artifact containing sources found - copying to target");
+                getLog().info("Artifact containing sources found - placing it in target");
                 File out = new File(target, project.getBuild().getFinalName() + "-sources.jar");
-                FileUtils.copyFile(sourceJar, out);
+                placeArtifact(sourceJar, out, false);
+                if (timestamp != -1) {
+                    ZipWriter.addFiles(out, new LinkedHashMap<String, File>(), Deflater.DEFAULT_COMPRESSION, 1,
+                            timestamp);
+                }
             }
 
             if (javadocJar != null) {
-                getLog().info("Artifact containing javadoc found - copying to target");
+                getLog().info("Artifact containing javadoc found - placing it in target");
                 File out = new File(target, project.getBuild().getFinalName() + "-javadoc.jar");
-                FileUtils.copyFile(javadocJar, out);
+                placeArtifact(javadocJar, out, false);
+                if (timestamp != -1) {
+                    ZipWriter.addFiles(out, new LinkedHashMap<String, File>(), Deflater.DEFAULT_COMPRESSION, 1,
+                            timestamp);
+                }
             }
         } catch (IOException e) {
             throw new MojoExecutionException("Can't copy the javadoc and sources file to the target folder", e);
         }
     }
 
-    private void attachArtifactsToProject(File app, File dist) throws MojoExecutionException {
+    /**
+     * Places an artifact built by Play in <tt>target</tt>. The file is moved or hard-linked when possible, and copied
+     * otherwise.
+     *
+     * @param file    the file built by Play
+     * @param out     the output file
+     * @param canMove whether the file is not needed anymore at its current location
+     * @throws IOException if the file cannot be placed
+     */
+    private void placeArtifact(File file, File out, boolean canMove) throws IOException {
+        FilePlacement.Strategy strategy = FilePlacement.place(file, out, canMove);
+        switch (strategy) {
+            case MOVE:
+                getLog().info("Moved " + file.getName() + " to " + out.getName());
+                break;
+            case LINK:
+                getLog().info("Linked " + file.getName() + " to " + out.getName());
+                break;
+            default:
+                getLog().info("Copied " + file.getName() + " to " + out.getName());
+        }
+    }
+
+    private void attachArtifactsToProject(File app, File dist, Map<String, File> archives)
+            throws MojoExecutionException {
         Artifact artifact = project.getArtifact();
 
         if (StringUtils.isBlank(classifier)) {
@@ -323,6 +855,9 @@ public class Play2PackageMojo
 
         if (buildDist && attachDist) {
             projectHelper.attachArtifact(project, "zip", classifier, dist);
+            for (Map.Entry<String, File> archive : archives.entrySet()) {
+                projectHelper.attachArtifact(project, archive.getKey(), classifier, archive.getValue());
+            }
         }
 
         if (attachJavadoc) {
@@ -15,13 +15,34 @@
 
 package de.akquinet.innovation.play.maven;
 
+import de.akquinet.innovation.play.maven.utils.ClassDependencies;
+import de.akquinet.innovation.play.maven.utils.Fingerprint;
+import de.akquinet.innovation.play.maven.utils.TestReports;
+import de.akquinet.innovation.play.maven.utils.TestSharding;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.ExecuteWatchdog;
+import org.apache.commons.exec.PumpStreamHandler;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.MojoExecutionException;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Run the test of the Play application.
@@ -29,10 +50,35 @@ import java.io.IOException;
  *
  * @goal test
  * @phase test
+ * @requiresDependencyResolution test
  */
 public class Play2TestMojo
         extends AbstractPlay2Mojo {
 
+    /**
+     * The directory (relative to the build directory) in which Play writes the test reports.
+     */
+    public static final String TEST_REPORTS = "test-reports";
+
+    /**
+     * The file (in the plugin state directory) storing the duration of the test classes, used to balance the
+     * shards.
+     */
+    public static final String TEST_DURATIONS_FILE = "test-durations.properties";
+
+    /**
+     * The file (in the plugin state directory) storing the snapshot of the classes and test inputs of the last
+     * successful test execution, used to select the affected tests.
+     */
+    public static final String TEST_IMPACT_FILE = "test-impact.fingerprint";
+
+    private static final String CLASS_PREFIX = "class:";
+
+    /**
+     * The system property setting the port of the Play test server.
+     */
+    private static final String TEST_SERVER_PORT = "testserver.port";
+
     /**
      * Set this to "true" to skip running tests, but still compile them. Its use is NOT RECOMMENDED, but quite
      * convenient on occasion.
@@ -56,6 +102,90 @@ public class Play2TestMojo
      */
     private boolean testFailureIgnore;
 
+    /**
+     * Enables the sharded execution of the tests. The test classes are split into several shards, each of them
+     * executed by a forked <tt>play</tt> process (using <tt>test-only</tt>), in parallel. The tests are compiled
+     * once before forking the shards.
+     *
+     * @parameter default-value="false" expression="${play2shardTests}"
+     */
+    private boolean shardTests;
+
+    /**
+     * The number of test shards executed in parallel. If not set (or set to <tt>0</tt>), the number of available
+     * processors is used. This option has no impact if the <tt>shardTests</tt> mode is disabled.
+     *
+     * @parameter default-value="0" expression="${play2testShards}"
+     */
+    private int testShards;
+
+    /**
+     * The port of the test server of the first test shard. The shard N runs with <tt>-Dtestserver.port=port+N-1</tt>,
+     * so the functional tests of concurrent shards do not bind the same port. This option has no impact if the
+     * <tt>shardTests</tt> mode is disabled, or if <tt>testserver.port</tt> is set in the
+     * <tt>play2SystemProperties</tt>.
+     *
+     * @parameter default-value="19101" expression="${play2testShardsPort}"
+     */
+    private int testShardsPort;
+
+    /**
+     * Enables the test impact analysis. The class-level dependency graph is read from the compiled classes and test
+     * classes, and only the tests depending (directly or transitively) on the classes changed since the last
+     * successful test execution are run, using <tt>test-only</tt>. All the tests are run when there is no previous
+     * execution, or when another input (configuration, build definition, public files, libraries, managed
+     * resources, Maven dependencies) has changed.
+     *
+     * @parameter default-value="false" expression="${play2testImpact}"
+     */
+    private boolean testImpact;
+
+    /**
+     * The directory in which the test reports are written in the Surefire format.
+     *
+     * @parameter default-value="${project.build.directory}/surefire-reports"
+     */
+    private File reportsDirectory;
+
+    /**
+     * The number of slowest tests listed in the test summary. Set it to <tt>0</tt> to disable the list.
+     *
+     * @parameter default-value="10" expression="${play2slowestTests}"
+     */
+    private int slowestTests;
+
+    /**
+     * The number of times the failing test classes are re-run, using <tt>test-only</tt>. The build succeeds if the
+     * failing classes pass during one of the attempts; the flaky classes are then reported as warnings. If not set
+     * (or set to <tt>0</tt>), failing tests are not re-run.
+     *
+     * @parameter default-value="0" expression="${play2rerunFailingTestsCount}"
+     */
+    private int rerunFailingTestsCount;
+
+    /**
+     * Set this to "true" to skip the execution of the tests when the output cache contains the reports of a
+     * successful execution on the same sources and dependencies. The reports are restored, but the tests are NOT
+     * executed: tests depending on something else than the sources (databases, remote services, time...) are not
+     * checked again. This option has no impact if the <tt>outputCache</tt> mode is disabled; without it, the reports
+     * of successful executions are only stored in the cache.
+     *
+     * @parameter default-value="false" expression="${play2skipCachedTests}"
+     */
+    private boolean skipCachedTests;
+
+    /**
+     * Snapshot of the classes and test inputs, stored once the tests have passed.
+     */
+    private Fingerprint impactSnapshot;
+
+    private boolean testsCompiled;
+
+    /**
+     * The test classes run by the current execution, <code>null</code> if all the tests were run.
+     */
+    private List<String> executedClasses;
+
     public void execute()
             throws MojoExecutionException {
 
@@ -69,30 +199,485 @@ public class Play2TestMojo
             return;
         }
 
-        String line = getPlay2().getAbsolutePath();
+        String cacheKey = null;
+        if (outputCache) {
+            cacheKey = getTestCacheKey();
+            if (skipCachedTests && restoreFromCache(cacheKey)) {
+                collectReports();
+                return;
+            }
+        }
 
-        CommandLine cmdLine = CommandLine.parse(line);
-        cmdLine.addArguments(getPlay2SystemPropertiesArguments(), false);
-        cmdLine.addArgument("test");
-        DefaultExecutor executor = new DefaultExecutor();
+        IOException failure = null;
+        if (batch && Play2Batch.isExecuted(this, "test")) {
+            getLog().info("Tests already executed by the batched play invocation");
+        } else {
+            try {
+                deleteReports(getBuildDirectory());
+            } catch (IOException e) {
+                throw new MojoExecutionException("Cannot delete the previous test reports", e);
+            }
+            try {
+                executeTests();
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (failure != null && rerunFailingTestsCount > 0) {
+                failure = rerunFailingTests(failure);
+            }
+        }
 
-        if (timeout > 0) {
-            ExecuteWatchdog watchdog = new ExecuteWatchdog(timeout);
-            executor.setWatchdog(watchdog);
+        if (failure == null && impactSnapshot != null) {
+            try {
+                impactSnapshot.store(getStateFile(TEST_IMPACT_FILE));
+            } catch (IOException e) {
+                getLog().warn("Cannot store the test impact snapshot", e);
+            }
         }
 
-        executor.setWorkingDirectory(project.getBasedir());
+        collectReports();
 
-        executor.setExitValue(0);
-        try {
-            executor.execute(cmdLine, getEnvironment());
-        } catch (IOException e) {
+        if (failure != null) {
             if (testFailureIgnore) {
                 getLog().error("Test execution failures ignored");
+                return;
             } else {
-                throw new MojoExecutionException("Error during compilation", e);
+                throw new MojoExecutionException("Error during compilation", failure);
+            }
+        }
+
+        if (cacheKey != null) {
+            storeInCache(cacheKey);
+        }
+    }
+
+    /**
+     * Executes the tests, or only the affected tests if the <tt>testImpact</tt> mode is enabled.
+     *
+     * @throws IOException            if the tests fail
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    private void executeTests() throws IOException, MojoExecutionException {
+        List<String> classes = null;
+        if (testImpact) {
+            classes = selectAffectedTests();
+        }
+        executedClasses = classes;
+
+        if (classes != null && classes.isEmpty()) {
+            getLog().info("No test affected by the changes since the last successful execution");
+        } else if (shardTests) {
+            executeShardedTests(classes);
+        } else {
+            executeTestClasses(classes);
+        }
+    }
+
+    /**
+     * Re-runs the failing test classes, at most <tt>rerunFailingTestsCount</tt> times. The failing classes are read
+     * from the test reports, the classes passing during an attempt are not run again.
+     *
+     * @param failure the failure of the test execution
+     * @return <code>null</code> if all the failing classes have passed, the last failure otherwise
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    private IOException rerunFailingTests(IOException failure) throws MojoExecutionException {
+        List<String> failing = getFailingTestClasses();
+        if (failing.isEmpty()) {
+            // Compilation error, crash of the play process...
+            getLog().info("No failing test classes found in the reports, the tests are not re-run");
+            return failure;
+        }
+
+        List<String> flaky = new ArrayList<String>();
+        IOException last = failure;
+        for (int attempt = 1; attempt <= rerunFailingTestsCount && !failing.isEmpty(); attempt++) {
+            getLog().warn("Re-running " + failing.size() + " failing test class(es), attempt " + attempt + "/"
+                    + rerunFailingTestsCount + " : " + failing);
+            try {
+                executePlay2(true, TestSharding.getTestOnlyCommand(failing));
+                flaky.addAll(failing);
+                failing.clear();
+                last = null;
+            } catch (IOException e) {
+                last = e;
+                List<String> stillFailing = getFailingTestClasses();
+                stillFailing.retainAll(failing);
+                if (stillFailing.isEmpty()) {
+                    // The reports do not tell which classes failed, keep the previous set.
+                    continue;
+                }
+                for (String name : failing) {
+                    if (!stillFailing.contains(name)) {
+                        flaky.add(name);
+                    }
+                }
+                failing = stillFailing;
             }
         }
+
+        if (!flaky.isEmpty()) {
+            getLog().warn("Flaky test class(es), passed after a re-run : " + flaky);
+        }
+        if (last != null) {
+            getLog().error("Test class(es) still failing after " + rerunFailingTestsCount + " re-run(s) : "
+                    + failing);
+        }
+        return last;
+    }
+
+    /**
+     * @return the test classes of the current execution having failed tests, according to the test reports.
+     */
+    private List<String> getFailingTestClasses() {
+        try {
+            return TestReports.getFailingClasses(TestReports.read(new File(getBuildDirectory(), TEST_REPORTS)),
+                    executedClasses);
+        } catch (IOException e) {
+            getLog().warn("Cannot read the test reports", e);
+        }
+        return new ArrayList<String>();
+    }
+
+    /**
+     * Executes the given test classes.
+     *
+     * @param classes the test classes, <code>null</code> to run all tests
+     */
+    private void executeTestClasses(List<String> classes) throws IOException, MojoExecutionException {
+        if (classes == null) {
+            executePlay2(true, "test");
+        } else {
+            executePlay2(true, TestSharding.getTestOnlyCommand(classes));
+        }
+    }
+
+    private void compileTests() throws IOException, MojoExecutionException {
+        if (!testsCompiled) {
+            getLog().info("Compiling tests");
+            executePlay2(true, "test:compile");
+            testsCompiled = true;
+        }
+    }
+
+    /**
+     * Selects the tests affected by the changes since the last successful test execution. The tests are compiled,
+     * and the snapshot of the current classes is computed and compared to the stored one.
+     *
+     * @return the affected test classes, <code>null</code> if all the tests must be run
+     * @throws IOException            if the classes cannot be read
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    private List<String> selectAffectedTests() throws IOException, MojoExecutionException {
+        compileTests();
+
+        File scala = findScalaDirectory();
+        ClassDependencies graph = ClassDependencies.scan(Arrays.asList(new File(scala, "classes"),
+                new File(scala, "test-classes")));
+        impactSnapshot = new Fingerprint();
+        for (Map.Entry<String, String> entry : graph.getHashes().entrySet()) {
+            impactSnapshot.add(CLASS_PREFIX + entry.getKey(), entry.getValue());
+        }
+        addTestInputs(impactSnapshot, scala);
+
+        Fingerprint previous = Fingerprint.load(getStateFile(TEST_IMPACT_FILE));
+        if (previous == null) {
+            getLog().info("No previous successful test execution recorded - running all tests");
+            return null;
+        }
+
+        List<String> changed = new ArrayList<String>();
+        for (String name : impactSnapshot.diff(previous)) {
+            if (!name.startsWith(CLASS_PREFIX)) {
+                getLog().info("Test input changed (" + name + ") - running all tests");
+                return null;
+            }
+            changed.add(name.substring(CLASS_PREFIX.length()));
+        }
+
+        Set<String> affected = graph.getAffectedClasses(changed);
+        List<String> tests = new ArrayList<String>();
+        for (String test : TestSharding.findTestClasses(getTestSourceDirectories())) {
+            if (affected.contains(test)) {
+                tests.add(test);
+            }
+        }
+        getLog().info(changed.size() + " class(es) changed, " + tests.size() + " test class(es) affected");
+        getLog().debug("Changed classes : " + changed);
+        getLog().debug("Affected tests : " + tests);
+        return tests;
+    }
+
+    /**
+     * Adds the inputs of the tests which are not classes: the Play directories other than <tt>app</tt>, the
+     * resources managed by Play (such as the compiled assets), the Maven dependencies and the system properties.
+     */
+    private void addTestInputs(Fingerprint fingerprint, File scala) throws IOException {
+        for (String directory : PLAY2_SOURCE_DIRECTORIES) {
+            if (!"app".equals(directory)) {
+                fingerprint.addDirectory("input:" + directory, new File(project.getBasedir(), directory));
+            }
+        }
+        fingerprint.addDirectory("input:resource_managed", new File(scala, "resource_managed"));
+        for (Object dependency : project.getDependencies()) {
+            Dependency dep = (Dependency) dependency;
+            fingerprint.add("input:dependency:" + dep.getManagementKey(), dep.getVersion() + ":" + dep.getScope());
+        }
+        for (String argument : getPlay2SystemPropertiesArguments()) {
+            fingerprint.add("input:arg:" + argument, argument);
+        }
+    }
+
+    /**
+     * Executes the tests in several forked <tt>play</tt> processes. Each shard runs a subset of the test classes
+     * using <tt>test-only</tt>, its output is written to <tt>target/play2/test-shard-N.log</tt> and copied to the
+     * build log once the shard completes. Each shard gets its own test server port. The shards share the
+     * <tt>target</tt> directory: Play writes one JUnit report per test class, so the reports of the different shards
+     * end up side by side in the report directory, and are collected together.
+     *
+     * @param selected the test classes to run, <code>null</code> to run all tests
+     * @throws IOException            if a shard fails
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    private void executeShardedTests(List<String> selected) throws IOException, MojoExecutionException {
+        List<String> classes = selected;
+        if (classes == null) {
+            classes = TestSharding.findTestClasses(getTestSourceDirectories());
+        }
+        int count = testShards > 0 ? testShards : Runtime.getRuntime().availableProcessors();
+        File history = getStateFile(TEST_DURATIONS_FILE);
+        Map<String, Double> durations = TestSharding.loadDurations(history);
+        List<List<String>> shards = TestSharding.split(classes, count, durations);
+        if (shards.size() <= 1) {
+            getLog().info("Not enough test classes to shard the execution - " + classes.size() + " found");
+            executeTestClasses(selected);
+            return;
+        }
+
+        // The shards must not compile concurrently in the same target directory.
+        compileTests();
+
+        getLog().info("Running " + classes.size() + " test classes in " + shards.size() + " shards");
+        ExecutorService executor = Executors.newFixedThreadPool(shards.size());
+        List<Integer> failures = new ArrayList<Integer>();
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < shards.size(); i++) {
+                final int index = i + 1;
+                final List<String> shard = shards.get(i);
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        return executeShard(index, shard);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    if (results.get(i).get() != 0) {
+                        failures.add(i + 1);
+                    }
+                } catch (ExecutionException e) {
+                    getLog().error("Cannot execute the test shard " + (i + 1), e.getCause());
+                    failures.add(i + 1);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the test shards");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IOException("Test failures in the shard(s) " + failures + ", see the logs in "
+                    + getStateFile("").getAbsolutePath());
+        }
+    }
+
+    /**
+     * Deletes the reports written by the previous test executions. Play never clears the report directory, so the
+     * reports of a previous execution (of removed classes, or of classes not selected by the current run) would
+     * otherwise be collected as well.
+     *
+     * @param buildDirectory the build directory
+     * @throws IOException if the reports cannot be deleted
+     */
+    static void deleteReports(File buildDirectory) throws IOException {
+        FileUtils.deleteDirectory(new File(buildDirectory, TEST_REPORTS));
+    }
+
+    /**
+     * Collects the test reports written by Play: they are written in the Surefire format, summarized in the build
+     * log, and the durations are recorded in the history used to balance the test shards.
+     */
+    private void collectReports() {
+        File directory = new File(getBuildDirectory(), TEST_REPORTS);
+        if (!directory.isDirectory()) {
+            getLog().debug("No test reports found in " + directory.getAbsolutePath());
+            return;
+        }
+
+        List<TestReports.Suite> suites;
+        try {
+            suites = TestReports.read(directory);
+            TestReports.writeSurefireReports(suites, reportsDirectory);
+        } catch (IOException e) {
+            getLog().warn("Cannot convert the test reports to the Surefire format", e);
+            return;
+        }
+        printSummary(suites);
+
+        try {
+            File history = getStateFile(TEST_DURATIONS_FILE);
+            Map<String, Double> durations = TestSharding.loadDurations(history);
+            durations.putAll(TestReports.getDurations(suites));
+            // Only keep the current test classes.
+            durations.keySet().retainAll(TestSharding.findTestClasses(getTestSourceDirectories()));
+            TestSharding.storeDurations(history, durations);
+        } catch (IOException e) {
+            getLog().warn("Cannot update the test duration history", e);
+        }
+    }
+
+    private void printSummary(List<TestReports.Suite> suites) {
+        int run = 0;
+        int failures = 0;
+        int errors = 0;
+        int skipped = 0;
+        double time = 0;
+        for (TestReports.Suite suite : suites) {
+            run += suite.getTestCases().size();
+            failures += suite.getCount(TestReports.TestCase.FAILURE);
+            errors += suite.getCount(TestReports.TestCase.ERROR);
+            skipped += suite.getCount(TestReports.TestCase.SKIPPED);
+            time += suite.getTime();
+        }
+        getLog().info(String.format(Locale.ENGLISH,
+                "Tests run: %d, Failures: %d, Errors: %d, Skipped: %d, Time elapsed: %.3f sec", run, failures,
+                errors, skipped, time));
+
+        if (slowestTests > 0 && run > 0) {
+            getLog().info("Slowest tests:");
+            for (TestReports.TestCase test : TestReports.getSlowestTests(suites, slowestTests)) {
+                getLog().info(String.format(Locale.ENGLISH, "  %8.3f sec - %s.%s", test.getTime(),
+                        test.getClassName(), test.getName()));
+            }
+        }
+    }
+
+    /**
+     * Executes a test shard.
+     *
+     * @param index   the index of the shard, starting from 1
+     * @param classes the test classes of the shard
+     * @return the exit value of the <tt>play</tt> process
+     * @throws IOException            if the process cannot be executed
+     * @throws MojoExecutionException if the <tt>play</tt> executable cannot be found
+     */
+    private int executeShard(int index, List<String> classes) throws IOException, MojoExecutionException {
+        File log = getStateFile("test-shard-" + index + ".log");
+        FileUtils.forceMkdir(log.getParentFile());
+        getLog().debug("Test shard " + index + " : " + classes);
+
+        CommandLine cmdLine = getPlay2CommandLine(true);
+        if (!play2SystemProperties.containsKey(TEST_SERVER_PORT)) {
+            cmdLine.addArgument(String.format(PLAY2_ARG_FORMAT, TEST_SERVER_PORT, testShardsPort + index - 1), false);
+        }
+        cmdLine.addArgument(TestSharding.getTestOnlyCommand(classes), false);
+        DefaultExecutor executor = new DefaultExecutor();
+        if (timeout > 0) {
+            executor.setWatchdog(new ExecuteWatchdog(timeout));
+        }
+        executor.setWorkingDirectory(project.getBasedir());
+        executor.setExitValue(0);
+
+        int exit;
+        OutputStream out = new FileOutputStream(log);
+        try {
+            executor.setStreamHandler(new PumpStreamHandler(out));
+            exit = executor.execute(cmdLine, getEnvironment());
+        } catch (ExecuteException e) {
+            exit = e.getExitValue();
+        } finally {
+            out.close();
+        }
+
+        // Avoid interleaving the output of the shards.
+        synchronized (this) {
+            getLog().info("Test shard " + index + " completed (" + classes.size() + " classes, exit value " + exit
+                    + ")");
+            for (String line : FileUtils.readLines(log)) {
+                getLog().info("[shard " + index + "] " + line);
+            }
+        }
+        return exit;
+    }
+
+    /**
+     * @return the directories containing the test sources: <tt>test</tt> and the Maven test source roots.
+     */
+    private List<File> getTestSourceDirectories() {
+        List<File> directories = new ArrayList<File>();
+        directories.add(new File(project.getBasedir(), "test"));
+        for (Object root : project.getTestCompileSourceRoots()) {
+            directories.add(new File(root.toString()));
+        }
+        return directories;
+    }
+
+    /**
+     * Computes the key of the test results in the output cache. It extends the compilation key with the test
+     * sources.
+     *
+     * @return the key
+     * @throws MojoExecutionException if the sources cannot be read
+     */
+    private String getTestCacheKey() throws MojoExecutionException {
+        try {
+            Fingerprint fingerprint = new Fingerprint();
+            fingerprint.add("main", computeCacheKey());
+            fingerprint.addDirectory("test", new File(project.getBasedir(), "test"));
+            for (Object root : project.getTestCompileSourceRoots()) {
+                File directory = new File(root.toString());
+                fingerprint.addDirectory("test-source:" + getRelativePath(project.getBasedir(), directory),
+                        directory);
+            }
+            return fingerprint.getDigest();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Cannot compute the cache key of the tests", e);
+        }
+    }
+
+    /**
+     * Restores the test reports of a previous successful execution of the same tests, on the same sources.
+     *
+     * @param key the cache key
+     * @return <code>true</code> if the tests have already passed, so their execution can be skipped
+     */
+    private boolean restoreFromCache(String key) {
+        try {
+            if (getOutputCache().restore(key, getBuildDirectory(), Arrays.asList(TEST_REPORTS))) {
+                getLog().warn("------------------------------------------------------------------------");
+                getLog().warn("TESTS NOT EXECUTED - they passed on the same sources in a previous build");
+                getLog().warn("The reports are restored from the cache entry " + key);
+                getLog().warn("Disable play2skipCachedTests to run them");
+                getLog().warn("------------------------------------------------------------------------");
+                return true;
+            }
+        } catch (IOException e) {
+            getLog().warn("Cannot restore the test results from the cache, running tests", e);
+        }
+        return false;
+    }
+
+    private void storeInCache(String key) {
+        try {
+            if (getOutputCache().store(key, getBuildDirectory(), Arrays.asList(TEST_REPORTS))) {
+                getLog().info("Test results stored in the cache entry " + key);
+            }
+        } catch (IOException e) {
+            getLog().warn("Cannot store the test results in the cache", e);
+        }
     }
 
     /**
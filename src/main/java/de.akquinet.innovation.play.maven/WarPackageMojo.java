@@ -1,9 +1,11 @@
 package de.akquinet.innovation.play.maven;
 
 import de.akquinet.innovation.play.maven.utils.CopyDependenciesEmbeddedMojo;
+import de.akquinet.innovation.play.maven.utils.DependencyIndex;
+import de.akquinet.innovation.play.maven.utils.DirectorySync;
+import de.akquinet.innovation.play.maven.utils.ZipWriter;
 import org.apache.commons.io.FileUtils;
-import org.apache.maven.archiver.MavenArchiveConfiguration;
-import org.apache.maven.archiver.MavenArchiver;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
@@ -13,16 +15,10 @@ import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.shared.dependency.tree.DependencyNode;
-import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
-import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
-import org.codehaus.plexus.archiver.war.WarArchiver;
 import org.codehaus.plexus.util.StringUtils;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.util.*;
 
 /**
@@ -38,6 +34,8 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
 
     private static final String WEB_INF = "WEB-INF";
 
+    private static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
+
     public static final String TLD_PATH = "WEB-INF/tld/";
 
     public static final String SERVICES_PATH = "WEB-INF/services/";
@@ -51,7 +49,7 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
     public static final String LIB_PATH = "WEB-INF/lib/";
 
     /**
-     * The directory where the webapp is built.
+     * The directory where the webapp is built. It is synchronized incrementally with the content of the webapp.
      *
      * @parameter default-value="${project.build.directory}/${project.build.finalName}"
      */
@@ -65,13 +63,6 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
      */
     List pluginArtifacts;
 
-    /**
-     * Used to look up Artifacts in the remote repository.
-     *
-     * @component
-     */
-    protected ArtifactFactory factory;
-
     /**
      * Used to resolve Artifacts in the remote repository.
      *
@@ -80,40 +71,6 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
 
     protected ArtifactResolver resolver;
 
-    /**
-     * Artifact collector, needed to resolve dependencies.
-     *
-     * @component role="org.apache.maven.artifact.resolver.ArtifactCollector"
-     * @required
-     * @readonly
-     */
-    protected ArtifactCollector artifactCollector;
-
-    /**
-     * The dependency tree builder to use.
-     *
-     * @component
-     * @required
-     * @readonly
-     */
-    protected DependencyTreeBuilder dependencyTreeBuilder;
-
-    /**
-     * @component role="org.apache.maven.artifact.metadata.ArtifactMetadataSource" hint="maven"
-     * @required
-     * @readonly
-     */
-    protected ArtifactMetadataSource artifactMetadataSource;
-
-    /**
-     * Location of the local repository.
-     *
-     * @parameter expression="${localRepository}"
-     * @readonly
-     * @required
-     */
-    protected ArtifactRepository local;
-
     /**
      * List of Remote Repositories used by the resolver
      *
@@ -124,18 +81,19 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
     protected List<ArtifactRepository> remoteRepos;
 
     /**
-     * The WAR archiver.
+     * Enables or disabled the packaging of the application as a War file.
      *
-     * @component role="org.codehaus.plexus.archiver.Archiver" roleHint="war"
+     * @parameter default-value=true
      */
-    protected WarArchiver warArchiver;
+    boolean buildWar;
 
     /**
-     * Enables or disabled the packaging of the application as a War file.
+     * Whether the webapp directory is kept. When disabled, the War file is written directly from the dependencies
+     * and the class files, without copying them in the webapp directory first.
      *
-     * @parameter default-value=true
+     * @parameter default-value=true expression="${play2explodedWar}"
      */
-    boolean buildWar;
+    boolean explodedWar = true;
 
     /**
      * Sets the war classifier.
@@ -165,31 +123,27 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
 
         getLog().info("Build war file");
 
-        prepareDependencyTree();
+        treeRoot = getDependencyGraph().getRoot();
+        long timestamp = getOutputTimestamp();
 
         try {
-            // Create a temporary directory
-            if (webappDirectory.exists()) {
-                getLog().info(webappDirectory.getAbsolutePath() + " directory existing - deleting");
-                FileUtils.deleteDirectory(webappDirectory);
+            // List the content of the webapp: dependencies, Play runtime, class files and servlet bridge.
+            Map<String, File> webapp = new TreeMap<String, File>();
+            addDependencies(webapp);
+            addPlayDependencies(webapp);
+            // The class files must be the final class files built by Play.
+            addClassFiles(webapp);
+            addServletBridge(webapp);
+
+            if (explodedWar) {
+                synchronizeWebappDirectory(webapp);
+            } else {
+                deleteWebappDirectory();
             }
 
-            // Prepare structure.
-            prepareWarStructure();
-
-            // Copy dependencies to the right folders.
-            copyDependencies();
-            copyPlayDependencies();
-
-            // Copy class files, it must be the final class files built by Play.
-            copyClassFiles();
-
-            // Copy the servlet bridge.
-            copyServletBridge();
-
             // Build the war file
             File warFile = new File(buildDirectory, project.getBuild().getFinalName() + ".war");
-            packageWarFile(webappDirectory, warFile);
+            packageWarFile(webapp, warFile, timestamp);
         } catch (IOException e) {
             getLog().error("Cannot build the War file : ", e);
             throw new MojoExecutionException("Error during War file construction", e);
@@ -197,16 +151,45 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
 
     }
 
-    private void prepareDependencyTree() throws MojoExecutionException {
-        try {
-            getLog().debug("Building dependency tree");
-            treeRoot =
-                    dependencyTreeBuilder.buildDependencyTree(project, local, factory,
-                            artifactMetadataSource, null, artifactCollector);
-        } catch (DependencyTreeBuilderException e) {
-            getLog().error("Cannot build the dependency tree", e);
-            throw new MojoExecutionException("Cannot build the dependency tree", e);
+    /**
+     * Synchronizes the webapp directory with its content. The directory is not rebuilt: a manifest records the files
+     * copied by the previous build, so only the new and changed files are copied, and the files not part of the
+     * webapp anymore are deleted.
+     *
+     * @param webapp the paths of the files in the webapp, and their source
+     * @throws IOException if the directory cannot be synchronized
+     */
+    private void synchronizeWebappDirectory(Map<String, File> webapp) throws IOException {
+        File manifest = getStateFile("webapp.properties");
+        if (webappDirectory.exists() && !manifest.isFile()) {
+            // The content of the directory is unknown, it may contain stale files.
+            getLog().info(webappDirectory.getAbsolutePath() + " directory existing - deleting");
+            FileUtils.deleteDirectory(webappDirectory);
+        }
+
+        // Prepare structure.
+        prepareWarStructure();
+
+        DirectorySync sync = new DirectorySync(webappDirectory, manifest);
+        sync.setThreads(getCopyThreads());
+        for (Map.Entry<String, File> entry : webapp.entrySet()) {
+            sync.addFile(entry.getKey(), entry.getValue());
         }
+        sync.finish();
+        getLog().info("Webapp directory " + webappDirectory.getAbsolutePath() + " synchronized - "
+                + sync.getWritten() + " files copied, " + sync.getUnchanged() + " unchanged, "
+                + sync.getDeleted() + " deleted");
+    }
+
+    /**
+     * Deletes the webapp directory left by a previous build, as it is not updated anymore.
+     */
+    private void deleteWebappDirectory() throws IOException {
+        if (webappDirectory.exists()) {
+            getLog().info(webappDirectory.getAbsolutePath() + " directory existing - deleting");
+            FileUtils.deleteDirectory(webappDirectory);
+        }
+        FileUtils.deleteQuietly(getStateFile("webapp.properties"));
     }
 
     public File getWebappDirectory() {
@@ -241,11 +224,13 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
         return warClassifier;
     }
 
-    private void copyPlayDependencies() throws IOException {
-        getLog().info("Copying Play runtime and its dependencies");
+    private void addPlayDependencies(Map<String, File> webapp) throws IOException {
+        getLog().info("Selecting Play runtime and its dependencies");
         CopyDependenciesEmbeddedMojo copy = new CopyDependenciesEmbeddedMojo(this, "play-test");
         try {
-            copy.execute();
+            for (Map.Entry<String, File> library : copy.getLibraries().entrySet()) {
+                webapp.put(LIB_PATH + library.getKey(), library.getValue());
+            }
         } catch (MojoExecutionException e) {
             getLog().error("Cannot copy play runtime", e);
             throw new IOException("Error during the resolution of Play 2 dependencies", e);
@@ -253,35 +238,30 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
 
     }
 
-    private void copyServletBridge() throws IOException {
+    private void addServletBridge(Map<String, File> webapp) throws IOException {
         // We need to copy two artifacts : play2-war-core-common_2.9.1 and play2-war-core-servlet30_2.9.1
         List<Artifact> artifacts = pluginArtifacts;
-        URL common = getUrlByArtifactId(artifacts, "play2-war-core-common_2.9.1");
-        URL servlet = getUrlByArtifactId(artifacts, "play2-war-core-servlet30_2.9.1");
-
-        FileUtils.copyURLToFile(common, new File(webappDirectory, LIB_PATH + "play2-war-core-common_2.9.1.jar"));
-        FileUtils.copyURLToFile(servlet, new File(webappDirectory, LIB_PATH + "play2-war-core-servlet30_2.9.1.jar"));
+        webapp.put(LIB_PATH + "play2-war-core-common_2.9.1.jar",
+                getFileByArtifactId(artifacts, "play2-war-core-common_2.9.1"));
+        webapp.put(LIB_PATH + "play2-war-core-servlet30_2.9.1.jar",
+                getFileByArtifactId(artifacts, "play2-war-core-servlet30_2.9.1"));
     }
 
     /**
-     * Gets the artifact's URL from the artifact list.
+     * Gets the artifact's file from the artifact list.
      *
      * @param artifacts  the list of artifact
      * @param artifactId the dependency artifact id.
-     * @return the artifact's URL or <code>null</code> if the URL cannot
-     *         be found.
+     * @return the artifact's file
+     * @throws IOException if the artifact cannot be found
      */
-    private URL getUrlByArtifactId(List<Artifact> artifacts, String artifactId) {
+    private File getFileByArtifactId(List<Artifact> artifacts, String artifactId) throws IOException {
         for (Artifact artifact : artifacts) {
-            if (artifact.getArtifactId().equals(artifactId)) {
-                try {
-                    return artifact.getFile().toURI().toURL();
-                } catch (MalformedURLException e) {
-                    getLog().error("Cannot compute the url of the artifact : " + artifactId);
-                }
+            if (artifact.getArtifactId().equals(artifactId) && artifact.getFile() != null) {
+                return artifact.getFile();
             }
         }
-        return null;
+        throw new IOException("Cannot find the artifact " + artifactId + " in the plugin dependencies");
     }
 
     private void prepareWarStructure() {
@@ -291,52 +271,92 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
         metainfDir.mkdirs();
     }
 
-    private void copyClassFiles() throws IOException {
+    private void addClassFiles(Map<String, File> webapp) throws IOException {
         File scala = findScalaDirectory();
 
         File classes = new File(scala, "classes");
         if (classes.exists()) {
             getLog().info("Copying classes from " + classes + " to " + CLASSES_PATH);
-            FileUtils.copyDirectory(classes, new File(webappDirectory, CLASSES_PATH));
+            addTree(webapp, CLASSES_PATH, classes);
         }
 
         File managedClasses = new File(scala, "classes_managed");
         if (managedClasses.exists()) {
             getLog().info("Copying classes from " + managedClasses + " to " + CLASSES_PATH);
-            FileUtils.copyDirectory(managedClasses, new File(webappDirectory, CLASSES_PATH));
+            addTree(webapp, CLASSES_PATH, managedClasses);
         }
 
         File resourceClasses = new File(scala, "resource_managed");
         if (resourceClasses.exists()) {
             getLog().info("Copying resources from " + resourceClasses + " to " + CLASSES_PATH);
-            FileUtils.copyDirectory(resourceClasses, new File(webappDirectory, CLASSES_PATH));
+            addTree(webapp, CLASSES_PATH, resourceClasses);
         }
     }
 
-    private File findScalaDirectory() throws IOException {
-        File[] array = buildDirectory.listFiles(new FilenameFilter() {
-            public boolean accept(File file, String s) {
-                return s.startsWith("scala-");
-            }
-        });
-
-        if (array.length == 0) {
-            throw new IOException("Cannot find Play output files");
+    /**
+     * Adds the files of a directory to the webapp, replacing the files already added at the same paths.
+     */
+    private static void addTree(Map<String, File> webapp, String path, File directory) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
         }
-        if (array.length > 1) {
-            throw new IOException("Cannot find Play output files - too many candidates");
+        for (File child : children) {
+            for (Map.Entry<String, File> entry : ZipWriter.listTree(path + child.getName(), child).entrySet()) {
+                if (!entry.getValue().isDirectory()) {
+                    webapp.put(entry.getKey(), entry.getValue());
+                }
+            }
         }
-        return array[0];
     }
 
-    private void packageWarFile(File war, File warFile) throws IOException {
-        getLog().info("Build war file " + warFile.getAbsolutePath() + " from " + war.getAbsolutePath());
-        // We build a Jar from the webappDirectory.
-        MavenArchiver archiver = new MavenArchiver();
-        archiver.setArchiver(warArchiver);
-        archiver.setOutputFile(warFile);
+    /**
+     * Builds the War file from the content of the webapp, read from the source files (the webapp directory, if kept,
+     * has the same content).
+     *
+     * @param webapp    the paths of the files in the webapp, and their source
+     * @param warFile   the War file
+     * @param timestamp the timestamp of the entries, making the War file reproducible, <tt>-1</tt> to use the times
+     *                  of the files
+     * @throws IOException if the War file cannot be written
+     */
+    private void packageWarFile(Map<String, File> webapp, File warFile, long timestamp) throws IOException {
+        getLog().info("Build war file " + warFile.getAbsolutePath());
+        // The entries are compressed in parallel, the jars are stored as they are already compressed.
+        long time = timestamp != -1 ? timestamp : System.currentTimeMillis();
+        ZipWriter writer = new ZipWriter(warFile);
         try {
-            warArchiver.addDirectory(webappDirectory);
+            writer.setThreads(getArchiveThreads());
+            if (timestamp != -1) {
+                writer.setTimestamp(timestamp);
+            }
+            writer.addDirectory(META_INF, time);
+            writer.addData(MANIFEST_PATH, getManifest(timestamp != -1), time);
+            writer.addDirectory(WEB_INF, time);
+
+            Set<String> directories = new HashSet<String>();
+            directories.add(WEB_INF + "/");
+            for (Map.Entry<String, File> entry : webapp.entrySet()) {
+                String name = entry.getKey();
+                if (name.startsWith(META_INF + "/")) {
+                    continue;
+                }
+                // The parent directories first.
+                for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1)) {
+                    String directory = name.substring(0, i + 1);
+                    if (directories.add(directory)) {
+                        writer.addDirectory(directory, time);
+                    }
+                }
+                writer.addFile(name, entry.getValue());
+            }
+
+            // Maven descriptor, as added by the Maven archiver.
+            String descriptor = META_INF + "/maven/" + project.getGroupId() + "/" + project.getArtifactId() + "/";
+            if (project.getFile() != null && project.getFile().isFile()) {
+                writer.addFile(descriptor + "pom.xml", project.getFile());
+            }
+            writer.addData(descriptor + "pom.properties", getPomProperties(), time);
 
             // Manage additional files if any
             if (! additionalFiles.isEmpty()) {
@@ -346,16 +366,14 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
                     if (!fileToAdd.exists()) {
                         throw new IOException(fileToAdd.getCanonicalPath() + " not found, can't add to war file");
                     }
-                    warArchiver.addFile(fileToAdd, fileToAdd.getName());
+                    writer.addFile(fileToAdd.getName(), fileToAdd);
                 }
             }
-
-
-            warArchiver.setIgnoreWebxml(false);
-            MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
-            archiver.createArchive(session, project, archive);
-        } catch (Exception e) {
+            writer.close();
+        } catch (IOException e) {
             getLog().error("Error during the construction of the War file with the archiving process", e);
+            IOUtils.closeQuietly(writer);
+            FileUtils.deleteQuietly(warFile);
             throw new IOException("Cannot build the War file", e);
         }
 
@@ -371,6 +389,52 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
         }
     }
 
+    /**
+     * Creates the manifest of the War file, with the entries written by the Maven archiver. The manifest of a
+     * reproducible War file does not depend on the user and only contains the version of the Java specification.
+     */
+    private byte[] getManifest(boolean reproducible) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        appendManifestEntry(manifest, "Manifest-Version", "1.0");
+        appendManifestEntry(manifest, "Created-By", "Apache Maven");
+        if (reproducible) {
+            appendManifestEntry(manifest, "Build-Jdk-Spec", System.getProperty("java.specification.version"));
+        } else {
+            appendManifestEntry(manifest, "Built-By", System.getProperty("user.name"));
+            appendManifestEntry(manifest, "Build-Jdk", System.getProperty("java.version"));
+        }
+        manifest.append("\r\n");
+        return manifest.toString().getBytes("UTF-8");
+    }
+
+    /**
+     * Appends a manifest entry, continued on the next lines if it exceeds 72 bytes.
+     */
+    private static void appendManifestEntry(StringBuilder manifest, String name, String value)
+            throws IOException {
+        String line = name + ": " + value;
+        int length = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int size = String.valueOf(c).getBytes("UTF-8").length;
+            if (length + size > 72) {
+                manifest.append("\r\n ");
+                length = 1;
+            }
+            manifest.append(c);
+            length += size;
+        }
+        manifest.append("\r\n");
+    }
+
+    private byte[] getPomProperties() throws IOException {
+        String properties = "#Generated by Maven\n"
+                + "version=" + project.getVersion() + "\n"
+                + "groupId=" + project.getGroupId() + "\n"
+                + "artifactId=" + project.getArtifactId() + "\n";
+        return properties.getBytes("ISO-8859-1");
+    }
+
     private boolean mustBeEmbedded(Artifact artifact) {
         return !artifact.isOptional() &&
                 EMBEDDED_SCOPES.contains(artifact.getScope()) &&
@@ -380,8 +444,7 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
     private List<String> EMBEDDED_SCOPES = Arrays.asList("compile");
 
 
-    public void copyDependencies()
-            throws IOException {
+    public void addDependencies(Map<String, File> webapp) {
         Set<Artifact> artifacts = project.getDependencyArtifacts();
 
         for (Artifact artifact : artifacts) {
@@ -393,23 +456,19 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
             if (mustBeEmbedded(artifact)) {
                 String type = artifact.getType();
                 if ("tld".equals(type)) {
-                    FileUtils.copyFile(artifact.getFile(), new File(webappDirectory, TLD_PATH + targetFileName));
+                    webapp.put(TLD_PATH + targetFileName, artifact.getFile());
                 } else if ("aar".equals(type)) {
-                    FileUtils.copyFile(artifact.getFile(), new File(webappDirectory, SERVICES_PATH + targetFileName));
+                    webapp.put(SERVICES_PATH + targetFileName, artifact.getFile());
                 } else if ("mar".equals(type)) {
-                    FileUtils.copyFile(artifact.getFile(), new File(webappDirectory, MODULES_PATH + targetFileName));
+                    webapp.put(MODULES_PATH + targetFileName, artifact.getFile());
                 } else if ("xar".equals(type)) {
-                    FileUtils.copyFile(artifact.getFile(), new File(webappDirectory,
-                            EXTENSIONS_PATH + targetFileName));
+                    webapp.put(EXTENSIONS_PATH + targetFileName, artifact.getFile());
                 } else if ("jar".equals(type) || "ejb".equals(type) || "ejb-client".equals(type)
                         || "test-jar".equals(type)) {
-                    getLog().info("Copying " + targetFileName + " to " + LIB_PATH);
-                    FileUtils.copyFile(artifact.getFile(), new File(webappDirectory,
-                            LIB_PATH + targetFileName));
+                    webapp.put(LIB_PATH + targetFileName, artifact.getFile());
                 } else if ("par".equals(type)) {
                     targetFileName = targetFileName.substring(0, targetFileName.lastIndexOf('.')) + ".jar";
-                    FileUtils.copyFile(artifact.getFile(), new File(webappDirectory,
-                            LIB_PATH + targetFileName));
+                    webapp.put(LIB_PATH + targetFileName, artifact.getFile());
                 } else if ("war".equals(type)) {
                     getLog().warn("Not supported dependency type : war");
                 } else if ("zip".equals(type)) {
@@ -425,4 +484,15 @@ public class WarPackageMojo extends AbstractPlay2Mojo {
     public DependencyNode getDependencyTreeRoot() {
         return treeRoot;
     }
+
+    /**
+     * Gets the index of the dependency tree for the given excluded artifact, shared by the goals executed on the
+     * project during the build.
+     *
+     * @param exclusionRootArtifactId the prefix of the artifact id of the excluded artifact
+     * @return the index
+     */
+    public DependencyIndex getDependencyIndex(String exclusionRootArtifactId) throws MojoExecutionException {
+        return getDependencyGraph().getIndex(exclusionRootArtifactId);
+    }
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A content-addressed cache of build outputs.
+ * <p/>
+ * Each entry is identified by a key computed from the inputs of the build (see {@link Fingerprint}), and contains a
+ * set of files and directories, stored using their path relative to the directory they were taken from (generally
+ * the build directory). Entries are immutable: they are written in a temporary directory and then renamed, so a
+ * concurrent build never sees a partial entry.
+ * <p/>
+ * The cache can be backed by a {@link RemoteBuildCache}: entries missing locally are fetched from the remote cache,
+ * and, if enabled, the entries stored locally are pushed to the remote cache.
+ */
+public class BuildCache {
+
+    private final File root;
+    private final RemoteBuildCache remote;
+    private final boolean push;
+
+    /**
+     * Creates a local cache.
+     *
+     * @param root the directory storing the entries
+     */
+    public BuildCache(File root) {
+        this(root, null, false);
+    }
+
+    /**
+     * Creates a cache backed by a remote cache.
+     *
+     * @param root   the directory storing the entries
+     * @param remote the remote cache, <code>null</code> if none
+     * @param push   whether the entries stored locally are pushed to the remote cache
+     */
+    public BuildCache(File root, RemoteBuildCache remote, boolean push) {
+        this.root = root;
+        this.remote = remote;
+        this.push = push;
+    }
+
+    /**
+     * @param key the key
+     * @return the directory of the entry with the given key, it may not exist.
+     */
+    public File getEntry(String key) {
+        // Fan-out on the first characters to avoid huge directories.
+        return new File(new File(root, key.substring(0, 2)), key);
+    }
+
+    /**
+     * @param key the key
+     * @return <code>true</code> if the cache contains an entry for the given key
+     */
+    public boolean contains(String key) {
+        return getEntry(key).isDirectory();
+    }
+
+    /**
+     * Stores an entry. Nothing is done if the cache already contains the key.
+     *
+     * @param key       the key
+     * @param directory the directory containing the files to store
+     * @param paths     the paths of the files or directories to store, relative to <tt>directory</tt>. Missing
+     *                  paths are ignored.
+     * @return <code>true</code> if the entry was stored, <code>false</code> if it was already there
+     * @throws IOException if the entry cannot be written
+     */
+    public boolean store(String key, File directory, List<String> paths) throws IOException {
+        File entry = getEntry(key);
+        if (entry.isDirectory()) {
+            return false;
+        }
+
+        File tmp = newTemporaryEntry(key);
+        try {
+            for (String path : paths) {
+                File source = new File(directory, path);
+                if (source.isDirectory()) {
+                    FileUtils.copyDirectory(source, new File(tmp, path));
+                } else if (source.isFile()) {
+                    FileUtils.copyFile(source, new File(tmp, path));
+                }
+            }
+            commit(tmp, entry);
+        } finally {
+            // Still there if another build stored the same entry in the meantime.
+            FileUtils.deleteQuietly(tmp);
+        }
+
+        if (remote != null && push) {
+            remote.push(key, entry);
+        }
+        return true;
+    }
+
+    /**
+     * Restores an entry: the stored files are copied to the given directory.
+     *
+     * @param key       the key
+     * @param directory the directory in which the files are restored
+     * @return <code>true</code> if the entry was restored, <code>false</code> if the cache does not contain the key
+     * @throws IOException if the files cannot be copied
+     */
+    public boolean restore(String key, File directory) throws IOException {
+        return restore(key, directory, Collections.<String>emptyList());
+    }
+
+    /**
+     * Restores an entry, replacing the current outputs: the given paths are deleted before the stored files are
+     * copied, so the files absent from the entry do not survive the restoration.
+     *
+     * @param key       the key
+     * @param directory the directory in which the files are restored
+     * @param replaced  the paths of the files or directories to delete first, relative to <tt>directory</tt>; nothing
+     *                  is deleted if the cache does not contain the key
+     * @return <code>true</code> if the entry was restored, <code>false</code> if the cache does not contain the key
+     * @throws IOException if the current outputs cannot be deleted, or the files cannot be copied
+     */
+    public boolean restore(String key, File directory, List<String> replaced) throws IOException {
+        File entry = getEntry(key);
+        if (!entry.isDirectory() && !fetch(key)) {
+            return false;
+        }
+        for (String path : replaced) {
+            File file = new File(directory, path);
+            if (file.exists()) {
+                FileUtils.forceDelete(file);
+            }
+        }
+        FileUtils.copyDirectory(entry, directory);
+        return true;
+    }
+
+    /**
+     * Fetches an entry from the remote cache and stores it locally.
+     *
+     * @param key the key
+     * @return <code>true</code> if the entry was found, <code>false</code> if there is no remote cache or if it
+     *         does not contain the key
+     * @throws IOException if the entry cannot be downloaded
+     */
+    private boolean fetch(String key) throws IOException {
+        if (remote == null) {
+            return false;
+        }
+        File tmp = newTemporaryEntry(key);
+        try {
+            if (!remote.fetch(key, tmp)) {
+                return false;
+            }
+            commit(tmp, getEntry(key));
+            return true;
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+    }
+
+    private File newTemporaryEntry(String key) throws IOException {
+        File tmp = new File(getEntry(key).getParentFile(), key + ".tmp-" + System.nanoTime());
+        FileUtils.forceMkdir(tmp);
+        return tmp;
+    }
+
+    private void commit(File tmp, File entry) throws IOException {
+        if (!tmp.renameTo(entry) && !entry.isDirectory()) {
+            throw new IOException("Cannot create the cache entry " + entry.getAbsolutePath());
+        }
+    }
+}
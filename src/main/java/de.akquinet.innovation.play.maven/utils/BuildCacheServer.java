@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal HTTP server implementing the remote build cache protocol (see {@link RemoteBuildCache}).
+ * The archives are stored as files in a directory. It is meant for local testing and small teams, not as a
+ * production cache.
+ */
+public class BuildCacheServer {
+
+    private static final Pattern ENTRY = Pattern.compile("/([a-zA-Z0-9_\\-]+\\.zip)");
+
+    private final File directory;
+    private HttpServer server;
+
+    /**
+     * Creates the server.
+     *
+     * @param directory the directory storing the archives
+     */
+    public BuildCacheServer(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param port the port, <tt>0</tt> to pick a free port
+     * @throws IOException if the server cannot be started
+     */
+    public void start(int port) throws IOException {
+        FileUtils.forceMkdir(directory);
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    /**
+     * @return the port on which the server is listening.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        Matcher matcher = ENTRY.matcher(exchange.getRequestURI().getPath());
+        if (!matcher.matches()) {
+            exchange.sendResponseHeaders(400, -1);
+            return;
+        }
+        File file = new File(directory, matcher.group(1));
+        String method = exchange.getRequestMethod();
+
+        if ("GET".equals(method) || "HEAD".equals(method)) {
+            if (!file.isFile()) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/zip");
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, file.length());
+            InputStream in = new FileInputStream(file);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                IOUtils.copyLarge(in, out);
+            } finally {
+                in.close();
+                out.close();
+            }
+        } else if ("PUT".equals(method)) {
+            // Write to a temporary file first, readers must never see a partial archive.
+            File tmp = new File(directory, file.getName() + ".tmp-" + System.nanoTime());
+            InputStream in = exchange.getRequestBody();
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                IOUtils.copyLarge(in, out);
+            } finally {
+                out.close();
+            }
+            if (file.exists()) {
+                // Entries are immutable.
+                FileUtils.deleteQuietly(tmp);
+            } else if (!tmp.renameTo(file)) {
+                FileUtils.deleteQuietly(tmp);
+                exchange.sendResponseHeaders(500, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(201, -1);
+        } else {
+            exchange.sendResponseHeaders(405, -1);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The class-level dependency graph of a set of compiled classes.
+ * <p/>
+ * The dependencies are read from the constant pool of the class files: the referenced classes and the class names
+ * used in the type descriptors and signatures. Nested, anonymous and Scala companion classes (<tt>A$B</tt>,
+ * <tt>A$1</tt>, <tt>A$</tt>...) are merged into their top-level class, so the nodes of the graph are the top-level
+ * classes. Each node also has a hash of all its class files, to detect changes between two builds.
+ */
+public class ClassDependencies {
+
+    private static final Pattern DESCRIPTOR = Pattern.compile("L([\\w/$]+)[;<]");
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    /**
+     * Top-level class -> referenced top-level classes.
+     */
+    private final Map<String, Set<String>> dependencies = new TreeMap<String, Set<String>>();
+
+    /**
+     * Top-level class -> hash of its class files.
+     */
+    private final Map<String, String> hashes = new TreeMap<String, String>();
+
+    /**
+     * Reads the class files contained in the given directories.
+     *
+     * @param directories the class directories, missing directories are ignored
+     * @return the dependency graph
+     * @throws IOException if a class file cannot be read
+     */
+    public static ClassDependencies scan(List<File> directories) throws IOException {
+        ClassDependencies graph = new ClassDependencies();
+        Map<String, List<String>> files = new TreeMap<String, List<String>>();
+        for (File directory : directories) {
+            if (!directory.isDirectory()) {
+                continue;
+            }
+            String root = directory.getAbsolutePath() + File.separator;
+            List<File> classes = new ArrayList<File>(FileUtils.listFiles(directory, new String[]{"class"}, true));
+            Collections.sort(classes);
+            for (File file : classes) {
+                String path = file.getAbsolutePath().substring(root.length()).replace(File.separatorChar, '/');
+                String name = getTopLevelClassName(path.substring(0, path.length() - ".class".length()));
+
+                Set<String> references = graph.dependencies.get(name);
+                if (references == null) {
+                    references = new TreeSet<String>();
+                    graph.dependencies.put(name, references);
+                    files.put(name, new ArrayList<String>());
+                }
+                InputStream in = new BufferedInputStream(new FileInputStream(file));
+                try {
+                    references.addAll(readReferences(in));
+                } finally {
+                    in.close();
+                }
+                references.remove(name);
+                files.get(name).add(path + "=" + Fingerprint.sha1(file));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : files.entrySet()) {
+            graph.hashes.put(entry.getKey(), Fingerprint.sha1(entry.getValue().toString()));
+        }
+        return graph;
+    }
+
+    /**
+     * @return the hash of the class files of each top-level class.
+     */
+    public Map<String, String> getHashes() {
+        return Collections.unmodifiableMap(hashes);
+    }
+
+    /**
+     * @param name the top-level class name
+     * @return the classes referenced by the given class, empty if the class is unknown
+     */
+    public Set<String> getDependencies(String name) {
+        Set<String> references = dependencies.get(name);
+        if (references == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(references);
+    }
+
+    /**
+     * Computes the classes affected by a change of the given classes: the given classes and all the classes
+     * depending on them, directly or transitively.
+     *
+     * @param changed the changed (or removed) top-level classes
+     * @return the affected classes
+     */
+    public Set<String> getAffectedClasses(Collection<String> changed) {
+        Map<String, Set<String>> dependents = new HashMap<String, Set<String>>();
+        for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+            for (String reference : entry.getValue()) {
+                Set<String> set = dependents.get(reference);
+                if (set == null) {
+                    set = new HashSet<String>();
+                    dependents.put(reference, set);
+                }
+                set.add(entry.getKey());
+            }
+        }
+
+        Set<String> affected = new TreeSet<String>(changed);
+        LinkedList<String> queue = new LinkedList<String>(changed);
+        while (!queue.isEmpty()) {
+            Set<String> set = dependents.get(queue.removeFirst());
+            if (set != null) {
+                for (String dependent : set) {
+                    if (affected.add(dependent)) {
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Reads the classes referenced by a class file.
+     *
+     * @param stream the content of the class file
+     * @return the referenced top-level classes
+     * @throws IOException if the class file cannot be read or is invalid
+     */
+    static Set<String> readReferences(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Invalid class file");
+        }
+        in.readUnsignedShort();
+        in.readUnsignedShort();
+
+        int count = in.readUnsignedShort();
+        String[] strings = new String[count];
+        List<Integer> classes = new ArrayList<Integer>();
+        for (int i = 1; i < count; i++) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    strings[i] = in.readUTF();
+                    break;
+                case 7: // Class
+                    classes.add(in.readUnsignedShort());
+                    break;
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.readUnsignedShort();
+                    break;
+                case 15: // MethodHandle
+                    in.readUnsignedByte();
+                    in.readUnsignedShort();
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.readInt();
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.readLong();
+                    // Takes two entries.
+                    i++;
+                    break;
+                default:
+                    throw new IOException("Invalid constant pool tag " + tag);
+            }
+        }
+
+        Set<String> references = new TreeSet<String>();
+        for (Integer index : classes) {
+            String name = strings[index];
+            if (name == null) {
+                continue;
+            }
+            if (name.startsWith("[")) {
+                // Array class, such as [Lmodels/Computer;
+                addDescriptorReferences(name, references);
+            } else {
+                references.add(getTopLevelClassName(name));
+            }
+        }
+        // Descriptors and signatures, also covers the annotations.
+        for (String value : strings) {
+            if (value != null && value.indexOf('L') != -1 && value.indexOf(';') != -1) {
+                addDescriptorReferences(value, references);
+            }
+        }
+        return references;
+    }
+
+    private static void addDescriptorReferences(String descriptor, Set<String> references) {
+        Matcher matcher = DESCRIPTOR.matcher(descriptor);
+        while (matcher.find()) {
+            references.add(getTopLevelClassName(matcher.group(1)));
+        }
+    }
+
+    /**
+     * Computes the top-level class name of a class.
+     *
+     * @param internalName the internal name of the class, such as <tt>controllers/Application$1</tt>
+     * @return the top-level class name, such as <tt>controllers.Application</tt>
+     */
+    static String getTopLevelClassName(String internalName) {
+        String name = internalName.replace('/', '.');
+        int simple = name.lastIndexOf('.') + 1;
+        int nested = name.indexOf('$', simple);
+        // Keep the names starting with $, generated by some compilers.
+        if (nested > simple) {
+            name = name.substring(0, nested);
+        }
+        return name;
+    }
+}
@@ -11,7 +11,9 @@ import org.codehaus.plexus.util.StringUtils;
 
 import java.io.File;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 public class CopyDependenciesEmbeddedMojo extends CopyDependenciesMojo {
     private final WarPackageMojo warPackageMojo;
@@ -60,6 +62,32 @@ public class CopyDependenciesEmbeddedMojo extends CopyDependenciesMojo {
         excludeScope = "";
     }
 
+    /**
+     * Selects the artifacts to embed, without copying them.
+     *
+     * @return the file names of the artifacts in the output directory, and the artifact files, sorted by name
+     * @throws MojoExecutionException if an artifact cannot be resolved
+     */
+    public Map<String, File> getLibraries() throws MojoExecutionException {
+        DependencyStatusSets status = getDependencySets(false);
+        Map<String, File> libraries = new TreeMap<String, File>();
+        addLibraries(libraries, status.getResolvedDependencies());
+        // The artifacts already present in the output directory.
+        addLibraries(libraries, status.getSkippedDependencies());
+        return libraries;
+    }
+
+    private static void addLibraries(Map<String, File> libraries, Set<?> artifacts) {
+        if (artifacts == null) {
+            return;
+        }
+        for (Artifact artifact : (Set<Artifact>) artifacts) {
+            if (artifact.getFile() != null) {
+                libraries.put(DependencyUtil.getFormattedFileName(artifact, false, false), artifact.getFile());
+            }
+        }
+    }
+
     /**
      * Method creates filters and filters the projects dependencies. This method
      * also transforms the dependencies if classifier is set. The dependencies
@@ -93,12 +121,18 @@ public class CopyDependenciesEmbeddedMojo extends CopyDependenciesMojo {
         filter.addFilter(new ArtifactIdFilter(DependencyUtil.cleanToBeTokenizedString(includeArtifactIds),
                 DependencyUtil.cleanToBeTokenizedString(excludeArtifactIds)));
 
+        // The tree is walked once per build, each artifact is then checked with a lookup.
+        final DependencyIndex index = warPackageMojo.getDependencyIndex(excludeDependenciesOfArtifactId);
         filter.addFilter(new AbstractArtifactsFilter() {
             public Set filter(Set artifacts) throws ArtifactFilterException {
                 Set result = new HashSet();
                 for (Artifact artifact : (Set<Artifact>) artifacts) {
-                    if (! IsNotADependencyOfArtifactVisitor.isADependencyOf(warPackageMojo.getDependencyTreeRoot(), artifact, excludeDependenciesOfArtifactId)) {
+                    if (! index.isADependencyOfExcludedArtifact(artifact)) {
                         result.add(artifact);
+                    } else if (index.isInExcludedSubtree(artifact)) {
+                        getLog().debug("Excluding " + artifact + " - dependency of " + excludeDependenciesOfArtifactId);
+                    } else {
+                        getLog().debug("Excluding " + artifact + " - not part of the dependency tree");
                     }
                 }
                 return result;
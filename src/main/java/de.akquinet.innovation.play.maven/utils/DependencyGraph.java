@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.dependency.tree.DependencyNode;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The dependency tree of a project, resolved once per build and shared by the goals of the plugin executed on the
+ * project. The trees are recorded per project and per Maven session (as the commands of {@code Play2Batch}); the trees
+ * of the previous sessions are released when a new session starts.
+ * <p/>
+ * A recorded tree is only reused if the artifacts resolved by Maven for the project did not change, as the goals may
+ * require different resolution scopes.
+ */
+public class DependencyGraph {
+
+    private static final Map<String, DependencyGraph> GRAPHS = new HashMap<String, DependencyGraph>();
+
+    private final String session;
+    private final Set<String> artifacts;
+    private final DependencyNode root;
+    private final Map<String, DependencyIndex> indexes = new HashMap<String, DependencyIndex>();
+
+    private DependencyGraph(String session, Set<String> artifacts, DependencyNode root) {
+        this.session = session;
+        this.artifacts = artifacts;
+        this.root = root;
+    }
+
+    /**
+     * Gets the dependency tree recorded for the project during the current session.
+     *
+     * @param project the project
+     * @param session the session, <code>null</code> if unknown
+     * @return the graph, <code>null</code> if the tree was not resolved yet, or the resolved artifacts changed
+     */
+    public static synchronized DependencyGraph get(MavenProject project, MavenSession session) {
+        DependencyGraph graph = GRAPHS.get(getProjectKey(project));
+        if (graph == null || !graph.session.equals(getSessionKey(session))
+                || !graph.artifacts.equals(getArtifacts(project))) {
+            return null;
+        }
+        return graph;
+    }
+
+    /**
+     * Records the dependency tree of a project for the current session.
+     *
+     * @param project the project
+     * @param session the session, <code>null</code> if unknown
+     * @param root    the root of the dependency tree
+     * @return the recorded graph
+     */
+    public static synchronized DependencyGraph put(MavenProject project, MavenSession session, DependencyNode root) {
+        String sessionKey = getSessionKey(session);
+        for (Iterator<DependencyGraph> it = GRAPHS.values().iterator(); it.hasNext(); ) {
+            if (!it.next().session.equals(sessionKey)) {
+                it.remove();
+            }
+        }
+        DependencyGraph graph = new DependencyGraph(sessionKey, getArtifacts(project), root);
+        GRAPHS.put(getProjectKey(project), graph);
+        return graph;
+    }
+
+    /**
+     * @return the root of the dependency tree.
+     */
+    public DependencyNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Gets the index of the tree for the given excluded artifact, built on the first call.
+     *
+     * @param exclusionRootArtifactId the prefix of the artifact id of the excluded artifact
+     * @return the index
+     */
+    public synchronized DependencyIndex getIndex(String exclusionRootArtifactId) {
+        DependencyIndex index = indexes.get(exclusionRootArtifactId);
+        if (index == null) {
+            index = new DependencyIndex(root, exclusionRootArtifactId);
+            indexes.put(exclusionRootArtifactId, index);
+        }
+        return index;
+    }
+
+    private static String getProjectKey(MavenProject project) {
+        return project.getGroupId() + ":" + project.getArtifactId() + ":" + project.getVersion();
+    }
+
+    private static String getSessionKey(MavenSession session) {
+        if (session != null && session.getStartTime() != null) {
+            return String.valueOf(session.getStartTime().getTime());
+        }
+        return "";
+    }
+
+    private static Set<String> getArtifacts(MavenProject project) {
+        Set<String> ids = new TreeSet<String>();
+        if (project.getArtifacts() != null) {
+            for (Object artifact : project.getArtifacts()) {
+                ids.add(((Artifact) artifact).getId() + ":" + ((Artifact) artifact).getScope());
+            }
+        }
+        return ids;
+    }
+}
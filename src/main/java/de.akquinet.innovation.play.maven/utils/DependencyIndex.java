@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.shared.dependency.tree.DependencyNode;
+
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+
+/**
+ * Index of the artifacts of a dependency tree, split by an excluded artifact (such as <tt>play-test</tt>): the
+ * artifacts reachable from the root without going through the excluded artifact, and the artifacts below it. The tree
+ * is walked once, then checking whether an artifact is only a dependency of the excluded artifact is a lookup, giving
+ * the same answer as {@link IsNotADependencyOfArtifactVisitor#isADependencyOf(DependencyNode, Artifact, String)}.
+ * <p/>
+ * The artifacts are identified by their group id, artifact id, type and classifier, not by their version: the
+ * artifacts of the project and the ones of the tree may differ by the version (a resolved snapshot has a timestamped
+ * version), and an artifact omitted from the tree because of a version conflict is still needed by its parent.
+ */
+public class DependencyIndex {
+
+    private final String exclusionRootArtifactId;
+    private final Set<String> reachable = new HashSet<String>();
+    private final Set<String> excluded = new HashSet<String>();
+
+    /**
+     * Builds the index.
+     *
+     * @param treeRoot                the dependency tree
+     * @param exclusionRootArtifactId the prefix of the artifact id of the excluded artifact
+     */
+    public DependencyIndex(DependencyNode treeRoot, String exclusionRootArtifactId) {
+        this.exclusionRootArtifactId = exclusionRootArtifactId;
+        LinkedList<DependencyNode> nodes = new LinkedList<DependencyNode>();
+        nodes.add(treeRoot);
+        while (!nodes.isEmpty()) {
+            DependencyNode node = nodes.removeFirst();
+            reachable.add(getKey(node.getArtifact()));
+            if (isExcluded(node.getArtifact())) {
+                addSubtree(node, excluded);
+            } else {
+                addChildren(node, nodes);
+            }
+        }
+    }
+
+    /**
+     * Checks whether an artifact is the excluded artifact, or only one of its (potentially transitive) dependencies.
+     * The artifacts that are not part of the tree are considered as dependencies of the excluded artifact.
+     *
+     * @param artifact the artifact
+     * @return <code>true</code> if the artifact is the excluded artifact or a dependency of it, and is not pulled by
+     *         another artifact
+     */
+    public boolean isADependencyOfExcludedArtifact(Artifact artifact) {
+        return isExcluded(artifact) || !reachable.contains(getKey(artifact));
+    }
+
+    /**
+     * Checks whether an artifact is part of a subtree of the excluded artifact. It may also be pulled by other
+     * artifacts.
+     *
+     * @param artifact the artifact
+     * @return <code>true</code> if the artifact is the excluded artifact or one of its dependencies
+     */
+    public boolean isInExcludedSubtree(Artifact artifact) {
+        return excluded.contains(getKey(artifact));
+    }
+
+    private static String getKey(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getType() + ":"
+                + (artifact.getClassifier() != null ? artifact.getClassifier() : "");
+    }
+
+    private boolean isExcluded(Artifact artifact) {
+        return artifact.getArtifactId().startsWith(exclusionRootArtifactId);
+    }
+
+    private static void addSubtree(DependencyNode root, Set<String> artifacts) {
+        LinkedList<DependencyNode> nodes = new LinkedList<DependencyNode>();
+        nodes.add(root);
+        while (!nodes.isEmpty()) {
+            DependencyNode node = nodes.removeFirst();
+            artifacts.add(getKey(node.getArtifact()));
+            addChildren(node, nodes);
+        }
+    }
+
+    private static void addChildren(DependencyNode node, LinkedList<DependencyNode> nodes) {
+        if (node.getChildren() != null) {
+            for (Object child : node.getChildren()) {
+                nodes.add((DependencyNode) child);
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps a directory in sync with a set of files, incrementally. A manifest records the state of the source of each
+ * synchronized file; at the next synchronization, only the files whose source changed are written again, and the
+ * files that are not part of the directory anymore are deleted. The files not recorded in the manifest (created by
+ * another tool) are left untouched, unless they are replaced.
+ * <p/>
+ * Files are placed with {@link FilePlacement}: hard-linked when possible, copied otherwise. The synchronized files
+ * must then not be modified in place. They can be placed on several threads ({@link #setThreads(int)}).
+ */
+public class DirectorySync {
+
+    private final File directory;
+    private final File manifest;
+    private final Properties previous;
+    private final Properties current = new Properties();
+    private ParallelCopy copy = new ParallelCopy(1, true, null);
+    private int written;
+    private int unchanged;
+    private int deleted;
+
+    /**
+     * Starts a synchronization.
+     *
+     * @param directory the synchronized directory
+     * @param manifest  the manifest of the previous synchronization, rewritten by {@link #finish()}
+     * @throws IOException if the manifest cannot be read
+     */
+    public DirectorySync(File directory, File manifest) throws IOException {
+        this.directory = directory;
+        this.manifest = manifest;
+        this.previous = new Properties();
+        if (manifest.isFile() && directory.isDirectory()) {
+            InputStream in = new FileInputStream(manifest);
+            try {
+                previous.load(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Sets the number of threads placing the files, one by default. Must be called before adding files.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        copy = new ParallelCopy(threads, true, null);
+    }
+
+    /**
+     * Synchronizes a file, unless its source did not change (same path, size and modification time) and the target
+     * file still has the same size.
+     *
+     * @param path   the path of the file in the directory, with <tt>/</tt> separators
+     * @param source the source file
+     * @return <code>true</code> if the file is written
+     * @throws IOException if the file cannot be written
+     */
+    public boolean addFile(String path, File source) throws IOException {
+        String state = source.getAbsolutePath() + ":" + source.length() + ":" + source.lastModified();
+        File target = getTarget(path, state, source.length());
+        if (target == null) {
+            return false;
+        }
+        copy.copy(source, target, null);
+        return true;
+    }
+
+    /**
+     * Synchronizes the content of an archive, except its directory entries. The entries whose name, size, CRC and time
+     * did not change are not extracted again.
+     *
+     * @param archive the archive
+     * @param prefix  the prefix of the entries to extract, removed from their path (such as the root directory of the
+     *                archive), empty to extract all the entries
+     * @throws IOException if the archive cannot be read, or a file cannot be written
+     */
+    public void addArchive(File archive, String prefix) throws IOException {
+        List<ZipReader.Entry> entries;
+        ZipReader reader = new ZipReader(archive);
+        try {
+            entries = reader.getEntries();
+        } finally {
+            reader.close();
+        }
+
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (ZipReader.Entry entry : entries) {
+                if (entry.isDirectory() || !entry.getName().startsWith(prefix)
+                        || entry.getName().length() == prefix.length()) {
+                    continue;
+                }
+                String state = "zip:" + entry.getSize() + ":" + entry.getCrc() + ":" + entry.getTime() + ":"
+                        + entry.getUnixMode();
+                File target = getTarget(entry.getName().substring(prefix.length()), state, entry.getSize());
+                if (target != null) {
+                    extract(zip, entry, target);
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void extract(ZipFile zip, ZipReader.Entry entry, File target) throws IOException {
+        FileUtils.forceMkdir(target.getParentFile());
+        ZipEntry zipEntry = zip.getEntry(entry.getName());
+        InputStream in = zip.getInputStream(zipEntry);
+        try {
+            // Replace the file: it may be a hard link to another file.
+            if (target.exists() && !target.delete()) {
+                throw new IOException("Cannot delete " + target.getAbsolutePath());
+            }
+            OutputStream out = new FileOutputStream(target);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        target.setLastModified(entry.getTime());
+        if ((entry.getUnixMode() & 0100) != 0) {
+            target.setExecutable(true, false);
+        }
+    }
+
+    /**
+     * Records the state of a file, and checks whether it must be written.
+     *
+     * @return the target file if it must be written, <code>null</code> if it is up to date
+     */
+    private File getTarget(String path, String state, long size) {
+        File target = new File(directory, path);
+        current.setProperty(path, state);
+        if (state.equals(previous.getProperty(path)) && target.isFile() && target.length() == size) {
+            unchanged++;
+            return null;
+        }
+        written++;
+        return target;
+    }
+
+    /**
+     * Ends the synchronization: waits for the files being placed, deletes the files synchronized previously but not
+     * anymore, and the directories left empty, then writes the manifest.
+     *
+     * @throws IOException if a file cannot be deleted, or the manifest cannot be written
+     */
+    public void finish() throws IOException {
+        copy.finish();
+
+        List<String> stale = new ArrayList<String>();
+        for (Enumeration<?> names = previous.propertyNames(); names.hasMoreElements(); ) {
+            String path = (String) names.nextElement();
+            if (!current.containsKey(path)) {
+                stale.add(path);
+            }
+        }
+        // Children first, so the emptied directories can be deleted.
+        Collections.sort(stale, Collections.reverseOrder());
+        for (String path : stale) {
+            File file = new File(directory, path);
+            if (file.isFile() && !file.delete()) {
+                throw new IOException("Cannot delete " + file.getAbsolutePath());
+            }
+            deleted++;
+            File parent = file.getParentFile();
+            while (parent != null && !parent.equals(directory) && parent.delete()) {
+                // Deleted because empty.
+                parent = parent.getParentFile();
+            }
+        }
+
+        FileUtils.forceMkdir(directory);
+        FileUtils.forceMkdir(manifest.getAbsoluteFile().getParentFile());
+        OutputStream out = new FileOutputStream(manifest);
+        try {
+            current.store(out, "Play2 Maven Plugin - synchronized files of " + directory.getAbsolutePath());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the number of files written.
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    /**
+     * @return the number of files left untouched, as they did not change.
+     */
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    /**
+     * @return the number of files deleted, as they are not synchronized anymore.
+     */
+    public int getDeleted() {
+        return deleted;
+    }
+}
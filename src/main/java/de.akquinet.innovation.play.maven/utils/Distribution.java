@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.maven.artifact.Artifact;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Builds the layout of a Play distribution, as done by <tt>play dist</tt>: the application jar and its runtime
+ * dependencies in <tt>lib</tt>, and a <tt>start</tt> script launching the Netty server.
+ */
+public class Distribution {
+
+    /**
+     * The scopes of the artifacts embedded in the distribution. The Play runtime is generally a provided dependency.
+     */
+    private static final List<String> SCOPES = Arrays.asList(Artifact.SCOPE_COMPILE,
+            Artifact.SCOPE_RUNTIME, Artifact.SCOPE_PROVIDED);
+
+    private Distribution() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Selects the artifacts to embed in the distribution: the jars of the compile, runtime and provided scopes, except
+     * the excluded artifact (such as <tt>play-test</tt>) and the ones only pulled by it. The decision is taken from the
+     * dependency tree: an artifact pulled by both the excluded artifact and another one is embedded.
+     *
+     * @param artifacts the resolved artifacts of the project
+     * @param index     the index of the dependency tree of the project, for the excluded artifact
+     * @return the selected artifacts, sorted by library name
+     */
+    public static List<Artifact> getRuntimeArtifacts(Collection<Artifact> artifacts, DependencyIndex index) {
+        List<Artifact> selected = new ArrayList<Artifact>();
+        for (Artifact artifact : artifacts) {
+            if (!"jar".equals(artifact.getType()) || artifact.isOptional()
+                    || !SCOPES.contains(artifact.getScope()) || artifact.getFile() == null
+                    || index.isADependencyOfExcludedArtifact(artifact)) {
+                continue;
+            }
+            selected.add(artifact);
+        }
+        Collections.sort(selected, new Comparator<Artifact>() {
+            public int compare(Artifact a, Artifact b) {
+                return getLibraryName(a).compareTo(getLibraryName(b));
+            }
+        });
+        return selected;
+    }
+
+    /**
+     * Gets the name of the file of an artifact in the <tt>lib</tt> directory. Like <tt>play dist</tt>, the group id
+     * prefixes the name, avoiding collisions between artifacts with the same id. Snapshots keep the
+     * <tt>-SNAPSHOT</tt> version, not the timestamped one.
+     *
+     * @param artifact the artifact
+     * @return the file name
+     */
+    public static String getLibraryName(Artifact artifact) {
+        StringBuilder name = new StringBuilder();
+        name.append(artifact.getGroupId()).append('.').append(artifact.getArtifactId()).append('-')
+                .append(artifact.getBaseVersion());
+        if (artifact.getClassifier() != null && artifact.getClassifier().length() > 0) {
+            name.append('-').append(artifact.getClassifier());
+        }
+        return name.append(".jar").toString();
+    }
+
+    /**
+     * Lists the unmanaged jars of the application (in its <tt>lib</tt> directory), except the ones copied from the
+     * Maven dependencies (see the <tt>copy-dependencies</tt> goal), which are already embedded.
+     *
+     * @param lib       the <tt>lib</tt> directory of the application
+     * @param artifacts the embedded artifacts
+     * @return the unmanaged jars, sorted by name
+     */
+    public static List<File> getUnmanagedJars(File lib, Collection<Artifact> artifacts) {
+        List<File> jars = new ArrayList<File>();
+        File[] files = lib.listFiles();
+        if (files == null) {
+            return jars;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.isFile() || !file.getName().endsWith(".jar")) {
+                continue;
+            }
+            boolean managed = false;
+            for (Artifact artifact : artifacts) {
+                if (artifact.getFile() != null && artifact.getFile().getName().equals(file.getName())) {
+                    managed = true;
+                    break;
+                }
+            }
+            if (!managed) {
+                jars.add(file);
+            }
+        }
+        return jars;
+    }
+
+    /**
+     * Creates the <tt>start</tt> script of the distribution, as written by <tt>play dist</tt>.
+     *
+     * @param libraries the file names of the jars, in the classpath order
+     * @return the script
+     */
+    public static String getStartScript(List<String> libraries) {
+        StringBuilder classpath = new StringBuilder();
+        for (String library : libraries) {
+            if (classpath.length() > 0) {
+                classpath.append(':');
+            }
+            classpath.append("$scriptdir/lib/").append(library);
+        }
+        return "#!/usr/bin/env sh\n"
+                + "\n"
+                + "scriptdir=`dirname $0`\n"
+                + "classpath=\"" + classpath + "\"\n"
+                + "exec java $* -cp \"$classpath\" play.core.server.NettyServer \"$scriptdir\"\n";
+    }
+
+    /**
+     * Gets the root directory of a distribution zip: the directory containing the <tt>start</tt> script.
+     *
+     * @param dist the distribution
+     * @return the name of the root directory
+     * @throws IOException if the distribution cannot be read, or does not contain a start script
+     */
+    public static String getRootDirectory(File dist) throws IOException {
+        ZipReader reader = new ZipReader(dist);
+        try {
+            for (ZipReader.Entry entry : reader.getEntries()) {
+                String name = entry.getName();
+                if (name.endsWith("/start") && name.indexOf('/') == name.length() - "/start".length()) {
+                    return name.substring(0, name.indexOf('/'));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        throw new IOException("Cannot find the start script in the distribution " + dist.getAbsolutePath());
+    }
+}
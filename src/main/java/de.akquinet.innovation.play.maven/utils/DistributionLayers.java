@@ -0,0 +1,342 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
+
+/**
+ * Splits a distribution in layers, written as tar archives: the third-party release dependencies, the snapshot
+ * dependencies, and the application (its jar, the start script, the configuration...). The layers change at
+ * different rates, so a container image built from them only rebuilds and pushes the changed ones.
+ * <p/>
+ * The layers are reproducible: the entries are sorted, owned by <tt>root</tt>, and have a fixed time. Each layer has
+ * a SHA-256 digest, written next to it (<tt>layer.tar.sha256</tt>, in the <tt>sha256sum</tt> format). A layer whose
+ * digest has not changed is not replaced, so its file keeps its modification time.
+ * <p/>
+ * When a cache file is given, the entries of each layer (names, checksums, sizes and permissions, as listed by the
+ * central directory of the distribution) are recorded with the digest of the layer. A layer whose entries did not
+ * change is neither written nor hashed again.
+ */
+public class DistributionLayers {
+
+    public static final String DEPENDENCIES = "dependencies";
+    public static final String SNAPSHOT_DEPENDENCIES = "snapshot-dependencies";
+    public static final String APPLICATION = "application";
+
+    /**
+     * The layers, from the most stable to the most volatile.
+     */
+    public static final List<String> LAYERS = Arrays.asList(DEPENDENCIES, SNAPSHOT_DEPENDENCIES, APPLICATION);
+
+    /**
+     * A timestamped snapshot, such as <tt>lib-1.0-20130101.123456-1.jar</tt>.
+     */
+    private static final Pattern TIMESTAMPED_SNAPSHOT = Pattern.compile(".*-[0-9]{8}\\.[0-9]{6}-[0-9]+(-[^/]+)?\\.jar");
+
+    /**
+     * A layer written on disk.
+     */
+    public static class Layer {
+        private final String name;
+        private final File file;
+        private final String digest;
+        private final boolean changed;
+
+        Layer(String name, File file, String digest, boolean changed) {
+            this.name = name;
+            this.file = file;
+            this.digest = digest;
+            this.changed = changed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the SHA-256 digest of the tar archive, in hexadecimal.
+         */
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         * @return <code>true</code> if the layer was written, <code>false</code> if its content had not changed.
+         */
+        public boolean isChanged() {
+            return changed;
+        }
+    }
+
+    private DistributionLayers() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Gets the layer of an entry of the distribution.
+     *
+     * @param entry           the entry
+     * @param applicationCrc  the checksum of the application jar
+     * @param applicationSize the size of the application jar
+     * @return the layer
+     */
+    static String getLayer(ZipReader.Entry entry, long applicationCrc, long applicationSize) {
+        String name = entry.getName();
+        if (!name.endsWith(".jar") || !name.contains("/lib/")
+                || (entry.getCrc() == applicationCrc && entry.getSize() == applicationSize)) {
+            return APPLICATION;
+        }
+        if (name.contains("-SNAPSHOT") || TIMESTAMPED_SNAPSHOT.matcher(name).matches()) {
+            return SNAPSHOT_DEPENDENCIES;
+        }
+        return DEPENDENCIES;
+    }
+
+    /**
+     * Writes the layers of a distribution, without cache. Empty layers are not written.
+     *
+     * @param distribution the distribution zip
+     * @param application  the application jar, identified in the distribution by its checksum
+     * @param directory    the output directory
+     * @param baseName     the base name of the layers, the layer name and <tt>.tar</tt> are appended
+     * @param time         the time of the entries (in milliseconds)
+     * @return the layers, from the most stable to the most volatile
+     * @throws IOException if the distribution cannot be read, or a layer cannot be written
+     */
+    public static List<Layer> write(File distribution, File application, File directory, String baseName,
+                                    long time) throws IOException {
+        return write(distribution, application, directory, baseName, time, null);
+    }
+
+    /**
+     * Writes the layers of a distribution. Empty layers are not written.
+     *
+     * @param distribution the distribution zip
+     * @param application  the application jar, identified in the distribution by its checksum
+     * @param directory    the output directory
+     * @param baseName     the base name of the layers, the layer name and <tt>.tar</tt> are appended
+     * @param time         the time of the entries (in milliseconds)
+     * @param cache        the file recording the entries and digests of the layers, <code>null</code> to always write
+     *                     and hash the layers
+     * @return the layers, from the most stable to the most volatile
+     * @throws IOException if the distribution cannot be read, or a layer cannot be written
+     */
+    public static List<Layer> write(File distribution, File application, File directory, String baseName,
+                                    long time, File cache) throws IOException {
+        long applicationCrc = FileUtils.checksumCRC32(application);
+        Map<String, Map<String, ZipReader.Entry>> layers = new LinkedHashMap<String, Map<String, ZipReader.Entry>>();
+        for (String layer : LAYERS) {
+            layers.put(layer, new TreeMap<String, ZipReader.Entry>());
+        }
+
+        ZipReader reader = new ZipReader(distribution);
+        try {
+            for (ZipReader.Entry entry : reader.getEntries()) {
+                if (!entry.isDirectory()) {
+                    layers.get(getLayer(entry, applicationCrc, application.length())).put(entry.getName(), entry);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Properties cached = loadCache(cache);
+        Properties updated = new Properties();
+        List<Layer> result = new ArrayList<Layer>();
+        ZipFile zip = null;
+        try {
+            for (Map.Entry<String, Map<String, ZipReader.Entry>> layer : layers.entrySet()) {
+                if (layer.getValue().isEmpty()) {
+                    continue;
+                }
+                File file = new File(directory, baseName + "-" + layer.getKey() + ".tar");
+                String key = getKey(file, layer.getValue(), time);
+                Layer written = getCachedLayer(layer.getKey(), file, key, cached);
+                if (written == null) {
+                    if (zip == null) {
+                        zip = new ZipFile(distribution);
+                    }
+                    written = writeLayer(layer.getKey(), zip, layer.getValue(), file, time);
+                }
+                updated.setProperty(layer.getKey() + ".key", key);
+                updated.setProperty(layer.getKey() + ".digest", written.getDigest());
+                updated.setProperty(layer.getKey() + ".size", Long.toString(file.length()));
+                result.add(written);
+            }
+        } finally {
+            if (zip != null) {
+                zip.close();
+            }
+        }
+        if (cache != null) {
+            storeCache(cache, updated);
+        }
+        return result;
+    }
+
+    /**
+     * Computes the key of a layer: a hash of its location, its time and the description of its entries.
+     */
+    static String getKey(File file, Map<String, ZipReader.Entry> entries, long time) {
+        StringBuilder description = new StringBuilder(file.getAbsolutePath()).append('\n').append(time).append('\n');
+        for (ZipReader.Entry entry : entries.values()) {
+            description.append(entry.getName()).append(':').append(entry.getCrc()).append(':')
+                    .append(entry.getSize()).append(':').append(getMode(entry)).append('\n');
+        }
+        return Fingerprint.sha1(description.toString());
+    }
+
+    /**
+     * Gets a layer from the cache, if its entries did not change and its files were not modified since.
+     *
+     * @return the layer, <code>null</code> if it must be written
+     */
+    private static Layer getCachedLayer(String name, File file, String key, Properties cache) throws IOException {
+        String digest = cache.getProperty(name + ".digest");
+        if (!key.equals(cache.getProperty(name + ".key")) || digest == null
+                || !Long.toString(file.length()).equals(cache.getProperty(name + ".size"))
+                || !isUpToDate(file, digest)) {
+            return null;
+        }
+        return new Layer(name, file, digest, false);
+    }
+
+    /**
+     * Checks whether a layer has the given digest, according to its digest file. The layer must not have been modified
+     * after its digest file.
+     */
+    private static boolean isUpToDate(File file, String digest) throws IOException {
+        File digestFile = new File(file.getAbsolutePath() + ".sha256");
+        return file.isFile() && digestFile.isFile() && file.lastModified() <= digestFile.lastModified()
+                && FileUtils.readFileToString(digestFile).startsWith(digest + " ");
+    }
+
+    private static Properties loadCache(File cache) throws IOException {
+        Properties properties = new Properties();
+        if (cache != null && cache.isFile()) {
+            InputStream in = new FileInputStream(cache);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return properties;
+    }
+
+    private static void storeCache(File cache, Properties properties) throws IOException {
+        FileUtils.forceMkdir(cache.getAbsoluteFile().getParentFile());
+        OutputStream out = new FileOutputStream(cache);
+        try {
+            properties.store(out, "Play2 Maven Plugin - distribution layers");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Layer writeLayer(String name, ZipFile zip, Map<String, ZipReader.Entry> entries, File file,
+                                    long time) throws IOException {
+        // Parents first: the directories are sorted with the files.
+        Map<String, ZipReader.Entry> sorted = new TreeMap<String, ZipReader.Entry>(entries);
+        for (String entry : entries.keySet()) {
+            for (int i = entry.indexOf('/'); i != -1; i = entry.indexOf('/', i + 1)) {
+                if (!sorted.containsKey(entry.substring(0, i + 1))) {
+                    sorted.put(entry.substring(0, i + 1), null);
+                }
+            }
+        }
+
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        MessageDigest digest = newDigest();
+        TarWriter writer = new TarWriter(new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)),
+                digest));
+        try {
+            for (Map.Entry<String, ZipReader.Entry> entry : sorted.entrySet()) {
+                if (entry.getValue() == null) {
+                    writer.addDirectory(entry.getKey(), TarWriter.DIRECTORY_MODE, time);
+                    continue;
+                }
+                InputStream in = zip.getInputStream(zip.getEntry(entry.getKey()));
+                try {
+                    writer.addEntry(entry.getKey(), getMode(entry.getValue()), time, entry.getValue().getSize(), in);
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            writer.close();
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        }
+        writer.close();
+
+        String hex = Fingerprint.toHex(digest.digest());
+        File digestFile = new File(file.getAbsolutePath() + ".sha256");
+        if (file.length() == tmp.length() && isUpToDate(file, hex)) {
+            FileUtils.deleteQuietly(tmp);
+            return new Layer(name, file, hex, false);
+        }
+        if ((file.exists() && !file.delete()) || !tmp.renameTo(file)) {
+            throw new IOException("Cannot replace " + file.getAbsolutePath() + " by " + tmp.getAbsolutePath());
+        }
+        FileUtils.writeStringToFile(digestFile, hex + "  " + file.getName() + "\n");
+        return new Layer(name, file, hex, true);
+    }
+
+    /**
+     * Gets the permissions of an entry: the Unix permissions if the archive recorded them, otherwise the start script
+     * is executable.
+     */
+    static int getMode(ZipReader.Entry entry) {
+        int mode = entry.getUnixMode() & 07777;
+        if (mode != 0) {
+            return mode;
+        }
+        return entry.getName().endsWith("/start") ? TarWriter.EXECUTABLE_MODE : TarWriter.FILE_MODE;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+/**
+ * Writes the distribution as a tar archive, optionally compressed with gzip. Unlike the zip created by
+ * <tt>play dist</tt>, a tar archive keeps the Unix permissions once extracted by the standard tools, so the start
+ * script remains executable.
+ */
+public class DistributionTar {
+
+    private DistributionTar() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Writes the content of the distribution zip as a tar archive, in the same order. The permissions recorded in the
+     * zip are kept; without permissions, the <tt>start</tt> script is made executable.
+     *
+     * @param distribution the distribution zip
+     * @param out          the stream receiving the tar archive, closed once written
+     * @param time         the time of the entries (in milliseconds), <tt>-1</tt> to keep the times of the zip
+     * @throws IOException if the distribution cannot be read, or the archive cannot be written
+     */
+    public static void write(File distribution, OutputStream out, long time) throws IOException {
+        List<ZipReader.Entry> entries;
+        ZipReader reader = new ZipReader(distribution);
+        try {
+            entries = reader.getEntries();
+        } finally {
+            reader.close();
+        }
+
+        TarWriter writer = new TarWriter(out);
+        try {
+            ZipFile zip = new ZipFile(distribution);
+            try {
+                for (ZipReader.Entry entry : entries) {
+                    long entryTime = time != -1 ? time : entry.getTime();
+                    if (entry.isDirectory()) {
+                        writer.addDirectory(entry.getName(), TarWriter.DIRECTORY_MODE, entryTime);
+                        continue;
+                    }
+                    InputStream in = zip.getInputStream(zip.getEntry(entry.getName()));
+                    try {
+                        writer.addEntry(entry.getName(), DistributionLayers.getMode(entry), entryTime,
+                                entry.getSize(), in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the distribution as a gzip-compressed tar archive, compressed on several threads (see
+     * {@link ParallelGzipOutputStream}).
+     *
+     * @param distribution the distribution zip
+     * @param target       the <tt>.tar.gz</tt> file
+     * @param level        the compression level, from 1 to 9
+     * @param threads      the number of compression threads
+     * @param time         the time of the entries (in milliseconds), <tt>-1</tt> to keep the times of the zip
+     * @throws IOException if the distribution cannot be read, or the archive cannot be written
+     */
+    public static void writeGzip(File distribution, File target, int level, int threads, long time)
+            throws IOException {
+        FileUtils.forceMkdir(target.getAbsoluteFile().getParentFile());
+        try {
+            write(distribution, new ParallelGzipOutputStream(new BufferedOutputStream(new FileOutputStream(target)),
+                    level, threads), time);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(target);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+
+/**
+ * Places a file at another location, avoiding to copy the bytes when possible. The following methods are tried in
+ * this order:
+ * <ol>
+ * <li>an atomic move (rename), if the source file is not needed anymore</li>
+ * <li>a hard link, if the running JVM supports it (Java 7+) and both files are on the same file system</li>
+ * <li>a copy using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, letting the
+ * operating system copy the data without going through the JVM heap</li>
+ * <li>a plain stream copy</li>
+ * </ol>
+ * A hard-linked file shares its content with the source: the source must not be modified in place afterwards
+ * (replacing it, as the build tools do, is fine).
+ */
+public class FilePlacement {
+
+    /**
+     * The strategy used to place a file.
+     */
+    public static enum Strategy {
+        MOVE, LINK, TRANSFER, COPY
+    }
+
+    private static final Method CREATE_LINK;
+    private static final Method TO_PATH;
+
+    static {
+        Method createLink = null;
+        Method toPath = null;
+        try {
+            Class<?> path = Class.forName("java.nio.file.Path");
+            Class<?> files = Class.forName("java.nio.file.Files");
+            createLink = files.getMethod("createLink", path, path);
+            toPath = File.class.getMethod("toPath");
+        } catch (Exception e) {
+            // Java 6, hard links are not supported.
+        }
+        CREATE_LINK = createLink;
+        TO_PATH = toPath;
+    }
+
+    private FilePlacement() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Places a file. An existing target file is replaced.
+     *
+     * @param source    the source file
+     * @param target    the target file
+     * @param canMove   whether the source file can be moved, i.e. it is not needed anymore
+     * @return the strategy used to place the file
+     * @throws IOException if the file cannot be placed
+     */
+    public static Strategy place(File source, File target, boolean canMove) throws IOException {
+        return place(source, target, canMove, true);
+    }
+
+    /**
+     * Places a file. An existing target file is replaced.
+     *
+     * @param source    the source file
+     * @param target    the target file
+     * @param canMove   whether the source file can be moved, i.e. it is not needed anymore
+     * @param canLink   whether the target file can be a hard link to the source file
+     * @return the strategy used to place the file
+     * @throws IOException if the file cannot be placed
+     */
+    public static Strategy place(File source, File target, boolean canMove, boolean canLink) throws IOException {
+        if (!source.isFile()) {
+            throw new IOException("Cannot place " + source.getAbsolutePath() + " - the file does not exist");
+        }
+        if (source.getCanonicalFile().equals(target.getCanonicalFile())) {
+            throw new IOException("Cannot place " + source.getAbsolutePath() + " on itself");
+        }
+        FileUtils.forceMkdir(target.getAbsoluteFile().getParentFile());
+        if (target.exists() && !target.delete()) {
+            throw new IOException("Cannot delete " + target.getAbsolutePath());
+        }
+
+        if (canMove && source.renameTo(target)) {
+            return Strategy.MOVE;
+        }
+        if (canLink && link(source, target)) {
+            return Strategy.LINK;
+        }
+        try {
+            transfer(source, target);
+            return Strategy.TRANSFER;
+        } catch (IOException e) {
+            // Some file systems do not support transferTo, fall back to a plain copy.
+            FileUtils.deleteQuietly(target);
+        }
+        FileUtils.copyFile(source, target, true);
+        return Strategy.COPY;
+    }
+
+    /**
+     * Creates a hard link, using <tt>java.nio.file.Files.createLink</tt> when available.
+     *
+     * @return <code>true</code> if the link was created
+     */
+    static boolean link(File source, File target) {
+        if (CREATE_LINK == null) {
+            return false;
+        }
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(target), TO_PATH.invoke(source));
+            return true;
+        } catch (Exception e) {
+            // Not supported by the file system, different file systems, no permission...
+            return false;
+        }
+    }
+
+    private static void transfer(File source, File target) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileOutputStream out = new FileOutputStream(target);
+            try {
+                FileChannel input = in.getChannel();
+                FileChannel output = out.getChannel();
+                long size = input.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = input.transferTo(position, size - position, output);
+                    if (transferred <= 0) {
+                        throw new IOException("Cannot transfer " + source.getAbsolutePath());
+                    }
+                    position += transferred;
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        target.setLastModified(source.lastModified());
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A fingerprint of a set of inputs (files, directories and values).
+ * Each input is recorded with a SHA-1 hash of its content, so the fingerprint can be stored (as a manifest) and
+ * compared to the fingerprint of a later build without exposing the values themselves.
+ * <p/>
+ * Hidden files and <tt>target</tt> directories are ignored when fingerprinting directories.
+ */
+public class Fingerprint {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SortedMap<String, String> entries = new TreeMap<String, String>();
+
+    /**
+     * Adds a value to the fingerprint.
+     *
+     * @param name  the name of the input
+     * @param value the value, may be <code>null</code>
+     * @return the current fingerprint
+     */
+    public Fingerprint add(String name, String value) {
+        entries.put(name, value == null ? "null" : sha1(value));
+        return this;
+    }
+
+    /**
+     * Adds a set of values to the fingerprint.
+     *
+     * @param prefix the prefix of the name of the inputs
+     * @param values the values
+     * @return the current fingerprint
+     */
+    public Fingerprint addAll(String prefix, Map<String, String> values) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            add(prefix + entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * Adds the content of a file to the fingerprint. Missing files are recorded as missing.
+     *
+     * @param name the name of the input
+     * @param file the file
+     * @return the current fingerprint
+     * @throws IOException if the file cannot be read
+     */
+    public Fingerprint addFile(String name, File file) throws IOException {
+        if (file.isFile()) {
+            entries.put(name, sha1(file));
+        } else {
+            entries.put(name, "missing");
+        }
+        return this;
+    }
+
+    /**
+     * Adds the content of a directory (recursively) to the fingerprint. Each file is recorded using its path relative
+     * to the given directory, prefixed by the given name. A missing directory adds nothing.
+     *
+     * @param name      the name of the input
+     * @param directory the directory
+     * @return the current fingerprint
+     * @throws IOException if a file cannot be read
+     */
+    public Fingerprint addDirectory(String name, File directory) throws IOException {
+        if (directory.isDirectory()) {
+            addDirectory(name, directory, "");
+        }
+        return this;
+    }
+
+    private void addDirectory(String name, File directory, String path) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.getName().startsWith(".")) {
+                continue;
+            }
+            if (file.isDirectory()) {
+                if (!"target".equals(file.getName())) {
+                    addDirectory(name, file, path + file.getName() + "/");
+                }
+            } else {
+                entries.put(name + "/" + path + file.getName(), sha1(file));
+            }
+        }
+    }
+
+    /**
+     * @return the recorded inputs and their hashes, sorted by name.
+     */
+    public Map<String, String> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * @return the hash of the whole fingerprint.
+     */
+    public String getDigest() {
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            update(digest, entry.getKey());
+            update(digest, "=");
+            update(digest, entry.getValue());
+            update(digest, "\n");
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the names of the inputs that differ between this fingerprint and the given one.
+     *
+     * @param other the other fingerprint, may be <code>null</code>
+     * @return the sorted names of the added, removed and modified inputs
+     */
+    public List<String> diff(Fingerprint other) {
+        if (other == null) {
+            return new ArrayList<String>(entries.keySet());
+        }
+        TreeSet<String> names = new TreeSet<String>(entries.keySet());
+        names.addAll(other.entries.keySet());
+        List<String> changes = new ArrayList<String>();
+        for (String name : names) {
+            String value = entries.get(name);
+            if (value == null || !value.equals(other.entries.get(name))) {
+                changes.add(name);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Checks whether the given fingerprint has the same inputs as this one.
+     *
+     * @param other the other fingerprint, may be <code>null</code>
+     * @return <code>true</code> if both fingerprints are equal
+     */
+    public boolean matches(Fingerprint other) {
+        return other != null && entries.equals(other.entries);
+    }
+
+    /**
+     * Stores the fingerprint in the given file (properties format).
+     *
+     * @param file the file, its parent directory is created if needed
+     * @throws IOException if the file cannot be written
+     */
+    public void store(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        Properties properties = new Properties();
+        properties.putAll(entries);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "Play2 Maven Plugin fingerprint - " + getDigest());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Loads a fingerprint stored with {@link #store(java.io.File)}.
+     *
+     * @param file the file
+     * @return the fingerprint, <code>null</code> if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static Fingerprint load(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        Fingerprint fingerprint = new Fingerprint();
+        for (String name : properties.stringPropertyNames()) {
+            fingerprint.entries.put(name, properties.getProperty(name));
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Computes the SHA-1 hash of a file.
+     *
+     * @param file the file
+     * @return the hexadecimal hash
+     * @throws IOException if the file cannot be read
+     */
+    public static String sha1(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Computes the SHA-1 hash of a string (UTF-8).
+     *
+     * @param value the value
+     * @return the hexadecimal hash
+     */
+    public static String sha1(String value) {
+        MessageDigest digest = newDigest();
+        update(digest, value);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Converts bytes to their hexadecimal representation.
+     *
+     * @param bytes the bytes
+     * @return the hexadecimal string
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        try {
+            digest.update(value.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported", e);
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Builds a container image in the OCI image layout, written as a tar archive, without any container runtime.
+ * <p/>
+ * The image is made of the layers of an optional base image (read from an OCI image layout directory, such as the
+ * ones written by <tt>skopeo copy docker://image oci:directory</tt>), followed by the layers of the distribution (see
+ * {@link DistributionLayers}). The layers of the distribution are uncompressed tar archives whose digest is already
+ * known, so they are copied in the image without being hashed again. Only the configuration and the manifest, a few
+ * hundred bytes, are computed.
+ * <p/>
+ * The archive also contains a <tt>manifest.json</tt> file, so it can be loaded with <tt>docker load</tt>.
+ */
+public class OciImage {
+
+    public static final String INDEX_MEDIA_TYPE = "application/vnd.oci.image.index.v1+json";
+    public static final String MANIFEST_MEDIA_TYPE = "application/vnd.oci.image.manifest.v1+json";
+    public static final String CONFIG_MEDIA_TYPE = "application/vnd.oci.image.config.v1+json";
+    public static final String LAYER_MEDIA_TYPE = "application/vnd.oci.image.layer.v1.tar";
+
+    /**
+     * The media types of the Docker manifests and manifest lists, found in base images copied from a Docker
+     * registry.
+     */
+    private static final List<String> MANIFEST_MEDIA_TYPES = Arrays.asList(MANIFEST_MEDIA_TYPE,
+            "application/vnd.docker.distribution.manifest.v2+json");
+    private static final List<String> INDEX_MEDIA_TYPES = Arrays.asList(INDEX_MEDIA_TYPE,
+            "application/vnd.docker.distribution.manifest.list.v2+json");
+
+    private static final String REF_NAME = "org.opencontainers.image.ref.name";
+
+    /**
+     * A blob of the image: its descriptor, and the file or data holding its content.
+     */
+    private static class Blob {
+        final String mediaType;
+        final String digest;
+        final long size;
+        final File file;
+        final byte[] data;
+
+        Blob(String mediaType, String digest, long size, File file) {
+            this.mediaType = mediaType;
+            this.digest = digest;
+            this.size = size;
+            this.file = file;
+            this.data = null;
+        }
+
+        Blob(String mediaType, byte[] data) {
+            this.mediaType = mediaType;
+            this.digest = "sha256:" + sha256(data);
+            this.size = data.length;
+            this.file = null;
+            this.data = data;
+        }
+
+        Map<String, Object> getDescriptor() {
+            Map<String, Object> descriptor = new LinkedHashMap<String, Object>();
+            descriptor.put("mediaType", mediaType);
+            descriptor.put("digest", digest);
+            descriptor.put("size", size);
+            return descriptor;
+        }
+
+        String getPath() {
+            return "blobs/" + digest.replace(':', '/');
+        }
+    }
+
+    private final String name;
+    private final String tag;
+    private final List<Blob> layers = new ArrayList<Blob>();
+    private final List<Object> diffIds = new ArrayList<Object>();
+    private final List<Object> history = new ArrayList<Object>();
+    private final List<String> layerNames = new ArrayList<String>();
+    private Map<String, Object> config = new LinkedHashMap<String, Object>();
+    private String architecture = "amd64";
+    private String os = "linux";
+    private long created;
+
+    /**
+     * Creates an image without base image.
+     *
+     * @param name the name of the image (repository), such as <tt>acme/application</tt>
+     * @param tag  the tag of the image
+     */
+    public OciImage(String name, String tag) {
+        this.name = name;
+        this.tag = tag;
+    }
+
+    /**
+     * Sets the architecture of the image, when there is no base image. The distribution only contains Java code, but
+     * the runtimes check the architecture of the images they run.
+     *
+     * @param architecture the architecture, in the Go format (<tt>amd64</tt>, <tt>arm64</tt>...)
+     */
+    public void setArchitecture(String architecture) {
+        this.architecture = architecture;
+    }
+
+    /**
+     * Sets the creation time of the image, <tt>0</tt> (the epoch) by default, so the image only depends on its
+     * content.
+     *
+     * @param created the time (in milliseconds)
+     */
+    public void setCreated(long created) {
+        this.created = created;
+    }
+
+    /**
+     * Uses an image as base, before adding the layers of the distribution. Its layers come first, and its
+     * configuration (environment, user...) is kept. When the layout contains several images (such as a
+     * multi-platform image), the one matching the architecture is selected.
+     *
+     * @param layout the directory containing the OCI image layout of the base image
+     * @throws IOException if the layout cannot be read, or does not contain an image for the architecture
+     */
+    @SuppressWarnings("unchecked")
+    public void setBase(File layout) throws IOException {
+        if (!new File(layout, "oci-layout").isFile()) {
+            throw new IOException(layout.getAbsolutePath() + " is not an OCI image layout - the oci-layout file is "
+                    + "missing");
+        }
+        Map<String, Object> manifest = findManifest(layout, (Map<String, Object>) readJson(new File(layout,
+                "index.json")));
+        if (manifest == null) {
+            throw new IOException("Cannot find an image for the " + architecture + " architecture in "
+                    + layout.getAbsolutePath());
+        }
+        Map<String, Object> base = (Map<String, Object>) readJson(getBlobFile(layout,
+                (Map<String, Object>) manifest.get("config")));
+
+        layers.clear();
+        diffIds.clear();
+        history.clear();
+        layerNames.clear();
+        for (Map<String, Object> layer : (List<Map<String, Object>>) manifest.get("layers")) {
+            File file = getBlobFile(layout, layer);
+            layers.add(new Blob((String) layer.get("mediaType"), (String) layer.get("digest"), file.length(), file));
+        }
+        Map<String, Object> rootfs = (Map<String, Object>) base.get("rootfs");
+        if (rootfs != null && rootfs.get("diff_ids") != null) {
+            diffIds.addAll((List<Object>) rootfs.get("diff_ids"));
+        }
+        if (diffIds.size() != layers.size()) {
+            throw new IOException("Invalid base image in " + layout.getAbsolutePath() + " - the configuration "
+                    + "describes " + diffIds.size() + " layers, the manifest " + layers.size());
+        }
+        if (base.get("history") != null) {
+            history.addAll((List<Object>) base.get("history"));
+        }
+        if (base.get("config") != null) {
+            config = (Map<String, Object>) base.get("config");
+        }
+        if (base.get("architecture") != null) {
+            architecture = (String) base.get("architecture");
+        }
+        if (base.get("os") != null) {
+            os = (String) base.get("os");
+        }
+    }
+
+    /**
+     * Finds the manifest of the image for the architecture in an index, looking into the nested indexes.
+     *
+     * @return the manifest, <code>null</code> if not found
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> findManifest(File layout, Map<String, Object> index) throws IOException {
+        for (Map<String, Object> descriptor : (List<Map<String, Object>>) index.get("manifests")) {
+            Map<String, Object> platform = (Map<String, Object>) descriptor.get("platform");
+            if (platform != null && (!architecture.equals(platform.get("architecture"))
+                    || !"linux".equals(platform.get("os")))) {
+                continue;
+            }
+            if (MANIFEST_MEDIA_TYPES.contains(descriptor.get("mediaType"))) {
+                return (Map<String, Object>) readJson(getBlobFile(layout, descriptor));
+            }
+            if (INDEX_MEDIA_TYPES.contains(descriptor.get("mediaType"))) {
+                Map<String, Object> manifest = findManifest(layout,
+                        (Map<String, Object>) readJson(getBlobFile(layout, descriptor)));
+                if (manifest != null) {
+                    return manifest;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static File getBlobFile(File layout, Map<String, Object> descriptor) throws IOException {
+        String digest = (String) descriptor.get("digest");
+        File file = new File(layout, "blobs/" + digest.replace(':', '/'));
+        if (!file.isFile()) {
+            throw new IOException("The blob " + digest + " is missing in " + layout.getAbsolutePath());
+        }
+        return file;
+    }
+
+    private static Object readJson(File file) throws IOException {
+        try {
+            return Json.parse(FileUtils.readFileToString(file, "UTF-8"));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid JSON document " + file.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds a layer of the distribution.
+     *
+     * @param layer the layer
+     */
+    public void addLayer(DistributionLayers.Layer layer) {
+        Blob blob = new Blob(LAYER_MEDIA_TYPE, "sha256:" + layer.getDigest(), layer.getFile().length(),
+                layer.getFile());
+        layers.add(blob);
+        // The layer is not compressed: its digest is the digest of its content.
+        diffIds.add(blob.digest);
+        layerNames.add(layer.getName());
+    }
+
+    /**
+     * Sets the command run by the container, replacing the entry point and the command of the base image.
+     *
+     * @param entrypoint the command and its arguments
+     */
+    public void setEntrypoint(List<String> entrypoint) {
+        config.put("Entrypoint", new ArrayList<Object>(entrypoint));
+        config.remove("Cmd");
+    }
+
+    /**
+     * Sets the working directory of the container.
+     *
+     * @param directory the absolute path of the directory
+     */
+    public void setWorkingDirectory(String directory) {
+        config.put("WorkingDir", directory);
+    }
+
+    /**
+     * Sets an environment variable, replacing the value of the base image.
+     *
+     * @param variable the variable
+     * @param value    the value
+     */
+    @SuppressWarnings("unchecked")
+    public void setEnvironment(String variable, String value) {
+        List<Object> environment = new ArrayList<Object>();
+        if (config.get("Env") != null) {
+            for (Object definition : (List<Object>) config.get("Env")) {
+                if (!String.valueOf(definition).startsWith(variable + "=")) {
+                    environment.add(definition);
+                }
+            }
+        }
+        environment.add(variable + "=" + value);
+        config.put("Env", environment);
+    }
+
+    /**
+     * Declares a port listened by the application.
+     *
+     * @param port the port, such as <tt>9000</tt> or <tt>9000/tcp</tt>
+     */
+    @SuppressWarnings("unchecked")
+    public void addExposedPort(String port) {
+        Map<String, Object> ports = (Map<String, Object>) config.get("ExposedPorts");
+        if (ports == null) {
+            ports = new LinkedHashMap<String, Object>();
+            config.put("ExposedPorts", ports);
+        }
+        ports.put(port.contains("/") ? port : port + "/tcp", new LinkedHashMap<String, Object>());
+    }
+
+    private Blob getConfiguration() {
+        Map<String, Object> configuration = new LinkedHashMap<String, Object>();
+        configuration.put("created", formatTime(created));
+        configuration.put("architecture", architecture);
+        configuration.put("os", os);
+        configuration.put("config", config);
+        Map<String, Object> rootfs = new LinkedHashMap<String, Object>();
+        rootfs.put("type", "layers");
+        rootfs.put("diff_ids", diffIds);
+        configuration.put("rootfs", rootfs);
+        List<Object> steps = new ArrayList<Object>(history);
+        for (String layer : layerNames) {
+            Map<String, Object> step = new LinkedHashMap<String, Object>();
+            step.put("created", formatTime(created));
+            step.put("created_by", "play2:image " + layer);
+            steps.add(step);
+        }
+        configuration.put("history", steps);
+        return new Blob(CONFIG_MEDIA_TYPE, utf8(Json.write(configuration)));
+    }
+
+    private Blob getManifest(Blob configuration) {
+        Map<String, Object> manifest = new LinkedHashMap<String, Object>();
+        manifest.put("schemaVersion", 2);
+        manifest.put("mediaType", MANIFEST_MEDIA_TYPE);
+        manifest.put("config", configuration.getDescriptor());
+        List<Object> descriptors = new ArrayList<Object>();
+        for (Blob layer : layers) {
+            descriptors.add(layer.getDescriptor());
+        }
+        manifest.put("layers", descriptors);
+        return new Blob(MANIFEST_MEDIA_TYPE, utf8(Json.write(manifest)));
+    }
+
+    private byte[] getIndex(Blob manifest) {
+        Map<String, Object> descriptor = manifest.getDescriptor();
+        Map<String, Object> annotations = new LinkedHashMap<String, Object>();
+        annotations.put(REF_NAME, tag);
+        descriptor.put("annotations", annotations);
+        Map<String, Object> index = new LinkedHashMap<String, Object>();
+        index.put("schemaVersion", 2);
+        index.put("mediaType", INDEX_MEDIA_TYPE);
+        index.put("manifests", Arrays.asList(descriptor));
+        return utf8(Json.write(index));
+    }
+
+    /**
+     * Creates the <tt>manifest.json</tt> file read by <tt>docker load</tt>.
+     */
+    private byte[] getDockerManifest(Blob configuration) {
+        Map<String, Object> image = new LinkedHashMap<String, Object>();
+        image.put("Config", configuration.getPath());
+        image.put("RepoTags", Arrays.asList(name + ":" + tag));
+        List<Object> paths = new ArrayList<Object>();
+        for (Blob layer : layers) {
+            paths.add(layer.getPath());
+        }
+        image.put("Layers", paths);
+        return utf8(Json.write(Arrays.asList(image)));
+    }
+
+    /**
+     * Gets the digest of the image manifest, identifying the image.
+     *
+     * @return the digest, such as <tt>sha256:...</tt>
+     */
+    public String getDigest() {
+        return getManifest(getConfiguration()).digest;
+    }
+
+    /**
+     * Writes the image layout in a tar archive. The blobs are written once, even if several layers share them.
+     *
+     * @param file the archive
+     * @throws IOException if the archive cannot be written, or a layer cannot be read
+     */
+    public void write(File file) throws IOException {
+        Blob configuration = getConfiguration();
+        Blob manifest = getManifest(configuration);
+        List<Blob> blobs = new ArrayList<Blob>(layers);
+        blobs.add(configuration);
+        blobs.add(manifest);
+
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        TarWriter writer = new TarWriter(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            writeData(writer, "oci-layout", utf8("{\"imageLayoutVersion\":\"1.0.0\"}"));
+            writeData(writer, "index.json", getIndex(manifest));
+            writeData(writer, "manifest.json", getDockerManifest(configuration));
+            writer.addDirectory("blobs/", TarWriter.DIRECTORY_MODE, created);
+            writer.addDirectory("blobs/sha256/", TarWriter.DIRECTORY_MODE, created);
+            Set<String> written = new HashSet<String>();
+            for (Blob blob : blobs) {
+                if (!written.add(blob.digest)) {
+                    continue;
+                }
+                if (blob.data != null) {
+                    writeData(writer, blob.getPath(), blob.data);
+                } else {
+                    if (blob.file.length() != blob.size) {
+                        throw new IOException("The layer " + blob.file.getAbsolutePath() + " was modified");
+                    }
+                    writer.addFile(blob.getPath(), blob.file, created);
+                }
+            }
+        } catch (IOException e) {
+            writer.close();
+            FileUtils.deleteQuietly(file);
+            throw e;
+        }
+        writer.close();
+    }
+
+    private void writeData(TarWriter writer, String name, byte[] data) throws IOException {
+        writer.addEntry(name, TarWriter.FILE_MODE, created, data.length, new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Formats a time in the RFC 3339 format.
+     */
+    static String formatTime(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 not supported", e);
+        }
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return Fingerprint.toHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+}
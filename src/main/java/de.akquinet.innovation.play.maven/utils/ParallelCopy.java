@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Copies files on a bounded number of threads. The files are placed with {@link FilePlacement} (hard-linked when
+ * allowed and possible, transferred by the operating system otherwise), and keep their executable permission.
+ * <p/>
+ * The copies are started in the order they are requested, and their messages are logged in this order once they are
+ * done, so the log does not depend on the scheduling. A failed copy is reported by the next call to
+ * {@link #copy(File, File, String)} or {@link #finish()}.
+ */
+public class ParallelCopy {
+
+    private final Log log;
+    private final boolean link;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final LinkedList<Future<String>> pending = new LinkedList<Future<String>>();
+    private int copied;
+
+    /**
+     * Creates the copier.
+     *
+     * @param threads the number of threads, <tt>1</tt> copying the files on the calling thread
+     * @param link    whether the files can be hard-linked; a hard-linked file shares its content with its source, so it
+     *                must not be modified in place
+     * @param log     the log receiving the messages of the copies, <code>null</code> to not log them
+     */
+    public ParallelCopy(int threads, boolean link, Log log) {
+        this.log = log;
+        this.link = link;
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads);
+            this.maxPending = threads * 4;
+        } else {
+            this.executor = null;
+            this.maxPending = 0;
+        }
+    }
+
+    /**
+     * Copies a file. An existing target file is replaced.
+     *
+     * @param source  the source file
+     * @param target  the target file
+     * @param message the message logged once the file is copied, <code>null</code> if none
+     * @throws IOException if a previous copy failed, or this copy fails when done on the calling thread
+     */
+    public void copy(final File source, final File target, final String message) throws IOException {
+        Callable<String> task = new Callable<String>() {
+            public String call() throws IOException {
+                FilePlacement.place(source, target, false, link);
+                if (source.canExecute()) {
+                    target.setExecutable(true, false);
+                }
+                return message;
+            }
+        };
+        if (executor == null) {
+            FutureTask<String> future = new FutureTask<String>(task);
+            future.run();
+            pending.add(future);
+        } else {
+            pending.add(executor.submit(task));
+        }
+        try {
+            while (pending.size() > maxPending) {
+                done(pending.removeFirst());
+            }
+        } catch (IOException e) {
+            discardPending();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the copies in progress, and releases the threads.
+     *
+     * @throws IOException if a copy failed
+     */
+    public void finish() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                done(pending.removeFirst());
+            }
+        } finally {
+            discardPending();
+        }
+    }
+
+    /**
+     * @return the number of files copied so far.
+     */
+    public int getCopied() {
+        return copied;
+    }
+
+    private void done(Future<String> future) throws IOException {
+        String message;
+        try {
+            message = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while copying the files", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot copy a file", e.getCause());
+        }
+        copied++;
+        if (log != null && message != null) {
+            log.info(message);
+        }
+    }
+
+    private void discardPending() {
+        for (Future<String> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip output stream compressing on several threads. The data is split in blocks, each compressed independently as
+ * a gzip member. A file made of several members is a valid gzip file, decompressed by all the gzip tools (and
+ * {@link java.util.zip.GZIPInputStream}) as the concatenation of the members. The compression ratio is slightly lower
+ * than with a single member, as each block starts with an empty dictionary.
+ * <p/>
+ * The blocks are written in order, and the members do not record any time or name, so the output only depends on the
+ * data, the level and the block size, not on the number of threads.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+
+    static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int UNIX = 3;
+
+    private final OutputStream out;
+    private final int level;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private byte[] block;
+    private int count;
+    private boolean empty = true;
+    private boolean closed;
+
+    /**
+     * Creates the stream.
+     *
+     * @param out     the stream receiving the compressed data, closed with this stream
+     * @param level   the compression level, from 1 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param threads the number of compression threads
+     */
+    public ParallelGzipOutputStream(OutputStream out, int level, int threads) {
+        this(out, level, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    ParallelGzipOutputStream(OutputStream out, int level, int threads, int blockSize) {
+        this.out = out;
+        this.level = level;
+        this.block = new byte[blockSize];
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads);
+            this.maxPending = threads * 2;
+        } else {
+            this.executor = null;
+            this.maxPending = 0;
+        }
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        while (length > 0) {
+            int copied = Math.min(length, block.length - count);
+            System.arraycopy(data, offset, block, count, copied);
+            count += copied;
+            offset += copied;
+            length -= copied;
+            if (count == block.length) {
+                submit();
+            }
+        }
+    }
+
+    /**
+     * Compresses the current block.
+     */
+    private void submit() throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        block = new byte[block.length];
+        count = 0;
+        empty = false;
+        if (executor == null) {
+            out.write(compress(data, length, level));
+            return;
+        }
+        pending.add(executor.submit(new Callable<byte[]>() {
+            public byte[] call() {
+                return compress(data, length, level);
+            }
+        }));
+        while (pending.size() > maxPending) {
+            out.write(get(pending.removeFirst()));
+        }
+    }
+
+    /**
+     * Writes the remaining data, and closes the underlying stream.
+     *
+     * @throws IOException if the data cannot be written
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            // An empty stream still needs a member.
+            if (count > 0 || empty) {
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                out.write(get(pending.removeFirst()));
+            }
+        } finally {
+            try {
+                if (executor != null) {
+                    for (Future<byte[]> future : pending) {
+                        future.cancel(true);
+                    }
+                    executor.shutdownNow();
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Compresses a block as a complete gzip member.
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 3 + 64);
+        // Header: magic, deflate method, no flag, no time, no extra flag, Unix.
+        member.write(GZIP_MAGIC & 0xFF);
+        member.write(GZIP_MAGIC >> 8);
+        member.write(Deflater.DEFLATED);
+        for (int i = 0; i < 6; i++) {
+            member.write(0);
+        }
+        member.write(UNIX);
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int compressed = deflater.deflate(buffer);
+                member.write(buffer, 0, compressed);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeInt(member, crc.getValue());
+        writeInt(member, length);
+        return member.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, long value) {
+        for (int i = 0; i < 4; i++) {
+            out.write((int) (value >> (8 * i)) & 0xFF);
+        }
+    }
+
+    private static byte[] get(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot compress a block", e.getCause());
+        }
+    }
+}
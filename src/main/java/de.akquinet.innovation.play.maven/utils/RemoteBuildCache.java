@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Client of a remote build cache, shared between machines.
+ * <p/>
+ * The protocol is a plain HTTP one: the entry <tt>key</tt> is a zip archive available at <tt>url/key.zip</tt>. It is
+ * retrieved with a <tt>GET</tt> request (a <tt>404</tt> response meaning that the entry does not exist), and
+ * uploaded with a <tt>PUT</tt> request. Any HTTP server supporting these two methods can be used, such as the one
+ * started by the <tt>cache-server</tt> goal.
+ */
+public class RemoteBuildCache {
+
+    private static final int TIMEOUT = 30000;
+
+    /**
+     * The size of the chunks used to upload the entries too large for a fixed length request.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String url;
+
+    /**
+     * Creates the client.
+     *
+     * @param url the base url of the cache
+     */
+    public RemoteBuildCache(String url) {
+        this.url = url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * @return the base url of the cache.
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Downloads an entry and extracts it.
+     *
+     * @param key       the key
+     * @param directory the directory in which the entry is extracted
+     * @return <code>true</code> if the entry was found, <code>false</code> otherwise
+     * @throws IOException if the entry cannot be downloaded or extracted
+     */
+    public boolean fetch(String key, File directory) throws IOException {
+        HttpURLConnection connection = open(key);
+        connection.setRequestMethod("GET");
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+            connection.disconnect();
+            return false;
+        }
+        if (status != HttpURLConnection.HTTP_OK) {
+            connection.disconnect();
+            throw new IOException("Cannot download " + connection.getURL() + " - status " + status);
+        }
+
+        File archive = File.createTempFile("play2-cache-", ".zip");
+        try {
+            InputStream in = connection.getInputStream();
+            OutputStream out = new FileOutputStream(archive);
+            try {
+                IOUtils.copyLarge(in, out);
+            } finally {
+                IOUtils.closeQuietly(in);
+                out.close();
+            }
+            unzip(archive, directory);
+        } finally {
+            FileUtils.deleteQuietly(archive);
+            connection.disconnect();
+        }
+        return true;
+    }
+
+    /**
+     * Archives and uploads an entry.
+     *
+     * @param key       the key
+     * @param directory the directory containing the entry
+     * @throws IOException if the entry cannot be archived or uploaded
+     */
+    public void push(String key, File directory) throws IOException {
+        File archive = File.createTempFile("play2-cache-", ".zip");
+        try {
+            zip(directory, archive);
+
+            HttpURLConnection connection = open(key);
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            if (archive.length() <= Integer.MAX_VALUE) {
+                connection.setFixedLengthStreamingMode((int) archive.length());
+            } else {
+                // The fixed length is an int before Java 7.
+                connection.setChunkedStreamingMode(CHUNK_SIZE);
+            }
+            connection.setRequestProperty("Content-Type", "application/zip");
+            OutputStream out = connection.getOutputStream();
+            InputStream in = new FileInputStream(archive);
+            try {
+                IOUtils.copyLarge(in, out);
+            } finally {
+                in.close();
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            connection.disconnect();
+            if (status < 200 || status >= 300) {
+                throw new IOException("Cannot upload " + connection.getURL() + " - status " + status);
+            }
+        } finally {
+            FileUtils.deleteQuietly(archive);
+        }
+    }
+
+    private HttpURLConnection open(String key) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url + key + ".zip").openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setUseCaches(false);
+        return connection;
+    }
+
+    /**
+     * Archives the content of a directory.
+     *
+     * @param directory the directory
+     * @param archive   the zip file to create
+     * @throws IOException if the archive cannot be written
+     */
+    static void zip(File directory, File archive) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            zip(directory, "", out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void zip(File directory, String path, ZipOutputStream out) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                ZipEntry entry = new ZipEntry(path + file.getName() + "/");
+                entry.setTime(file.lastModified());
+                out.putNextEntry(entry);
+                out.closeEntry();
+                zip(file, path + file.getName() + "/", out);
+            } else {
+                ZipEntry entry = new ZipEntry(path + file.getName());
+                entry.setTime(file.lastModified());
+                out.putNextEntry(entry);
+                InputStream in = new FileInputStream(file);
+                try {
+                    IOUtils.copyLarge(in, out);
+                } finally {
+                    in.close();
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Extracts an archive.
+     *
+     * @param archive   the zip file
+     * @param directory the directory in which the files are extracted
+     * @throws IOException if the archive cannot be read, or contains an entry outside of <tt>directory</tt>
+     */
+    static void unzip(File archive, File directory) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            String root = directory.getCanonicalPath() + File.separator;
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                File file = new File(directory, entry.getName());
+                if (!file.getCanonicalPath().startsWith(root)) {
+                    throw new IOException("Invalid entry " + entry.getName() + " in " + archive.getAbsolutePath());
+                }
+                if (entry.isDirectory()) {
+                    FileUtils.forceMkdir(file);
+                } else {
+                    FileUtils.forceMkdir(file.getParentFile());
+                    InputStream in = zip.getInputStream(entry);
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        IOUtils.copyLarge(in, out);
+                    } finally {
+                        in.close();
+                        out.close();
+                    }
+                }
+                if (entry.getTime() != -1) {
+                    file.setLastModified(entry.getTime());
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+}
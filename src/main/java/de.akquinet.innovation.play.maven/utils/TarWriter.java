@@ -0,0 +1,248 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Writes a tar archive in the POSIX <tt>ustar</tt> format. Names longer than the <tt>ustar</tt> limits are written
+ * with a PAX extended header. The entries are owned by <tt>root</tt> (uid and gid <tt>0</tt>), so the archive only
+ * depends on the names, permissions, times and content of its entries.
+ */
+public class TarWriter implements Closeable {
+
+    static final int BLOCK_SIZE = 512;
+
+    public static final int FILE_MODE = 0644;
+    public static final int EXECUTABLE_MODE = 0755;
+    public static final int DIRECTORY_MODE = 0755;
+
+    private static final byte FILE = '0';
+    private static final byte DIRECTORY = '5';
+    private static final byte PAX_HEADER = 'x';
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The largest size of an entry, 11 octal digits.
+     */
+    private static final long MAX_SIZE = 077777777777L;
+
+    private final OutputStream out;
+    private long written;
+
+    /**
+     * Creates the writer.
+     *
+     * @param out the stream receiving the archive, closed with the writer
+     */
+    public TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Adds a directory entry.
+     *
+     * @param name the entry name, a <tt>/</tt> is appended if missing
+     * @param mode the permissions
+     * @param time the modification time (in milliseconds)
+     * @throws IOException if the entry cannot be written
+     */
+    public void addDirectory(String name, int mode, long time) throws IOException {
+        writeHeader(name.endsWith("/") ? name : name + "/", mode, time, 0, DIRECTORY);
+    }
+
+    /**
+     * Adds a file.
+     *
+     * @param name the entry name
+     * @param file the file
+     * @param time the modification time (in milliseconds)
+     * @throws IOException if the file cannot be read or the entry cannot be written
+     */
+    public void addFile(String name, File file, long time) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            addEntry(name, file.canExecute() ? EXECUTABLE_MODE : FILE_MODE, time, file.length(), in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Adds an entry from a stream.
+     *
+     * @param name the entry name
+     * @param mode the permissions
+     * @param time the modification time (in milliseconds)
+     * @param size the size of the content
+     * @param data the content, exactly <tt>size</tt> bytes are read (the stream is not closed)
+     * @throws IOException if the content cannot be read or the entry cannot be written
+     */
+    public void addEntry(String name, int mode, long time, long size, InputStream data) throws IOException {
+        if (size > MAX_SIZE) {
+            throw new IOException("The entry " + name + " is too large for the tar format (" + size + " bytes)");
+        }
+        writeHeader(name, mode, time, size, FILE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = size;
+        while (remaining > 0) {
+            int read = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Unexpected end of the content of " + name);
+            }
+            write(buffer, read);
+            remaining -= read;
+        }
+        pad();
+    }
+
+    /**
+     * Writes the end of the archive (two empty blocks) and closes the stream.
+     *
+     * @throws IOException if the archive cannot be written
+     */
+    public void close() throws IOException {
+        try {
+            write(new byte[2 * BLOCK_SIZE], 2 * BLOCK_SIZE);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeHeader(String name, int mode, long time, long size, byte type) throws IOException {
+        String prefix = "";
+        String suffix = name;
+        if (name.getBytes("UTF-8").length > 100) {
+            int split = findSplit(name);
+            if (split == -1) {
+                byte[] record = paxRecord("path", name);
+                String base = name.substring(name.lastIndexOf('/', name.length() - 2) + 1);
+                writeBlock(truncate("PaxHeaders/" + base, 100), "", FILE_MODE, time, record.length, PAX_HEADER);
+                write(record, record.length);
+                pad();
+                // The readers supporting PAX ignore the ustar name.
+                suffix = truncate(name, 100);
+            } else {
+                prefix = name.substring(0, split);
+                suffix = name.substring(split + 1);
+            }
+        }
+        writeBlock(suffix, prefix, mode, time, size, type);
+    }
+
+    private void writeBlock(String name, String prefix, int mode, long time, long size, byte type)
+            throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        put(header, 0, 100, name);
+        putOctal(header, 100, 8, mode & 07777);
+        putOctal(header, 108, 8, 0);
+        putOctal(header, 116, 8, 0);
+        putOctal(header, 124, 12, size);
+        putOctal(header, 136, 12, Math.max(0, time / 1000));
+        header[156] = type;
+        put(header, 257, 6, "ustar");
+        header[263] = '0';
+        header[264] = '0';
+        put(header, 265, 32, "root");
+        put(header, 297, 32, "root");
+        put(header, 345, 155, prefix);
+
+        // The checksum is computed with the checksum field filled with spaces.
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        putOctal(header, 148, 7, checksum);
+        header[155] = ' ';
+        write(header, BLOCK_SIZE);
+    }
+
+    /**
+     * Creates a PAX record: <tt>length key=value\n</tt>, the length including itself.
+     */
+    static byte[] paxRecord(String key, String value) throws UnsupportedEncodingException {
+        int length = (key + "=" + value + "\n").getBytes("UTF-8").length + 1;
+        String record = length + " " + key + "=" + value + "\n";
+        // Adding the length may add a digit.
+        while (record.getBytes("UTF-8").length != length) {
+            length = record.getBytes("UTF-8").length;
+            record = length + " " + key + "=" + value + "\n";
+        }
+        return record.getBytes("UTF-8");
+    }
+
+    /**
+     * Finds the <tt>/</tt> splitting a name in a prefix (155 bytes) and a name (100 bytes).
+     *
+     * @return the index of the separator, <tt>-1</tt> if the name cannot be split
+     */
+    private static int findSplit(String name) throws UnsupportedEncodingException {
+        for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1)) {
+            if (name.substring(0, i).getBytes("UTF-8").length <= 155
+                    && name.substring(i + 1).getBytes("UTF-8").length <= 100
+                    && i + 1 < name.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String truncate(String value, int length) {
+        return value.length() > length ? value.substring(0, length) : value;
+    }
+
+    private void pad() throws IOException {
+        int remainder = (int) (written % BLOCK_SIZE);
+        if (remainder != 0) {
+            write(new byte[BLOCK_SIZE - remainder], BLOCK_SIZE - remainder);
+        }
+    }
+
+    private void write(byte[] data, int length) throws IOException {
+        out.write(data, 0, length);
+        written += length;
+    }
+
+    private static void put(byte[] header, int offset, int length, String value) throws UnsupportedEncodingException {
+        byte[] bytes = value.getBytes("UTF-8");
+        System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+    }
+
+    /**
+     * Writes a number in octal, padded with zeros and terminated by a NUL character.
+     */
+    private static void putOctal(byte[] header, int offset, int length, long value) {
+        String octal = Long.toOctalString(value);
+        StringBuilder padded = new StringBuilder();
+        for (int i = octal.length(); i < length - 1; i++) {
+            padded.append('0');
+        }
+        padded.append(octal);
+        for (int i = 0; i < length - 1; i++) {
+            header[offset + i] = (byte) padded.charAt(i);
+        }
+        header[offset + length - 1] = 0;
+    }
+}
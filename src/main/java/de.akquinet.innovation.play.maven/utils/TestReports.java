@@ -0,0 +1,424 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads the JUnit XML reports written by Play (sbt) in <tt>target/test-reports</tt>, and writes them in the format
+ * of the Maven Surefire plugin (<tt>target/surefire-reports/TEST-*.xml</tt>), so they can be consumed by the usual
+ * tools (CI servers, report plugins). There is one report per test class, its root element is a <tt>testsuite</tt>
+ * element.
+ */
+public class TestReports {
+
+    /**
+     * The result of a test class.
+     */
+    public static class Suite {
+        private final String name;
+        private final double time;
+        private final Map<String, String> properties = new LinkedHashMap<String, String>();
+        private final List<TestCase> testCases = new ArrayList<TestCase>();
+        private String systemOut = "";
+        private String systemErr = "";
+
+        public Suite(String name, double time) {
+            this.name = name;
+            this.time = time;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the duration of the test class, in seconds.
+         */
+        public double getTime() {
+            return time;
+        }
+
+        public List<TestCase> getTestCases() {
+            return testCases;
+        }
+
+        public int getCount(String status) {
+            int count = 0;
+            for (TestCase test : testCases) {
+                if (status.equals(test.getStatus())) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return <code>true</code> if a test of the class failed or is in error.
+         */
+        public boolean isFailed() {
+            return getCount(TestCase.FAILURE) + getCount(TestCase.ERROR) > 0;
+        }
+    }
+
+    /**
+     * The result of a test method.
+     */
+    public static class TestCase {
+        public static final String SUCCESS = "success";
+        public static final String FAILURE = "failure";
+        public static final String ERROR = "error";
+        public static final String SKIPPED = "skipped";
+
+        private final String className;
+        private final String name;
+        private final double time;
+        private String status = SUCCESS;
+        private String message;
+        private String type;
+        private String details;
+
+        public TestCase(String className, String name, double time) {
+            this.className = className;
+            this.name = name;
+            this.time = time;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the duration of the test, in seconds.
+         */
+        public double getTime() {
+            return time;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    private TestReports() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Reads the reports of the given directory.
+     *
+     * @param directory the report directory, may not exist
+     * @return the results of the test classes, sorted by report name
+     * @throws IOException if a report cannot be read
+     */
+    public static List<Suite> read(File directory) throws IOException {
+        List<Suite> suites = new ArrayList<Suite>();
+        for (File report : listReports(directory)) {
+            for (Element element : getTestSuites(parse(report))) {
+                suites.add(readSuite(element));
+            }
+        }
+        return suites;
+    }
+
+    /**
+     * Reads the duration of the test classes from the reports of the given directory.
+     *
+     * @param directory the report directory, may not exist
+     * @return the duration (in seconds) of each test class
+     * @throws IOException if a report cannot be read
+     */
+    public static Map<String, Double> readDurations(File directory) throws IOException {
+        return getDurations(read(directory));
+    }
+
+    /**
+     * @param suites the results of the test classes
+     * @return the duration (in seconds) of each test class
+     */
+    public static Map<String, Double> getDurations(List<Suite> suites) {
+        Map<String, Double> durations = new TreeMap<String, Double>();
+        for (Suite suite : suites) {
+            if (suite.getName().length() != 0) {
+                durations.put(suite.getName(), suite.getTime());
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Gets the test classes having failed tests.
+     *
+     * @param suites   the results of the test classes
+     * @param executed the test classes run by the current execution, <code>null</code> if all tests were run
+     * @return the failing test classes, among the executed ones
+     */
+    public static List<String> getFailingClasses(List<Suite> suites, Collection<String> executed) {
+        List<String> failing = new ArrayList<String>();
+        for (Suite suite : suites) {
+            if (suite.isFailed() && suite.getName().length() != 0
+                    && (executed == null || executed.contains(suite.getName()))) {
+                failing.add(suite.getName());
+            }
+        }
+        return failing;
+    }
+
+    /**
+     * Gets the slowest tests.
+     *
+     * @param suites the results of the test classes
+     * @param count  the maximum number of tests to return
+     * @return the slowest tests, from the slowest to the fastest
+     */
+    public static List<TestCase> getSlowestTests(List<Suite> suites, int count) {
+        List<TestCase> tests = new ArrayList<TestCase>();
+        for (Suite suite : suites) {
+            tests.addAll(suite.getTestCases());
+        }
+        Collections.sort(tests, new Comparator<TestCase>() {
+            public int compare(TestCase a, TestCase b) {
+                return Double.compare(b.getTime(), a.getTime());
+            }
+        });
+        return tests.subList(0, Math.min(count, tests.size()));
+    }
+
+    /**
+     * Writes the results in the Surefire format: one <tt>TEST-class.xml</tt> file per test class.
+     *
+     * @param suites    the results of the test classes
+     * @param directory the output directory, created if needed
+     * @throws IOException if a report cannot be written
+     */
+    public static void writeSurefireReports(List<Suite> suites, File directory) throws IOException {
+        FileUtils.forceMkdir(directory);
+        for (Suite suite : suites) {
+            Document document = newDocumentBuilder().newDocument();
+            Element root = document.createElement("testsuite");
+            document.appendChild(root);
+            root.setAttribute("name", suite.getName());
+            root.setAttribute("time", formatTime(suite.getTime()));
+            root.setAttribute("tests", Integer.toString(suite.getTestCases().size()));
+            root.setAttribute("errors", Integer.toString(suite.getCount(TestCase.ERROR)));
+            root.setAttribute("skipped", Integer.toString(suite.getCount(TestCase.SKIPPED)));
+            root.setAttribute("failures", Integer.toString(suite.getCount(TestCase.FAILURE)));
+
+            Element properties = document.createElement("properties");
+            root.appendChild(properties);
+            for (Map.Entry<String, String> entry : suite.properties.entrySet()) {
+                Element property = document.createElement("property");
+                property.setAttribute("name", entry.getKey());
+                property.setAttribute("value", entry.getValue());
+                properties.appendChild(property);
+            }
+
+            for (TestCase test : suite.getTestCases()) {
+                Element testCase = document.createElement("testcase");
+                testCase.setAttribute("name", test.getName());
+                testCase.setAttribute("classname", test.getClassName());
+                testCase.setAttribute("time", formatTime(test.getTime()));
+                if (!TestCase.SUCCESS.equals(test.getStatus())) {
+                    Element status = document.createElement(test.getStatus());
+                    if (test.message != null) {
+                        status.setAttribute("message", test.message);
+                    }
+                    if (test.type != null) {
+                        status.setAttribute("type", test.type);
+                    }
+                    if (test.details != null && test.details.length() != 0) {
+                        status.appendChild(document.createTextNode(test.details));
+                    }
+                    testCase.appendChild(status);
+                }
+                root.appendChild(testCase);
+            }
+
+            appendText(document, root, "system-out", suite.systemOut);
+            appendText(document, root, "system-err", suite.systemErr);
+
+            write(document, new File(directory, "TEST-" + suite.getName() + ".xml"));
+        }
+    }
+
+    private static Suite readSuite(Element element) {
+        Suite suite = new Suite(element.getAttribute("name"), parseTime(element.getAttribute("time")));
+        for (Element child : getChildren(element)) {
+            String tag = child.getTagName();
+            if ("properties".equals(tag)) {
+                for (Element property : getChildren(child)) {
+                    suite.properties.put(property.getAttribute("name"), property.getAttribute("value"));
+                }
+            } else if ("testcase".equals(tag)) {
+                String className = child.getAttribute("classname");
+                TestCase test = new TestCase(className.length() == 0 ? suite.getName() : className,
+                        child.getAttribute("name"), parseTime(child.getAttribute("time")));
+                for (Element status : getChildren(child)) {
+                    String name = status.getTagName();
+                    if (TestCase.FAILURE.equals(name) || TestCase.ERROR.equals(name)
+                            || TestCase.SKIPPED.equals(name)) {
+                        test.status = name;
+                        test.message = status.hasAttribute("message") ? status.getAttribute("message") : null;
+                        test.type = status.hasAttribute("type") ? status.getAttribute("type") : null;
+                        test.details = status.getTextContent();
+                    }
+                }
+                suite.testCases.add(test);
+            } else if ("system-out".equals(tag)) {
+                suite.systemOut = child.getTextContent();
+            } else if ("system-err".equals(tag)) {
+                suite.systemErr = child.getTextContent();
+            }
+        }
+        return suite;
+    }
+
+    /**
+     * @param directory the report directory
+     * @return the XML reports of the directory, sorted by name
+     */
+    static List<File> listReports(File directory) {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".xml");
+            }
+        });
+        if (files == null) {
+            return new ArrayList<File>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Gets the <tt>testsuite</tt> elements of a report. The root element is either a <tt>testsuite</tt>, or a
+     * <tt>testsuites</tt> element.
+     */
+    static List<Element> getTestSuites(Document document) {
+        List<Element> suites = new ArrayList<Element>();
+        Element root = document.getDocumentElement();
+        if ("testsuite".equals(root.getTagName())) {
+            suites.add(root);
+        } else if ("testsuites".equals(root.getTagName())) {
+            NodeList list = root.getElementsByTagName("testsuite");
+            for (int i = 0; i < list.getLength(); i++) {
+                suites.add((Element) list.item(i));
+            }
+        }
+        return suites;
+    }
+
+    private static List<Element> getChildren(Element element) {
+        List<Element> children = new ArrayList<Element>();
+        NodeList list = element.getChildNodes();
+        for (int i = 0; i < list.getLength(); i++) {
+            if (list.item(i).getNodeType() == Node.ELEMENT_NODE) {
+                children.add((Element) list.item(i));
+            }
+        }
+        return children;
+    }
+
+    private static void appendText(Document document, Element parent, String name, String text) {
+        Element element = document.createElement(name);
+        if (text.length() != 0) {
+            element.appendChild(document.createCDATASection(text));
+        }
+        parent.appendChild(element);
+    }
+
+    static Document parse(File report) throws IOException {
+        try {
+            return newDocumentBuilder().parse(report);
+        } catch (SAXException e) {
+            throw new IOException("Cannot parse " + report.getAbsolutePath(), e);
+        }
+    }
+
+    private static DocumentBuilder newDocumentBuilder() throws IOException {
+        try {
+            return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Cannot create the XML parser", e);
+        }
+    }
+
+    private static void write(Document document, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            Transformer transformer = TransformerFactory.newInstance().newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.transform(new DOMSource(document), new StreamResult(out));
+        } catch (TransformerException e) {
+            throw new IOException("Cannot write " + file.getAbsolutePath(), e);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Parses a duration attribute, in seconds. Empty or invalid values are considered as 0.
+     */
+    static double parseTime(String time) {
+        try {
+            return time.length() == 0 ? 0 : Double.parseDouble(time.replace(",", ""));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    static String formatTime(double time) {
+        return String.format(Locale.ENGLISH, "%.3f", time);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Discovers the test classes of a Play application and splits them into shards, run by different <tt>play</tt>
+ * processes.
+ * <p/>
+ * Test classes are discovered from the sources (Java and Scala), as the test classes are not compiled yet when the
+ * shards are computed. A source file is considered as a test if its name follows the usual conventions
+ * (<tt>Test*</tt>, <tt>*Test</tt>, <tt>*Tests</tt>, <tt>*TestCase</tt> and <tt>*Spec</tt>) and it does not declare an
+ * abstract class. The class name is computed from the package declarations and the file name.
+ * <p/>
+ * The shards are balanced using the durations of the previous executions: the classes are assigned, from the
+ * slowest to the fastest, to the shard having the lowest expected duration. Classes without history are expected to
+ * last the average duration.
+ */
+public class TestSharding {
+
+    private static final Pattern TEST_NAME = Pattern.compile("Test.*|.*Test|.*Tests|.*TestCase|.*Spec");
+
+    private static final Pattern PACKAGE = Pattern.compile("^\\s*package\\s+([\\w.]+)", Pattern.MULTILINE);
+
+    private TestSharding() {
+        // Avoid direct instantiation.
+    }
+
+    /**
+     * Discovers the test classes contained in the given source directories.
+     *
+     * @param roots the source directories, missing directories are ignored
+     * @return the sorted fully qualified names of the test classes
+     * @throws IOException if a source file cannot be read
+     */
+    public static List<String> findTestClasses(List<File> roots) throws IOException {
+        TreeSet<String> classes = new TreeSet<String>();
+        for (File root : roots) {
+            if (root.isDirectory()) {
+                for (File file : FileUtils.listFiles(root, new String[]{"java", "scala"}, true)) {
+                    String name = getTestClassName(file);
+                    if (name != null) {
+                        classes.add(name);
+                    }
+                }
+            }
+        }
+        return new ArrayList<String>(classes);
+    }
+
+    /**
+     * Computes the name of the test class declared by the given source file.
+     *
+     * @param file the source file
+     * @return the fully qualified name of the class, <code>null</code> if the file is not a test
+     * @throws IOException if the file cannot be read
+     */
+    static String getTestClassName(File file) throws IOException {
+        String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+        if (!TEST_NAME.matcher(name).matches()) {
+            return null;
+        }
+
+        String content = FileUtils.readFileToString(file);
+        if (Pattern.compile("abstract\\s+class\\s+" + name + "\\b").matcher(content).find()) {
+            return null;
+        }
+
+        // Scala allows several package clauses, they are concatenated.
+        StringBuilder pkg = new StringBuilder();
+        Matcher matcher = PACKAGE.matcher(content);
+        while (matcher.find()) {
+            if (matcher.group(1).equals("object")) {
+                break;
+            }
+            pkg.append(matcher.group(1)).append('.');
+        }
+        return pkg + name;
+    }
+
+    /**
+     * Splits the given test classes in at most <tt>count</tt> shards of similar sizes.
+     *
+     * @param classes the test classes
+     * @param count   the number of shards
+     * @return the non-empty shards
+     */
+    public static List<List<String>> split(List<String> classes, int count) {
+        return split(classes, count, Collections.<String, Double>emptyMap());
+    }
+
+    /**
+     * Splits the given test classes in at most <tt>count</tt> shards of similar expected durations.
+     *
+     * @param classes   the test classes
+     * @param count     the number of shards
+     * @param durations the durations of the previous executions (in seconds)
+     * @return the non-empty shards
+     */
+    public static List<List<String>> split(List<String> classes, int count, final Map<String, Double> durations) {
+        List<List<String>> shards = new ArrayList<List<String>>();
+        if (classes.isEmpty()) {
+            return shards;
+        }
+
+        final double average = getAverage(classes, durations);
+        List<String> sorted = new ArrayList<String>(classes);
+        // Stable sort, classes of equal durations keep their order.
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String a, String b) {
+                return Double.compare(getDuration(b, durations, average), getDuration(a, durations, average));
+            }
+        });
+
+        int size = Math.max(1, Math.min(count, classes.size()));
+        double[] loads = new double[size];
+        for (int i = 0; i < size; i++) {
+            shards.add(new ArrayList<String>());
+        }
+        for (String name : sorted) {
+            int lightest = 0;
+            for (int i = 1; i < size; i++) {
+                if (loads[i] < loads[lightest]) {
+                    lightest = i;
+                }
+            }
+            shards.get(lightest).add(name);
+            loads[lightest] += getDuration(name, durations, average);
+        }
+        return shards;
+    }
+
+    private static double getAverage(List<String> classes, Map<String, Double> durations) {
+        double total = 0;
+        int known = 0;
+        for (String name : classes) {
+            Double duration = durations.get(name);
+            if (duration != null) {
+                total += duration;
+                known++;
+            }
+        }
+        return known == 0 ? 1 : total / known;
+    }
+
+    private static double getDuration(String name, Map<String, Double> durations, double average) {
+        Double duration = durations.get(name);
+        return duration == null ? average : duration;
+    }
+
+    /**
+     * Loads the duration history of the test classes.
+     *
+     * @param file the history file
+     * @return the duration (in seconds) of each test class, empty if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    public static Map<String, Double> loadDurations(File file) throws IOException {
+        Map<String, Double> durations = new TreeMap<String, Double>();
+        if (!file.isFile()) {
+            return durations;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                durations.put(name, Double.valueOf(properties.getProperty(name)));
+            } catch (NumberFormatException e) {
+                // Ignore the corrupted entry, the class is considered as unknown.
+            }
+        }
+        return durations;
+    }
+
+    /**
+     * Stores the duration history of the test classes.
+     *
+     * @param file      the history file, its parent directory is created if needed
+     * @param durations the duration (in seconds) of each test class
+     * @throws IOException if the file cannot be written
+     */
+    public static void storeDurations(File file, Map<String, Double> durations) throws IOException {
+        FileUtils.forceMkdir(file.getParentFile());
+        Properties properties = new Properties();
+        for (Map.Entry<String, Double> entry : durations.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().toString());
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "Play2 Maven Plugin - duration of the test classes (seconds)");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Builds the <tt>test-only</tt> command running the given classes.
+     *
+     * @param classes the test classes
+     * @return the command
+     */
+    public static String getTestOnlyCommand(List<String> classes) {
+        StringBuilder command = new StringBuilder("test-only");
+        for (String name : classes) {
+            command.append(' ').append(name);
+        }
+        return command.toString();
+    }
+}
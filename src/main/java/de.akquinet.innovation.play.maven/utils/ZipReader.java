@@ -0,0 +1,312 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the structure of a zip archive: the entries are read from the central directory, and their (compressed) data
+ * can be copied as is to another archive with {@link ZipWriter#copy(ZipReader, ZipReader.Entry)}, without inflating
+ * and deflating them again.
+ * <p/>
+ * ZIP64 archives (more than 65535 entries or 4 GB) are not supported.
+ */
+public class ZipReader implements Closeable {
+
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+    /**
+     * An entry of the archive, as described by the central directory.
+     */
+    public static class Entry {
+        byte[] rawName;
+        String name;
+        int versionMadeBy;
+        int versionNeeded;
+        int flags;
+        int method;
+        long dosTime;
+        long crc;
+        long compressedSize;
+        long size;
+        byte[] extra;
+        byte[] comment;
+        int internalAttributes;
+        long externalAttributes;
+        long localHeaderOffset;
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /**
+         * @return the compression method, {@link java.util.zip.ZipEntry#STORED} or
+         *         {@link java.util.zip.ZipEntry#DEFLATED}.
+         */
+        public int getMethod() {
+            return method;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+
+        /**
+         * @return the modification time (in milliseconds), with the 2 seconds precision of the zip format.
+         */
+        public long getTime() {
+            return fromDosTime(dosTime);
+        }
+
+        /**
+         * @return the Unix permissions of the entry, <tt>0</tt> if unknown.
+         */
+        public int getUnixMode() {
+            return (versionMadeBy >> 8) == ZipWriter.UNIX ? (int) (externalAttributes >> 16) & 0xFFFF : 0;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile archive;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * Opens an archive and reads its central directory.
+     *
+     * @param file the zip file
+     * @throws IOException if the file cannot be read, is not a zip archive, or is a ZIP64 archive
+     */
+    public ZipReader(File file) throws IOException {
+        this.file = file;
+        this.archive = new RandomAccessFile(file, "r");
+        try {
+            readCentralDirectory();
+        } catch (IOException e) {
+            archive.close();
+            throw e;
+        }
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long length = archive.length();
+        int scan = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+        byte[] tail = new byte[scan];
+        archive.seek(length - scan);
+        archive.readFully(tail);
+
+        int end = -1;
+        for (int i = scan - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (readInt(tail, i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) {
+            throw new IOException(file.getAbsolutePath() + " is not a zip archive");
+        }
+
+        int count = readShort(tail, end + 10);
+        long size = readUnsignedInt(tail, end + 12);
+        long offset = readUnsignedInt(tail, end + 16);
+        if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+            throw new IOException("ZIP64 archives are not supported - " + file.getAbsolutePath());
+        }
+
+        byte[] directory = new byte[(int) size];
+        archive.seek(offset);
+        archive.readFully(directory);
+
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (readInt(directory, position) != CENTRAL_HEADER) {
+                throw new IOException("Invalid central directory in " + file.getAbsolutePath());
+            }
+            Entry entry = new Entry();
+            entry.versionMadeBy = readShort(directory, position + 4);
+            entry.versionNeeded = readShort(directory, position + 6);
+            entry.flags = readShort(directory, position + 8);
+            entry.method = readShort(directory, position + 10);
+            entry.dosTime = readUnsignedInt(directory, position + 12);
+            entry.crc = readUnsignedInt(directory, position + 16);
+            entry.compressedSize = readUnsignedInt(directory, position + 20);
+            entry.size = readUnsignedInt(directory, position + 24);
+            int nameLength = readShort(directory, position + 28);
+            int extraLength = readShort(directory, position + 30);
+            int commentLength = readShort(directory, position + 32);
+            entry.internalAttributes = readShort(directory, position + 36);
+            entry.externalAttributes = readUnsignedInt(directory, position + 38);
+            entry.localHeaderOffset = readUnsignedInt(directory, position + 42);
+
+            position += CENTRAL_HEADER_SIZE;
+            entry.rawName = copy(directory, position, nameLength);
+            position += nameLength;
+            entry.extra = copy(directory, position, extraLength);
+            position += extraLength;
+            entry.comment = copy(directory, position, commentLength);
+            position += commentLength;
+
+            entry.name = decodeName(entry.rawName, entry.flags);
+            entries.put(entry.name, entry);
+        }
+    }
+
+    /**
+     * @return the file of the archive.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the entries, in the order of the central directory.
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(entries.values()));
+    }
+
+    /**
+     * @param name the entry name
+     * @return the entry, <code>null</code> if the archive does not contain this entry
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Reads the extra field of the local header of an entry. It may differ from the one of the central directory.
+     */
+    byte[] readLocalExtra(Entry entry) throws IOException {
+        byte[] header = readLocalHeader(entry);
+        int nameLength = readShort(header, 26);
+        int extraLength = readShort(header, 28);
+        byte[] extra = new byte[extraLength];
+        archive.seek(entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength);
+        archive.readFully(extra);
+        return extra;
+    }
+
+    /**
+     * Gets the position of the (compressed) data of an entry.
+     */
+    long getDataOffset(Entry entry) throws IOException {
+        byte[] header = readLocalHeader(entry);
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + readShort(header, 26) + readShort(header, 28);
+    }
+
+    /**
+     * Copies the (compressed) data of an entry to the given channel.
+     */
+    void transferData(Entry entry, WritableByteChannel target) throws IOException {
+        FileChannel channel = archive.getChannel();
+        long position = getDataOffset(entry);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            long transferred = channel.transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of the entry " + entry.name + " in " + file.getAbsolutePath());
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    private byte[] readLocalHeader(Entry entry) throws IOException {
+        byte[] header = new byte[LOCAL_HEADER_SIZE];
+        archive.seek(entry.localHeaderOffset);
+        archive.readFully(header);
+        if (readInt(header, 0) != LOCAL_HEADER) {
+            throw new IOException("Invalid local header for " + entry.name + " in " + file.getAbsolutePath());
+        }
+        return header;
+    }
+
+    /**
+     * Closes the archive.
+     *
+     * @throws IOException if the archive cannot be closed
+     */
+    public void close() throws IOException {
+        archive.close();
+    }
+
+    private static String decodeName(byte[] name, int flags) throws UnsupportedEncodingException {
+        // Bit 11: the name is encoded in UTF-8. Otherwise, CP437 is the standard, but most tools use the platform
+        // encoding; names are generally ASCII anyway.
+        if ((flags & ZipWriter.UTF8_FLAG) != 0) {
+            return new String(name, "UTF-8");
+        }
+        return new String(name, "ISO-8859-1");
+    }
+
+    private static byte[] copy(byte[] source, int offset, int length) {
+        byte[] array = new byte[length];
+        System.arraycopy(source, offset, array, 0, length);
+        return array;
+    }
+
+    static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return readShort(buffer, offset) | (readShort(buffer, offset + 2) << 16);
+    }
+
+    static long readUnsignedInt(byte[] buffer, int offset) {
+        return readInt(buffer, offset) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Converts a MS-DOS date and time (as stored in zip archives) to a Java time.
+     */
+    static long fromDosTime(long dosTime) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set((int) ((dosTime >> 25) & 0x7F) + 1980, (int) ((dosTime >> 21) & 0x0F) - 1,
+                (int) (dosTime >> 16) & 0x1F, (int) (dosTime >> 11) & 0x1F, (int) (dosTime >> 5) & 0x3F,
+                (int) (dosTime << 1) & 0x3E);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,906 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes a zip archive in a single pass. Entries are either copied from another archive without being decompressed
+ * ({@link #copy(ZipReader, ZipReader.Entry)}), or added from files, which are compressed while being written.
+ * <p/>
+ * The added entries record the Unix permissions of the files, so executable scripts remain executable once
+ * extracted. Files that are already compressed (jars, images, archives...) are stored without being compressed again.
+ * <p/>
+ * With several threads ({@link #setThreads(int)}), the files are compressed in parallel, and written in the order
+ * they were added, so the archive does not depend on the number of threads. With a fixed timestamp
+ * ({@link #setTimestamp(long)}), the archive only depends on the content and the order of its entries. ZIP64 archives
+ * (more than 65535 entries or 4 GB) are not supported.
+ * <p/>
+ * An existing archive can be updated in place ({@link #update(java.io.File)}): while the added entries are identical
+ * to the entries of the existing archive, in the same order (same name, time, permissions, size and CRC), they are
+ * kept as they are, without being compressed nor written again. The archive is rewritten from the first entry that
+ * differs, so the entries changing often should be added last.
+ */
+public class ZipWriter implements Closeable {
+
+    static final int UNIX = 3;
+    static final int UTF8_FLAG = 1 << 11;
+    static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
+    private static final int VERSION = 20;
+    private static final int FILE_MODE = 0100644;
+    private static final int EXECUTABLE_MODE = 0100755;
+    private static final int DIRECTORY_MODE = 040755;
+    private static final int MSDOS_DIRECTORY = 0x10;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The order of the entries of a reproducible archive: by name, except the manifest, which must be the first entry
+     * of a jar.
+     */
+    static final Comparator<String> ENTRY_ORDER = new Comparator<String>() {
+        public int compare(String a, String b) {
+            int rank = rank(a) - rank(b);
+            return rank != 0 ? rank : a.compareTo(b);
+        }
+
+        private int rank(String name) {
+            if (name.equals("META-INF/")) {
+                return 0;
+            }
+            return name.equals("META-INF/MANIFEST.MF") ? 1 : 2;
+        }
+    };
+
+    /**
+     * The files compressed in parallel are compressed in memory up to this size, and in a temporary file otherwise.
+     */
+    private static final long IN_MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    /**
+     * The extensions of the files stored without compression, as they are already compressed.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList("jar", "war", "ear",
+            "zip", "gz", "tgz", "bz2", "xz", "zst", "7z", "png", "jpg", "jpeg", "gif", "ico", "woff", "woff2",
+            "mp3", "mp4", "ogg", "webm", "pdf"));
+
+    private final File file;
+    private final RandomAccessFile archive;
+    private final FileChannel channel;
+    private final List<ZipReader.Entry> central = new ArrayList<ZipReader.Entry>();
+    private final Set<String> names = new HashSet<String>();
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private long fixedDosTime = -1;
+    private ExecutorService executor;
+    private final LinkedList<Future<Pending>> pending = new LinkedList<Future<Pending>>();
+    private int maxPending;
+    private ZipReader previous;
+    private List<ZipReader.Entry> previousEntries;
+    private int kept;
+
+    /**
+     * An entry prepared by a compression thread, waiting to be written.
+     */
+    private static class Pending {
+        final ZipReader.Entry entry;
+        /**
+         * The compressed data, or <code>null</code> if the data is in {@link #source}.
+         */
+        byte[] data;
+        /**
+         * The file containing the data to write as is: the added file for stored entries, or a temporary file.
+         */
+        File source;
+        boolean temporary;
+
+        Pending(ZipReader.Entry entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Creates the archive. An existing file is overwritten.
+     *
+     * @param file the zip file
+     * @throws IOException if the file cannot be created
+     */
+    public ZipWriter(File file) throws IOException {
+        this(file, null);
+    }
+
+    private ZipWriter(File file, ZipReader previous) throws IOException {
+        this.file = file;
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        this.archive = new RandomAccessFile(file, "rw");
+        if (previous == null) {
+            this.archive.setLength(0);
+        } else {
+            this.previous = previous;
+            this.previousEntries = previous.getEntries();
+        }
+        this.channel = archive.getChannel();
+    }
+
+    /**
+     * Opens an archive to update it in place. The entries added in the same order and with the same content as in
+     * the existing archive are kept, the following ones are written. If the file does not exist, or is not a valid
+     * archive, it is written from scratch.
+     *
+     * @param file the zip file
+     * @return the writer
+     * @throws IOException if the file cannot be opened
+     */
+    public static ZipWriter update(File file) throws IOException {
+        ZipReader previous = null;
+        if (file.isFile()) {
+            try {
+                previous = new ZipReader(file);
+            } catch (IOException e) {
+                // Not an archive, or an interrupted update: the archive is written from scratch.
+            }
+        }
+        try {
+            return new ZipWriter(file, previous);
+        } catch (IOException e) {
+            if (previous != null) {
+                previous.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of entries of the existing archive kept by the update so far.
+     */
+    public int getKeptEntries() {
+        return kept;
+    }
+
+    /**
+     * Sets the compression level of the added files.
+     *
+     * @param level the level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Sets a fixed modification time for all the entries, to make the archive reproducible. The copied entries also
+     * lose their extra fields, which may contain other timestamps, and their permissions are normalized.
+     *
+     * @param time the modification time, stored in UTC so the archive does not depend on the time zone
+     */
+    public void setTimestamp(long time) {
+        this.fixedDosTime = toDosTime(time, TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Sets the number of threads compressing the added files. By default, the files are compressed by the calling
+     * thread, while being written.
+     *
+     * @param threads the number of threads
+     */
+    public void setThreads(int threads) {
+        if (executor != null) {
+            throw new IllegalStateException("The number of threads is already set");
+        }
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+            // Bound the memory used by the compressed entries waiting to be written.
+            maxPending = threads * 2;
+        }
+    }
+
+    /**
+     * Copies an entry of another archive. The compressed data is copied as is.
+     *
+     * @param reader the source archive
+     * @param entry  the entry to copy
+     * @throws IOException if the entry cannot be copied, or if the archive already contains an entry with the same
+     *                     name
+     */
+    public void copy(ZipReader reader, ZipReader.Entry entry) throws IOException {
+        ZipReader.Entry copy = new ZipReader.Entry();
+        copy.rawName = entry.rawName;
+        copy.name = entry.name;
+        copy.versionMadeBy = entry.versionMadeBy;
+        copy.versionNeeded = entry.versionNeeded;
+        // The sizes and CRC are written in the local header, no data descriptor.
+        copy.flags = entry.flags & ~DATA_DESCRIPTOR_FLAG;
+        copy.method = entry.method;
+        copy.dosTime = entry.dosTime;
+        copy.crc = entry.crc;
+        copy.compressedSize = entry.compressedSize;
+        copy.size = entry.size;
+        copy.extra = entry.extra;
+        copy.comment = entry.comment;
+        copy.internalAttributes = entry.internalAttributes;
+        copy.externalAttributes = entry.externalAttributes;
+        byte[] localExtra;
+        if (fixedDosTime != -1) {
+            copy.dosTime = fixedDosTime;
+            copy.extra = new byte[0];
+            localExtra = copy.extra;
+            copy.versionMadeBy = (UNIX << 8) | VERSION;
+            if (entry.isDirectory()) {
+                copy.externalAttributes = ((long) DIRECTORY_MODE << 16) | MSDOS_DIRECTORY;
+            } else {
+                int mode = (entry.getUnixMode() & 0111) != 0 ? EXECUTABLE_MODE : FILE_MODE;
+                copy.externalAttributes = (long) mode << 16;
+            }
+        } else {
+            localExtra = reader.readLocalExtra(entry);
+        }
+
+        stopUpdate();
+        flush();
+        register(copy);
+        writeLocalHeader(copy, localExtra);
+        reader.transferData(entry, channel);
+    }
+
+    /**
+     * Adds a file, compressed with the DEFLATE method, or stored if it is already compressed.
+     *
+     * @param name the entry name
+     * @param file the file
+     * @throws IOException if the file cannot be read, or if the archive already contains an entry with the same name
+     */
+    public void addFile(String name, final File file) throws IOException {
+        final ZipReader.Entry entry = newEntry(name, file.lastModified(),
+                file.canExecute() ? EXECUTABLE_MODE : FILE_MODE);
+        entry.method = isCompressed(name) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        reserve(entry.name);
+        if (keep(entry, file, null)) {
+            return;
+        }
+
+        if (executor != null) {
+            enqueue(executor.submit(new Callable<Pending>() {
+                public Pending call() throws IOException {
+                    return prepare(entry, file);
+                }
+            }));
+            return;
+        }
+
+        if (entry.method == ZipEntry.STORED) {
+            write(prepare(entry, file));
+            return;
+        }
+
+        // Compress the file while writing it, and update the local header afterwards.
+        place(entry);
+        writeLocalHeader(entry, new byte[0]);
+        long start = channel.position();
+        CRC32 crc = new CRC32();
+        entry.size = deflate(file, Channels.newOutputStream(channel), crc, level);
+        entry.crc = crc.getValue();
+        entry.compressedSize = channel.position() - start;
+        checkLimits(entry.size);
+
+        ByteBuffer sizes = ByteBuffer.allocate(12);
+        putInt(sizes, entry.crc);
+        putInt(sizes, entry.compressedSize);
+        putInt(sizes, entry.size);
+        sizes.flip();
+        channel.write(sizes, entry.localHeaderOffset + 14);
+    }
+
+    /**
+     * Adds an entry from data held in memory, such as a generated descriptor.
+     *
+     * @param name the entry name
+     * @param data the content of the entry
+     * @param time the modification time
+     * @throws IOException if the entry cannot be written, or if the archive already contains an entry with the same
+     *                     name
+     */
+    public void addData(String name, byte[] data, long time) throws IOException {
+        ZipReader.Entry entry = newEntry(name, time, FILE_MODE);
+        entry.method = ZipEntry.DEFLATED;
+        reserve(entry.name);
+        if (keep(entry, null, data)) {
+            return;
+        }
+        Pending prepared = new Pending(entry);
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        entry.size = deflate(new ByteArrayInputStream(data), out, crc, level);
+        entry.crc = crc.getValue();
+        prepared.data = out.toByteArray();
+        entry.compressedSize = prepared.data.length;
+        if (executor != null) {
+            enqueue(done(prepared));
+        } else {
+            write(prepared);
+        }
+    }
+
+    /**
+     * Adds a directory entry.
+     *
+     * @param name the entry name, a <tt>/</tt> is appended if missing
+     * @param time the modification time
+     * @throws IOException if the entry cannot be written, or if the archive already contains an entry with the same
+     *                     name
+     */
+    public void addDirectory(String name, long time) throws IOException {
+        ZipReader.Entry entry = newEntry(name.endsWith("/") ? name : name + "/", time, DIRECTORY_MODE);
+        entry.externalAttributes |= MSDOS_DIRECTORY;
+        entry.method = ZipEntry.STORED;
+        reserve(entry.name);
+        if (keep(entry, null, new byte[0])) {
+            return;
+        }
+        if (executor != null) {
+            // Keep the order of the entries.
+            enqueue(done(new Pending(entry)));
+            return;
+        }
+        place(entry);
+        writeLocalHeader(entry, new byte[0]);
+    }
+
+    /**
+     * Adds a file or a directory tree. The content of a directory is added recursively, the directory itself
+     * included.
+     *
+     * @param name the entry name of the file or directory
+     * @param file the file or directory
+     * @throws IOException if a file cannot be read
+     */
+    public void addTree(String name, File file) throws IOException {
+        for (Map.Entry<String, File> entry : listTree(name, file).entrySet()) {
+            if (entry.getValue().isDirectory()) {
+                addDirectory(entry.getKey(), entry.getValue().lastModified());
+            } else {
+                addFile(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Adds files to an existing archive, in a single pass: the existing entries are copied without being
+     * decompressed, except the ones replaced by the given files, and the files are appended.
+     * <p/>
+     * With a fixed timestamp, the archive is made reproducible: the entries are sorted by name (the manifest
+     * remaining first), and written with the given time (see {@link #setTimestamp(long)}).
+     *
+     * @param archive   the zip file
+     * @param files     the entry names and the files to add (see {@link #listTree(String, java.io.File)})
+     * @param level     the compression level of the added files
+     * @param threads   the number of threads compressing the added files
+     * @param timestamp the modification time of all the entries, <tt>-1</tt> to keep the times of the entries
+     * @throws IOException if the archive cannot be read or written
+     */
+    public static void addFiles(File archive, Map<String, File> files, int level, int threads, long timestamp)
+            throws IOException {
+        File tmp = new File(archive.getAbsolutePath() + ".tmp");
+        ZipReader reader = new ZipReader(archive);
+        try {
+            ZipWriter writer = new ZipWriter(tmp);
+            try {
+                writer.setLevel(level);
+                writer.setThreads(threads);
+                Map<String, Object> entries = new LinkedHashMap<String, Object>();
+                if (timestamp != -1) {
+                    writer.setTimestamp(timestamp);
+                    entries = new TreeMap<String, Object>(ENTRY_ORDER);
+                }
+                for (ZipReader.Entry entry : reader.getEntries()) {
+                    if (!files.containsKey(entry.getName())) {
+                        entries.put(entry.getName(), entry);
+                    }
+                }
+                entries.putAll(files);
+
+                for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                    if (entry.getValue() instanceof ZipReader.Entry) {
+                        writer.copy(reader, (ZipReader.Entry) entry.getValue());
+                    } else if (((File) entry.getValue()).isDirectory()) {
+                        writer.addDirectory(entry.getKey(), ((File) entry.getValue()).lastModified());
+                    } else {
+                        writer.addFile(entry.getKey(), (File) entry.getValue());
+                    }
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(tmp);
+            throw e;
+        } finally {
+            reader.close();
+        }
+
+        if (!archive.delete() || !tmp.renameTo(archive)) {
+            throw new IOException("Cannot replace " + archive.getAbsolutePath() + " by " + tmp.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Lists the entries of a file or directory tree.
+     *
+     * @param name the entry name of the file or directory
+     * @param file the file or directory
+     * @return the entry names (with a trailing <tt>/</tt> for directories) and their file, parents first
+     */
+    public static Map<String, File> listTree(String name, File file) {
+        Map<String, File> tree = new LinkedHashMap<String, File>();
+        listTree(name, file, tree);
+        return tree;
+    }
+
+    private static void listTree(String name, File file, Map<String, File> tree) {
+        if (file.isDirectory()) {
+            tree.put(name + "/", file);
+            File[] children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (File child : children) {
+                    listTree(name + "/" + child.getName(), child, tree);
+                }
+            }
+        } else {
+            tree.put(name, file);
+        }
+    }
+
+    /**
+     * Writes the central directory and closes the archive.
+     *
+     * @throws IOException if the central directory cannot be written
+     */
+    public void close() throws IOException {
+        try {
+            stopUpdate();
+            flush();
+            long offset = channel.position();
+            for (ZipReader.Entry entry : central) {
+                ByteBuffer header = ByteBuffer.allocate(ZipReader.CENTRAL_HEADER_SIZE + entry.rawName.length
+                        + entry.extra.length + entry.comment.length);
+                putInt(header, ZipReader.CENTRAL_HEADER);
+                putShort(header, entry.versionMadeBy);
+                putShort(header, entry.versionNeeded);
+                putShort(header, entry.flags);
+                putShort(header, entry.method);
+                putInt(header, entry.dosTime);
+                putInt(header, entry.crc);
+                putInt(header, entry.compressedSize);
+                putInt(header, entry.size);
+                putShort(header, entry.rawName.length);
+                putShort(header, entry.extra.length);
+                putShort(header, entry.comment.length);
+                putShort(header, 0);
+                putShort(header, entry.internalAttributes);
+                putInt(header, entry.externalAttributes);
+                putInt(header, entry.localHeaderOffset);
+                header.put(entry.rawName);
+                header.put(entry.extra);
+                header.put(entry.comment);
+                header.flip();
+                write(header);
+            }
+            long size = channel.position() - offset;
+            checkLimits(channel.position());
+
+            ByteBuffer end = ByteBuffer.allocate(ZipReader.END_OF_CENTRAL_DIRECTORY_SIZE);
+            putInt(end, ZipReader.END_OF_CENTRAL_DIRECTORY);
+            putShort(end, 0);
+            putShort(end, 0);
+            putShort(end, central.size());
+            putShort(end, central.size());
+            putInt(end, size);
+            putInt(end, offset);
+            putShort(end, 0);
+            end.flip();
+            write(end);
+        } finally {
+            try {
+                discardPending();
+            } finally {
+                try {
+                    if (previous != null) {
+                        previous.close();
+                    }
+                } finally {
+                    archive.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the next entry of the archive being updated, if it is identical to the added entry. Its content is
+     * compared with its CRC, so the added file is read, but neither compressed nor written.
+     *
+     * @param entry  the added entry
+     * @param source the added file, or <code>null</code>
+     * @param data   the added data, if there is no file
+     * @return <code>true</code> if the entry was kept, <code>false</code> if it must be written (the update is over)
+     */
+    private boolean keep(ZipReader.Entry entry, File source, byte[] data) throws IOException {
+        if (previous == null) {
+            return false;
+        }
+        ZipReader.Entry old = kept < previousEntries.size() ? previousEntries.get(kept) : null;
+        boolean same = old != null && old.name.equals(entry.name) && old.method == entry.method
+                && old.flags == entry.flags && old.dosTime == entry.dosTime
+                && old.versionMadeBy == entry.versionMadeBy && old.externalAttributes == entry.externalAttributes
+                && old.extra.length == 0 && old.comment.length == 0 && old.localHeaderOffset == channel.position()
+                && old.size == (source != null ? source.length() : data.length);
+        if (same) {
+            CRC32 crc = new CRC32();
+            if (source != null) {
+                checksum(source, crc);
+            } else {
+                crc.update(data);
+            }
+            same = crc.getValue() == old.crc;
+        }
+        if (!same) {
+            stopUpdate();
+            return false;
+        }
+        entry.crc = old.crc;
+        entry.size = old.size;
+        entry.compressedSize = old.compressedSize;
+        place(entry);
+        channel.position(previous.getDataOffset(old) + old.compressedSize);
+        kept++;
+        return true;
+    }
+
+    /**
+     * Ends the update: the rest of the existing archive is truncated. The central directory of the existing archive is
+     * removed first, so an interrupted update leaves an invalid archive, written from scratch by the next update.
+     */
+    private void stopUpdate() throws IOException {
+        if (previous != null) {
+            archive.setLength(channel.position());
+            ZipReader reader = previous;
+            previous = null;
+            previousEntries = null;
+            reader.close();
+        }
+    }
+
+    private ZipReader.Entry newEntry(String name, long time, int mode) throws UnsupportedEncodingException {
+        ZipReader.Entry entry = new ZipReader.Entry();
+        entry.name = name;
+        entry.rawName = name.getBytes("UTF-8");
+        if (entry.rawName.length != name.length()) {
+            entry.flags |= UTF8_FLAG;
+        }
+        entry.versionMadeBy = (UNIX << 8) | VERSION;
+        entry.versionNeeded = VERSION;
+        entry.dosTime = fixedDosTime != -1 ? fixedDosTime : toDosTime(time);
+        entry.extra = new byte[0];
+        entry.comment = new byte[0];
+        entry.externalAttributes = ((long) mode) << 16;
+        return entry;
+    }
+
+    /**
+     * Compresses a file, or computes its checksum if it is stored.
+     */
+    private Pending prepare(ZipReader.Entry entry, File source) throws IOException {
+        Pending prepared = new Pending(entry);
+        CRC32 crc = new CRC32();
+        if (entry.method == ZipEntry.STORED) {
+            entry.size = checksum(source, crc);
+            entry.compressedSize = entry.size;
+            prepared.source = source;
+        } else if (source.length() <= IN_MEMORY_LIMIT) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) source.length() / 2 + 64);
+            entry.size = deflate(source, out, crc, level);
+            prepared.data = out.toByteArray();
+            entry.compressedSize = prepared.data.length;
+        } else {
+            File tmp = File.createTempFile("play2-zip", ".deflated");
+            tmp.deleteOnExit();
+            prepared.source = tmp;
+            prepared.temporary = true;
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                entry.size = deflate(source, out, crc, level);
+            } finally {
+                out.close();
+            }
+            entry.compressedSize = tmp.length();
+        }
+        entry.crc = crc.getValue();
+        checkLimits(entry.size);
+        return prepared;
+    }
+
+    /**
+     * Writes a prepared entry: the local header followed by the data.
+     */
+    private void write(Pending prepared) throws IOException {
+        try {
+            place(prepared.entry);
+            writeLocalHeader(prepared.entry, new byte[0]);
+            if (prepared.data != null) {
+                write(ByteBuffer.wrap(prepared.data));
+            } else if (prepared.source != null) {
+                transfer(prepared.source, prepared.entry.compressedSize);
+            }
+        } finally {
+            if (prepared.temporary) {
+                FileUtils.deleteQuietly(prepared.source);
+            }
+        }
+    }
+
+    private static Future<Pending> done(final Pending prepared) {
+        FutureTask<Pending> done = new FutureTask<Pending>(new Callable<Pending>() {
+            public Pending call() {
+                return prepared;
+            }
+        });
+        done.run();
+        return done;
+    }
+
+    private void enqueue(Future<Pending> future) throws IOException {
+        pending.add(future);
+        while (pending.size() > maxPending) {
+            write(get(pending.removeFirst()));
+        }
+    }
+
+    /**
+     * Writes all the entries waiting to be written, in order.
+     */
+    private void flush() throws IOException {
+        while (!pending.isEmpty()) {
+            write(get(pending.removeFirst()));
+        }
+    }
+
+    private void discardPending() {
+        for (Future<Pending> future : pending) {
+            future.cancel(true);
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    Pending prepared = future.get();
+                    if (prepared.temporary) {
+                        FileUtils.deleteQuietly(prepared.source);
+                    }
+                } catch (Exception e) {
+                    // Already failed, nothing to delete.
+                }
+            }
+        }
+        pending.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Pending get(Future<Pending> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing the archive entries", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot compress an archive entry", e.getCause());
+        }
+    }
+
+    private void transfer(File source, long length) throws IOException {
+        FileInputStream in = new FileInputStream(source);
+        try {
+            FileChannel input = in.getChannel();
+            long position = 0;
+            while (position < length) {
+                long transferred = input.transferTo(position, length - position, channel);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of " + source.getAbsolutePath());
+                }
+                position += transferred;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Compresses a file with the DEFLATE method (without zlib header).
+     *
+     * @return the size of the file
+     */
+    private static long deflate(File source, OutputStream out, CRC32 crc, int level) throws IOException {
+        return deflate(new FileInputStream(source), out, crc, level);
+    }
+
+    /**
+     * Compresses a stream with the DEFLATE method, and closes it.
+     *
+     * @return the size of the data
+     */
+    private static long deflate(InputStream in, OutputStream out, CRC32 crc, int level) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+                stream.write(buffer, 0, read);
+            }
+            stream.finish();
+            return size;
+        } finally {
+            in.close();
+            deflater.end();
+        }
+    }
+
+    private static long checksum(File source, CRC32 crc) throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long size = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+            return size;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Checks whether an entry is already compressed, according to its extension.
+     */
+    static boolean isCompressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot != -1 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    private void register(ZipReader.Entry entry) throws IOException {
+        reserve(entry.name);
+        place(entry);
+    }
+
+    private void reserve(String name) throws IOException {
+        if (!names.add(name)) {
+            throw new IOException("Duplicate entry " + name + " in " + file.getAbsolutePath());
+        }
+    }
+
+    private void place(ZipReader.Entry entry) throws IOException {
+        if (central.size() == 0xFFFF) {
+            throw new IOException("Too many entries in " + file.getAbsolutePath() + ", ZIP64 is not supported");
+        }
+        entry.localHeaderOffset = channel.position();
+        checkLimits(entry.localHeaderOffset);
+        central.add(entry);
+    }
+
+    private void writeLocalHeader(ZipReader.Entry entry, byte[] extra) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(ZipReader.LOCAL_HEADER_SIZE + entry.rawName.length + extra.length);
+        putInt(header, ZipReader.LOCAL_HEADER);
+        putShort(header, entry.versionNeeded);
+        putShort(header, entry.flags);
+        putShort(header, entry.method);
+        putInt(header, entry.dosTime);
+        putInt(header, entry.crc);
+        putInt(header, entry.compressedSize);
+        putInt(header, entry.size);
+        putShort(header, entry.rawName.length);
+        putShort(header, extra.length);
+        header.put(entry.rawName);
+        header.put(extra);
+        header.flip();
+        write(header);
+    }
+
+    private void checkLimits(long value) throws IOException {
+        if (value >= 0xFFFFFFFFL) {
+            throw new IOException(file.getAbsolutePath() + " exceeds 4 GB, ZIP64 is not supported");
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void putShort(ByteBuffer buffer, int value) {
+        buffer.put((byte) value);
+        buffer.put((byte) (value >> 8));
+    }
+
+    private static void putInt(ByteBuffer buffer, long value) {
+        putShort(buffer, (int) value);
+        putShort(buffer, (int) (value >> 16));
+    }
+
+    /**
+     * Converts a Java time to a MS-DOS date and time (as stored in zip archives).
+     */
+    static long toDosTime(long time) {
+        return toDosTime(time, TimeZone.getDefault());
+    }
+
+    /**
+     * Converts a Java time to a MS-DOS date and time, expressed in the given time zone.
+     */
+    static long toDosTime(long time, TimeZone zone) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // 1980-01-01 00:00:00
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.akquinet.innovation.play.maven;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Checks the lifecycle of the shared play process, using a fake sbt console.
+ */
+public class Play2DaemonTest {
+
+    @Test
+    public void testIdleShutdownAfterCommand() throws IOException, InterruptedException {
+        File shell = new File("/bin/sh");
+        if (!shell.isFile()) {
+            System.err.println("No shell available, skipping test");
+            return;
+        }
+        File dir = new File("target/tests/Play2DaemonTest");
+        FileUtils.deleteQuietly(dir);
+        File console = new File(dir, "play");
+        FileUtils.writeStringToFile(console, "while read line; do\n" +
+                "  if [ \"$line\" = \"exit\" ]; then exit 0; fi\n" +
+                "  echo \"[success] Total time: 0 s\"\n" +
+                "done\n");
+
+        Play2Daemon daemon = new Play2Daemon(dir.getAbsoluteFile(),
+                Arrays.asList(shell.getAbsolutePath(), console.getAbsolutePath()), System.getenv());
+        try {
+            daemon.start();
+            daemon.scheduleIdleShutdown(500);
+            daemon.execute(5000, "compile");
+            assertThat(daemon.isAlive()).isTrue();
+
+            // The idle timeout restarts once the command is done.
+            long deadline = System.currentTimeMillis() + 10000;
+            while (daemon.isAlive() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100);
+            }
+            assertThat(daemon.isAlive()).isFalse();
+        } finally {
+            daemon.stop();
+        }
+    }
+}
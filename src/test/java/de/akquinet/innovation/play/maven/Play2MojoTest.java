@@ -15,12 +15,16 @@
 
 package de.akquinet.innovation.play.maven;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+
 import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -94,4 +98,41 @@ public class Play2MojoTest {
         mojo.execute();
     }
 
+
+    @Test
+    public void testOutputTimestamp() throws MojoExecutionException {
+        Play2CleanMojo mojo = new Play2CleanMojo();
+        assertThat(mojo.getOutputTimestamp()).isEqualTo(-1L);
+        mojo.outputTimestamp = "1";
+        assertThat(mojo.getOutputTimestamp()).isEqualTo(-1L);
+        mojo.outputTimestamp = "1350000000";
+        assertThat(mojo.getOutputTimestamp()).isEqualTo(1350000000000L);
+        mojo.outputTimestamp = "2012-10-12T00:00:00Z";
+        assertThat(mojo.getOutputTimestamp()).isEqualTo(1350000000000L);
+        mojo.outputTimestamp = "2012-10-12T02:00:00+02:00";
+        assertThat(mojo.getOutputTimestamp()).isEqualTo(1350000000000L);
+    }
+
+    @Test
+    public void testPlayAndSbtVersions() throws IOException {
+        File build = new File("target/tests/Play2MojoTest/project");
+        FileUtils.deleteQuietly(build);
+        File plugins = new File(build, "plugins.sbt");
+        FileUtils.writeStringToFile(plugins, "resolvers += \"Typesafe\" at \"http://repo.typesafe.com\"\n\n"
+                + "addSbtPlugin(\"play\" % \"sbt-plugin\" % \"2.1.0\")\n");
+        File properties = new File(build, "build.properties");
+        FileUtils.writeStringToFile(properties, "sbt.version=0.12.2\n");
+
+        assertThat(AbstractPlay2Mojo.getVersion(plugins, AbstractPlay2Mojo.PLAY_VERSION)).isEqualTo("2.1.0");
+        assertThat(AbstractPlay2Mojo.getVersion(properties, AbstractPlay2Mojo.SBT_VERSION)).isEqualTo("0.12.2");
+        assertThat(AbstractPlay2Mojo.getVersion(new File(build, "missing.sbt"), AbstractPlay2Mojo.PLAY_VERSION))
+                .isEqualTo("missing");
+    }
+
+    @Test(expected = MojoExecutionException.class)
+    public void testInvalidOutputTimestamp() throws MojoExecutionException {
+        Play2CleanMojo mojo = new Play2CleanMojo();
+        mojo.outputTimestamp = "yesterday";
+        mojo.getOutputTimestamp();
+    }
 }
@@ -22,7 +22,9 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
+import static org.fest.assertions.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -70,4 +72,38 @@ public class PlayCompilationMojoTest {
 
         mojo.execute();
     }
+
+    @Test
+    public void testBatchedCommands() {
+        Play2CompilationMojo mojo = new Play2CompilationMojo();
+        mojo.buildDist = true;
+
+        assertThat(mojo.getBatchedCommands(Arrays.asList("compile"))).containsExactly("compile");
+        assertThat(mojo.getBatchedCommands(Arrays.asList("clean", "install")))
+                .containsExactly("compile", "test", "package", "dist");
+
+        mojo.skipTests = true;
+        assertThat(mojo.getBatchedCommands(Arrays.asList("package"))).containsExactly("compile", "package", "dist");
+
+        // The native distribution does not need play dist.
+        mojo.nativeDist = true;
+        assertThat(mojo.getBatchedCommands(Arrays.asList("package"))).containsExactly("compile", "package");
+    }
+
+    @Test
+    public void testTestsAreNotBatchedWithTheTestModes() {
+        Play2CompilationMojo mojo = new Play2CompilationMojo();
+        assertThat(mojo.getBatchedCommands(Arrays.asList("test"))).containsExactly("compile", "test");
+
+        mojo.shardTests = true;
+        assertThat(mojo.getBatchedCommands(Arrays.asList("test"))).containsExactly("compile");
+
+        mojo.shardTests = false;
+        mojo.testImpact = true;
+        assertThat(mojo.getBatchedCommands(Arrays.asList("test"))).containsExactly("compile");
+
+        mojo.testImpact = false;
+        mojo.rerunFailingTestsCount = 2;
+        assertThat(mojo.getBatchedCommands(Arrays.asList("package"))).containsExactly("compile", "package");
+    }
 }
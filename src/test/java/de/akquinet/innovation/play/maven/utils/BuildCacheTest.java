@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the local and remote caches of build outputs.
+ */
+public class BuildCacheTest {
+
+    private static final String KEY = "3f786850e387550fdab836ed7e6dc881de23001b";
+
+    @Test
+    public void testStoreAndRestore() throws IOException {
+        File root = prepare("testStoreAndRestore");
+        BuildCache cache = new BuildCache(new File(root, "cache"));
+
+        assertThat(cache.contains(KEY)).isFalse();
+        assertThat(cache.restore(KEY, new File(root, "restored"))).isFalse();
+
+        assertThat(cache.store(KEY, new File(root, "target"), Arrays.asList("classes", "missing"))).isTrue();
+        assertThat(cache.contains(KEY)).isTrue();
+        // Entries are immutable.
+        assertThat(cache.store(KEY, new File(root, "target"), Arrays.asList("classes"))).isFalse();
+
+        File restored = new File(root, "restored");
+        assertThat(cache.restore(KEY, restored)).isTrue();
+        assertThat(FileUtils.readFileToString(new File(restored, "classes/Application.class")))
+                .isEqualTo("bytecode");
+        assertThat(new File(restored, "missing").exists()).isFalse();
+    }
+
+    @Test
+    public void testRestoreReplacesTheCurrentOutputs() throws IOException {
+        File root = prepare("testRestoreReplacesTheCurrentOutputs");
+        BuildCache cache = new BuildCache(new File(root, "cache"));
+        cache.store(KEY, new File(root, "target"), Arrays.asList("classes"));
+
+        // Compiled from another branch.
+        File restored = new File(root, "restored");
+        FileUtils.writeStringToFile(new File(restored, "classes/Other.class"), "other bytecode");
+        FileUtils.writeStringToFile(new File(restored, "streams/log"), "kept");
+
+        assertThat(cache.restore(KEY, restored, Arrays.asList("classes", "classes_managed"))).isTrue();
+        assertThat(new File(restored, "classes/Application.class").isFile()).isTrue();
+        assertThat(new File(restored, "classes/Other.class").exists()).isFalse();
+        assertThat(new File(restored, "streams/log").isFile()).isTrue();
+
+        // Nothing is deleted on a miss.
+        assertThat(cache.restore("0000000000000000000000000000000000000000", restored,
+                Arrays.asList("classes"))).isFalse();
+        assertThat(new File(restored, "classes/Application.class").isFile()).isTrue();
+    }
+
+    @Test
+    public void testRemoteCache() throws IOException {
+        File root = prepare("testRemoteCache");
+        BuildCacheServer server = new BuildCacheServer(new File(root, "server"));
+        server.start(0);
+        try {
+            RemoteBuildCache remote = new RemoteBuildCache("http://localhost:" + server.getPort());
+
+            // A first machine builds and pushes the entry.
+            BuildCache first = new BuildCache(new File(root, "first"), remote, true);
+            first.store(KEY, new File(root, "target"), Arrays.asList("classes"));
+            assertThat(new File(root, "server/" + KEY + ".zip").isFile()).isTrue();
+
+            // A second machine fetches it.
+            BuildCache second = new BuildCache(new File(root, "second"), remote, false);
+            assertThat(second.contains(KEY)).isFalse();
+            File restored = new File(root, "restored");
+            assertThat(second.restore(KEY, restored)).isTrue();
+            assertThat(second.contains(KEY)).isTrue();
+            assertThat(FileUtils.readFileToString(new File(restored, "classes/Application.class")))
+                    .isEqualTo("bytecode");
+
+            assertThat(second.restore("0000000000000000000000000000000000000000", restored)).isFalse();
+        } finally {
+            server.stop();
+        }
+    }
+
+    private File prepare(String name) throws IOException {
+        File dir = new File("target/tests/" + name);
+        FileUtils.deleteQuietly(dir);
+        FileUtils.writeStringToFile(new File(dir, "target/classes/Application.class"), "bytecode");
+        return dir;
+    }
+}
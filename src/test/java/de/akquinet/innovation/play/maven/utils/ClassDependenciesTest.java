@@ -0,0 +1,102 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the class dependency graph used by the test impact analysis. It uses the classes of the plugin.
+ */
+public class ClassDependenciesTest {
+
+    private static final String BUILD_CACHE = BuildCache.class.getName();
+    private static final String REMOTE_BUILD_CACHE = RemoteBuildCache.class.getName();
+    private static final String BUILD_CACHE_SERVER = BuildCacheServer.class.getName();
+    private static final String FINGERPRINT = Fingerprint.class.getName();
+
+    @Test
+    public void testReadReferences() throws IOException {
+        InputStream in = getClassFile(BuildCache.class);
+        try {
+            Set<String> references = ClassDependencies.readReferences(in);
+            assertThat(references).contains(REMOTE_BUILD_CACHE, "org.apache.commons.io.FileUtils",
+                    "java.io.File", "java.util.List");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testTopLevelClassName() {
+        assertThat(ClassDependencies.getTopLevelClassName("controllers/Application$1"))
+                .isEqualTo("controllers.Application");
+        assertThat(ClassDependencies.getTopLevelClassName("models/Computer$")).isEqualTo("models.Computer");
+        assertThat(ClassDependencies.getTopLevelClassName("ModelTest")).isEqualTo("ModelTest");
+    }
+
+    @Test
+    public void testAffectedClasses() throws IOException {
+        File dir = new File("target/tests/testAffectedClasses");
+        FileUtils.deleteQuietly(dir);
+        copy(BuildCache.class, new File(dir, "classes"));
+        copy(RemoteBuildCache.class, new File(dir, "classes"));
+        copy(BuildCacheServer.class, new File(dir, "classes"));
+        // Nested class, merged into its top-level class.
+        copy(forName(BUILD_CACHE_SERVER + "$1"), new File(dir, "classes"));
+        copy(Fingerprint.class, new File(dir, "test-classes"));
+
+        ClassDependencies graph = ClassDependencies.scan(Arrays.asList(new File(dir, "classes"),
+                new File(dir, "test-classes"), new File(dir, "missing")));
+
+        assertThat(graph.getHashes().keySet()).containsOnly(BUILD_CACHE, REMOTE_BUILD_CACHE, BUILD_CACHE_SERVER,
+                FINGERPRINT);
+        assertThat(graph.getDependencies(BUILD_CACHE)).contains(REMOTE_BUILD_CACHE);
+        assertThat(graph.getAffectedClasses(Arrays.asList(REMOTE_BUILD_CACHE)))
+                .containsOnly(REMOTE_BUILD_CACHE, BUILD_CACHE);
+        assertThat(graph.getAffectedClasses(Arrays.asList(FINGERPRINT))).containsOnly(FINGERPRINT);
+    }
+
+    private static Class<?> forName(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static InputStream getClassFile(Class<?> clazz) {
+        return clazz.getResourceAsStream("/" + clazz.getName().replace('.', '/') + ".class");
+    }
+
+    private static void copy(Class<?> clazz, File directory) throws IOException {
+        File file = new File(directory, clazz.getName().replace('.', '/') + ".class");
+        InputStream in = getClassFile(clazz);
+        try {
+            FileUtils.copyInputStreamToFile(in, file);
+        } finally {
+            in.close();
+        }
+    }
+}
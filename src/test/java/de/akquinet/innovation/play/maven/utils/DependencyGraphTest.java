@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.dependency.tree.DependencyNode;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the dependency trees shared by the goals.
+ */
+public class DependencyGraphTest {
+
+    @Test
+    public void testGraphIsSharedWhileTheArtifactsDoNotChange() {
+        MavenProject project = project("shared");
+        Set<Artifact> artifacts = new HashSet<Artifact>();
+        artifacts.add(artifact("play_2.9.1"));
+        project.setArtifacts(artifacts);
+        DependencyNode root = new DependencyNode(project.getArtifact());
+
+        assertThat(DependencyGraph.get(project, null)).isNull();
+        DependencyGraph graph = DependencyGraph.put(project, null, root);
+        assertThat(DependencyGraph.get(project, null)).isSameAs(graph);
+        assertThat(graph.getRoot()).isSameAs(root);
+        assertThat(graph.getIndex("play-test")).isSameAs(graph.getIndex("play-test"));
+
+        // Resolved again, with the test dependencies.
+        artifacts = new HashSet<Artifact>(artifacts);
+        artifacts.add(artifact("play-test_2.9.1"));
+        project.setArtifacts(artifacts);
+        assertThat(DependencyGraph.get(project, null)).isNull();
+    }
+
+    @Test
+    public void testGraphsArePerProject() {
+        MavenProject first = project("first");
+        MavenProject second = project("second");
+
+        DependencyGraph.put(first, null, new DependencyNode(first.getArtifact()));
+
+        assertThat(DependencyGraph.get(first, null)).isNotNull();
+        assertThat(DependencyGraph.get(second, null)).isNull();
+    }
+
+    private static MavenProject project(String artifactId) {
+        Model model = new Model();
+        model.setGroupId("de.akquinet");
+        model.setArtifactId(artifactId);
+        model.setVersion("1.0");
+        MavenProject project = new MavenProject(model);
+        project.setArtifact(artifact(artifactId));
+        project.setArtifacts(new HashSet<Artifact>());
+        return project;
+    }
+
+    private static Artifact artifact(String artifactId) {
+        return new DefaultArtifact("de.akquinet", artifactId, VersionRange.createFromVersion("1.0"),
+                Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.shared.dependency.tree.DependencyNode;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the index of the dependency tree.
+ */
+public class DependencyIndexTest {
+
+    private final Artifact app = artifact("app");
+    private final Artifact play = artifact("play_2.9.1");
+    private final Artifact playTest = artifact("play-test_2.9.1");
+    private final Artifact netty = artifact("netty");
+    private final Artifact junit = artifact("junit");
+    private final Artifact selenium = artifact("selenium");
+    private final Artifact commons = artifact("commons-lang");
+    private final Artifact other = artifact("other");
+
+    private DependencyNode root;
+
+    @Before
+    public void setUp() {
+        // app -> play -> netty, commons-lang
+        // app -> play-test -> junit, selenium -> commons-lang
+        root = new DependencyNode(app);
+        DependencyNode playNode = node(root, play);
+        node(playNode, netty);
+        node(playNode, commons);
+        DependencyNode playTestNode = node(root, playTest);
+        node(playTestNode, junit);
+        DependencyNode seleniumNode = node(playTestNode, selenium);
+        node(seleniumNode, commons);
+    }
+
+    @Test
+    public void testIndex() {
+        DependencyIndex index = new DependencyIndex(root, "play-test");
+
+        assertThat(index.isADependencyOfExcludedArtifact(play)).isFalse();
+        assertThat(index.isADependencyOfExcludedArtifact(netty)).isFalse();
+        // Also pulled by play.
+        assertThat(index.isADependencyOfExcludedArtifact(commons)).isFalse();
+        assertThat(index.isADependencyOfExcludedArtifact(playTest)).isTrue();
+        assertThat(index.isADependencyOfExcludedArtifact(junit)).isTrue();
+        assertThat(index.isADependencyOfExcludedArtifact(selenium)).isTrue();
+        assertThat(index.isADependencyOfExcludedArtifact(other)).isTrue();
+        assertThat(index.isInExcludedSubtree(selenium)).isTrue();
+        assertThat(index.isInExcludedSubtree(commons)).isTrue();
+        assertThat(index.isInExcludedSubtree(netty)).isFalse();
+    }
+
+    @Test
+    public void testArtifactsAreIdentifiedWithoutVersion() {
+        DependencyIndex index = new DependencyIndex(root, "play-test");
+
+        // A resolved snapshot, with a timestamped version.
+        Artifact resolved = new DefaultArtifact("org", "netty", VersionRange.createFromVersion("1.0-20130101.120000-1"),
+                Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+        assertThat(index.isADependencyOfExcludedArtifact(resolved)).isFalse();
+    }
+
+    @Test
+    public void testSameAnswersAsTheVisitor() {
+        DependencyIndex index = new DependencyIndex(root, "play-test");
+
+        List<Artifact> artifacts = Arrays.asList(app, play, playTest, netty, junit, selenium, commons, other);
+        for (Artifact artifact : artifacts) {
+            assertThat(index.isADependencyOfExcludedArtifact(artifact))
+                    .as(artifact.getArtifactId())
+                    .isEqualTo(IsNotADependencyOfArtifactVisitor.isADependencyOf(root, artifact, "play-test"));
+        }
+    }
+
+    private static DependencyNode node(DependencyNode parent, Artifact artifact) {
+        DependencyNode node = new DependencyNode(artifact);
+        parent.addChild(node);
+        return node;
+    }
+
+    private static Artifact artifact(String artifactId) {
+        return new DefaultArtifact("org", artifactId, VersionRange.createFromVersion("1.0"), Artifact.SCOPE_COMPILE,
+                "jar", null, new DefaultArtifactHandler("jar"));
+    }
+}
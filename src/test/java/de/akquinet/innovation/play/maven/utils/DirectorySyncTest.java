@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the incremental synchronization of the exploded distribution.
+ */
+public class DirectorySyncTest {
+
+    private File root;
+    private File directory;
+    private File manifest;
+
+    @Before
+    public void setUp() throws IOException {
+        root = new File("target/tests/DirectorySyncTest");
+        FileUtils.deleteQuietly(root);
+        directory = new File(root, "dist");
+        manifest = new File(root, "dist.properties");
+    }
+
+    @Test
+    public void testFiles() throws IOException {
+        File lib = new File(root, "sources/lib.jar");
+        FileUtils.writeStringToFile(lib, "a library");
+        File app = new File(root, "sources/app.jar");
+        FileUtils.writeStringToFile(app, "version 1");
+        File start = new File(root, "sources/start");
+        FileUtils.writeStringToFile(start, "#!/usr/bin/env sh");
+        start.setExecutable(true);
+
+        DirectorySync sync = new DirectorySync(directory, manifest);
+        sync.addFile("lib/lib.jar", lib);
+        sync.addFile("lib/app.jar", app);
+        sync.addFile("start", start);
+        sync.finish();
+        assertThat(sync.getWritten()).isEqualTo(3);
+        assertThat(new File(directory, "start").canExecute()).isTrue();
+
+        // The application changes, the start script is removed.
+        FileUtils.writeStringToFile(app, "version 2");
+        app.setLastModified(app.lastModified() + 10000);
+        sync = new DirectorySync(directory, manifest);
+        sync.addFile("lib/lib.jar", lib);
+        sync.addFile("lib/app.jar", app);
+        sync.finish();
+
+        assertThat(sync.getWritten()).isEqualTo(1);
+        assertThat(sync.getUnchanged()).isEqualTo(1);
+        assertThat(sync.getDeleted()).isEqualTo(1);
+        assertThat(FileUtils.readFileToString(new File(directory, "lib/app.jar"))).isEqualTo("version 2");
+        assertThat(new File(directory, "start")).doesNotExist();
+    }
+
+    @Test
+    public void testModifiedTargetIsWrittenAgain() throws IOException {
+        File lib = new File(root, "sources/lib.jar");
+        FileUtils.writeStringToFile(lib, "a library");
+        DirectorySync sync = new DirectorySync(directory, manifest);
+        sync.addFile("lib/lib.jar", lib);
+        sync.finish();
+
+        File target = new File(directory, "lib/lib.jar");
+        FileUtils.deleteQuietly(target);
+        sync = new DirectorySync(directory, manifest);
+        sync.addFile("lib/lib.jar", lib);
+        sync.finish();
+
+        assertThat(sync.getWritten()).isEqualTo(1);
+        assertThat(FileUtils.readFileToString(target)).isEqualTo("a library");
+    }
+
+    @Test
+    public void testArchive() throws IOException {
+        File lib = new File(root, "sources/lib.jar");
+        FileUtils.writeStringToFile(lib, "a library");
+        File conf = new File(root, "sources/application.conf");
+        FileUtils.writeStringToFile(conf, "application.secret=abc");
+        File dist = new File(root, "app-1.0.zip");
+        ZipWriter writer = new ZipWriter(dist);
+        writer.addDirectory("app-1.0/", 0);
+        writer.addFile("app-1.0/lib/lib.jar", lib);
+        writer.addFile("app-1.0/conf/application.conf", conf);
+        writer.close();
+
+        DirectorySync sync = new DirectorySync(directory, manifest);
+        sync.addArchive(dist, "app-1.0/");
+        sync.finish();
+        assertThat(sync.getWritten()).isEqualTo(2);
+        assertThat(FileUtils.readFileToString(new File(directory, "conf/application.conf")))
+                .isEqualTo("application.secret=abc");
+
+        FileUtils.writeStringToFile(conf, "application.secret=def");
+        writer = new ZipWriter(dist);
+        writer.addDirectory("app-1.0/", 0);
+        writer.addFile("app-1.0/lib/lib.jar", lib);
+        writer.addFile("app-1.0/conf/application.conf", conf);
+        writer.close();
+        sync = new DirectorySync(directory, manifest);
+        sync.addArchive(dist, "app-1.0/");
+        sync.finish();
+
+        assertThat(sync.getWritten()).isEqualTo(1);
+        assertThat(sync.getUnchanged()).isEqualTo(1);
+        assertThat(FileUtils.readFileToString(new File(directory, "conf/application.conf")))
+                .isEqualTo("application.secret=def");
+    }
+
+    @Test
+    public void testUnknownFilesAreKept() throws IOException {
+        File lib = new File(root, "sources/lib.jar");
+        FileUtils.writeStringToFile(lib, "a library");
+        File other = new File(directory, "logs/application.log");
+        FileUtils.writeStringToFile(other, "not synchronized");
+
+        DirectorySync sync = new DirectorySync(directory, manifest);
+        sync.addFile("lib/lib.jar", lib);
+        sync.finish();
+        sync = new DirectorySync(directory, manifest);
+        sync.finish();
+
+        assertThat(new File(directory, "lib")).doesNotExist();
+        assertThat(other).exists();
+    }
+}
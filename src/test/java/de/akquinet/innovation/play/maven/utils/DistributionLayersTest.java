@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the split of the distribution in layers.
+ */
+public class DistributionLayersTest {
+
+    private File root;
+    private File application;
+    private File distribution;
+
+    @Before
+    public void setUp() throws IOException {
+        root = new File("target/tests/DistributionLayersTest");
+        FileUtils.deleteQuietly(root);
+        application = new File(root, "app.jar");
+        FileUtils.writeStringToFile(application, "the application");
+        File release = new File(root, "lang.jar");
+        FileUtils.writeStringToFile(release, "a release");
+        File snapshot = new File(root, "snapshot.jar");
+        FileUtils.writeStringToFile(snapshot, "a snapshot");
+        File start = new File(root, "start");
+        FileUtils.writeStringToFile(start, "#!/usr/bin/env sh");
+
+        distribution = new File(root, "app-1.0.zip");
+        ZipWriter writer = new ZipWriter(distribution);
+        writer.addFile("app-1.0/lib/app.app-1.0.jar", application);
+        writer.addFile("app-1.0/lib/commons-lang.commons-lang-2.6.jar", release);
+        writer.addFile("app-1.0/lib/org.acme.lib-1.1-SNAPSHOT.jar", snapshot);
+        writer.addFile("app-1.0/start", start);
+        writer.close();
+    }
+
+    @Test
+    public void testLayers() throws IOException {
+        List<DistributionLayers.Layer> layers = DistributionLayers.write(distribution, application, root, "app-1.0",
+                1350000000000L);
+
+        assertThat(layers).hasSize(3);
+        assertThat(layers.get(0).getName()).isEqualTo(DistributionLayers.DEPENDENCIES);
+        assertThat(layers.get(0).getFile()).isEqualTo(new File(root, "app-1.0-dependencies.tar"));
+        assertThat(layers.get(1).getName()).isEqualTo(DistributionLayers.SNAPSHOT_DEPENDENCIES);
+        assertThat(layers.get(2).getName()).isEqualTo(DistributionLayers.APPLICATION);
+
+        String dependencies = FileUtils.readFileToString(layers.get(0).getFile(), "ISO-8859-1");
+        assertThat(dependencies).contains("app-1.0/lib/commons-lang.commons-lang-2.6.jar")
+                .doesNotContain("app.app-1.0.jar").doesNotContain("SNAPSHOT");
+        String snapshots = FileUtils.readFileToString(layers.get(1).getFile(), "ISO-8859-1");
+        assertThat(snapshots).contains("org.acme.lib-1.1-SNAPSHOT.jar").doesNotContain("commons-lang");
+        String application = FileUtils.readFileToString(layers.get(2).getFile(), "ISO-8859-1");
+        assertThat(application).contains("app-1.0/lib/app.app-1.0.jar").contains("app-1.0/start")
+                .doesNotContain("commons-lang");
+
+        for (DistributionLayers.Layer layer : layers) {
+            assertThat(layer.isChanged()).isTrue();
+            assertThat(FileUtils.readFileToString(new File(layer.getFile().getAbsolutePath() + ".sha256")))
+                    .isEqualTo(layer.getDigest() + "  " + layer.getFile().getName() + "\n");
+        }
+    }
+
+    @Test
+    public void testUnchangedLayersAreKept() throws IOException {
+        List<DistributionLayers.Layer> first = DistributionLayers.write(distribution, application, root, "app-1.0",
+                1350000000000L);
+        File dependencies = first.get(0).getFile();
+        dependencies.setLastModified(1000000000000L);
+
+        // Only the application changes.
+        FileUtils.writeStringToFile(application, "the new application");
+        Map<String, File> files = new LinkedHashMap<String, File>();
+        files.put("app-1.0/lib/app.app-1.0.jar", application);
+        ZipWriter.addFiles(distribution, files, Deflater.BEST_SPEED, 1, -1);
+        List<DistributionLayers.Layer> second = DistributionLayers.write(distribution, application, root, "app-1.0",
+                1350000000000L);
+
+        assertThat(second.get(0).isChanged()).isFalse();
+        assertThat(second.get(0).getDigest()).isEqualTo(first.get(0).getDigest());
+        assertThat(dependencies.lastModified()).isEqualTo(1000000000000L);
+        assertThat(second.get(1).isChanged()).isFalse();
+        assertThat(second.get(2).isChanged()).isTrue();
+        assertThat(second.get(2).getDigest()).isNotEqualTo(first.get(2).getDigest());
+        assertThat(new File(root, "app-1.0-application.tar.tmp")).doesNotExist();
+    }
+
+    @Test
+    public void testCachedLayersAreNotWritten() throws IOException {
+        File cache = new File(root, "layers.properties");
+        List<DistributionLayers.Layer> first = DistributionLayers.write(distribution, application, root, "app-1.0",
+                0, cache);
+        File dependencies = first.get(0).getFile();
+        // The layer would be rewritten if it was hashed again.
+        FileUtils.writeStringToFile(new File(root, "app-1.0-dependencies.tar.sha256"),
+                first.get(0).getDigest() + "  " + dependencies.getName() + "\n");
+        dependencies.setLastModified(1000000000000L);
+
+        FileUtils.writeStringToFile(application, "the new application");
+        ZipWriter writer = new ZipWriter(distribution);
+        writer.addFile("app-1.0/lib/app.app-1.0.jar", application);
+        writer.addFile("app-1.0/lib/commons-lang.commons-lang-2.6.jar", new File(root, "lang.jar"));
+        writer.addFile("app-1.0/lib/org.acme.lib-1.1-SNAPSHOT.jar", new File(root, "snapshot.jar"));
+        writer.close();
+        List<DistributionLayers.Layer> second = DistributionLayers.write(distribution, application, root, "app-1.0",
+                0, cache);
+
+        assertThat(second.get(0).isChanged()).isFalse();
+        assertThat(second.get(0).getDigest()).isEqualTo(first.get(0).getDigest());
+        assertThat(dependencies.lastModified()).isEqualTo(1000000000000L);
+        assertThat(second.get(2).isChanged()).isTrue();
+        // The start script was removed: the application layer changed.
+        assertThat(FileUtils.readFileToString(second.get(2).getFile(), "ISO-8859-1")).doesNotContain("start");
+
+        // A modified layer is written again.
+        FileUtils.writeStringToFile(dependencies, "corrupted");
+        List<DistributionLayers.Layer> third = DistributionLayers.write(distribution, application, root, "app-1.0",
+                0, cache);
+        assertThat(third.get(0).isChanged()).isTrue();
+        assertThat(third.get(0).getDigest()).isEqualTo(first.get(0).getDigest());
+    }
+
+    @Test
+    public void testLayerOfEntries() {
+        assertThat(DistributionLayers.getLayer(entry("app/lib/a.b-1.0-20130101.123456-3.jar"), 1, 1))
+                .isEqualTo(DistributionLayers.SNAPSHOT_DEPENDENCIES);
+        assertThat(DistributionLayers.getLayer(entry("app/lib/a.b-1.0.jar"), 1, 1))
+                .isEqualTo(DistributionLayers.DEPENDENCIES);
+        assertThat(DistributionLayers.getLayer(entry("app/conf/application.conf"), 1, 1))
+                .isEqualTo(DistributionLayers.APPLICATION);
+    }
+
+    private static ZipReader.Entry entry(String name) {
+        ZipReader.Entry entry = new ZipReader.Entry();
+        entry.name = name;
+        entry.crc = 2;
+        entry.size = 2;
+        return entry;
+    }
+}
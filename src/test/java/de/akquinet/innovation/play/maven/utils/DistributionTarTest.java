@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the tar formats of the distribution.
+ */
+public class DistributionTarTest {
+
+    @Test
+    public void testGzipKeepsPermissions() throws IOException {
+        File root = new File("target/tests/DistributionTarTest");
+        FileUtils.deleteQuietly(root);
+        File start = new File(root, "start");
+        FileUtils.writeStringToFile(start, "#!/usr/bin/env sh");
+        start.setExecutable(true);
+        File conf = new File(root, "application.conf");
+        FileUtils.writeStringToFile(conf, "application.secret=abc");
+        File dist = new File(root, "app-1.0.zip");
+        ZipWriter writer = new ZipWriter(dist);
+        writer.addDirectory("app-1.0/", 0);
+        writer.addFile("app-1.0/start", start);
+        writer.addFile("app-1.0/conf/application.conf", conf);
+        writer.close();
+
+        File archive = new File(root, "app-1.0.tar.gz");
+        DistributionTar.writeGzip(dist, archive, 6, 2, 1350000000000L);
+
+        InputStream in = new GZIPInputStream(new FileInputStream(archive));
+        byte[] tar;
+        try {
+            tar = IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+        // The directory, the start script (header and content), the configuration, and the end blocks.
+        assertThat(tar.length).isEqualTo(7 * TarWriter.BLOCK_SIZE);
+        assertThat(new String(tar, 512, 13, "UTF-8")).isEqualTo("app-1.0/start");
+        assertThat(new String(tar, 512 + 100, 7, "UTF-8")).isEqualTo("0000755");
+        assertThat(new String(tar, 1024, 17, "UTF-8")).isEqualTo("#!/usr/bin/env sh");
+        assertThat(new String(tar, 1536, 29, "UTF-8")).isEqualTo("app-1.0/conf/application.conf");
+        assertThat(new String(tar, 1536 + 100, 7, "UTF-8")).isEqualTo("0000644");
+    }
+}
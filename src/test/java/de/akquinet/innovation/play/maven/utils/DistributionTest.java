@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.shared.dependency.tree.DependencyNode;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the layout of the distribution assembled by the plugin.
+ */
+public class DistributionTest {
+
+    @Test
+    public void testRuntimeArtifacts() {
+        Artifact play = artifact("play", "play_2.10", Artifact.SCOPE_PROVIDED);
+        Artifact netty = artifact("io.netty", "netty", Artifact.SCOPE_PROVIDED);
+        Artifact playTest = artifact("play", "play-test_2.10", Artifact.SCOPE_PROVIDED);
+        Artifact selenium = artifact("org.seleniumhq", "selenium", Artifact.SCOPE_PROVIDED);
+        Artifact lang = artifact("commons-lang", "commons-lang", Artifact.SCOPE_COMPILE);
+        Artifact junit = artifact("junit", "junit", Artifact.SCOPE_TEST);
+
+        DependencyNode root = new DependencyNode(artifact("de.akquinet", "app", Artifact.SCOPE_COMPILE));
+        node(node(root, play), netty);
+        node(node(root, playTest), selenium);
+        root.addChild(new DependencyNode(lang));
+        root.addChild(new DependencyNode(junit));
+
+        List<Artifact> selected = Distribution.getRuntimeArtifacts(Arrays.asList(play, netty, playTest, selenium,
+                lang, junit), new DependencyIndex(root, "play-test"));
+
+        assertThat(selected).containsExactly(lang, netty, play);
+        assertThat(Distribution.getLibraryName(play)).isEqualTo("play.play_2.10-1.0.jar");
+    }
+
+    @Test
+    public void testSharedArtifactResolvedThroughPlayTest() {
+        Artifact play = artifact("play", "play_2.10", Artifact.SCOPE_PROVIDED);
+        Artifact playTest = artifact("play", "play-test_2.10", Artifact.SCOPE_PROVIDED);
+        // Needed by play, but reached through play-test first when walking the tree.
+        Artifact netty = artifact("io.netty", "netty", Artifact.SCOPE_PROVIDED);
+
+        DependencyNode root = new DependencyNode(artifact("de.akquinet", "app", Artifact.SCOPE_COMPILE));
+        node(node(root, playTest), netty);
+        node(node(root, play), netty);
+
+        List<Artifact> selected = Distribution.getRuntimeArtifacts(Arrays.asList(play, netty, playTest),
+                new DependencyIndex(root, "play-test"));
+
+        assertThat(selected).containsExactly(netty, play);
+    }
+
+    @Test
+    public void testUnmanagedJars() throws IOException {
+        File lib = new File("target/tests/DistributionTest/lib");
+        FileUtils.deleteQuietly(lib);
+        FileUtils.writeStringToFile(new File(lib, "commons-lang-1.0.jar"), "copied by copy-dependencies");
+        FileUtils.writeStringToFile(new File(lib, "vendor.jar"), "unmanaged");
+        Artifact lang = artifact("commons-lang", "commons-lang", Artifact.SCOPE_COMPILE);
+        lang.setFile(new File("repository/commons-lang-1.0.jar"));
+
+        List<File> jars = Distribution.getUnmanagedJars(lib, Arrays.asList(lang));
+
+        assertThat(jars).containsExactly(new File(lib, "vendor.jar"));
+    }
+
+    @Test
+    public void testStartScript() {
+        String script = Distribution.getStartScript(Arrays.asList("app.jar", "play.play_2.10-2.1.0.jar"));
+
+        assertThat(script).startsWith("#!/usr/bin/env sh\n")
+                .contains("classpath=\"$scriptdir/lib/app.jar:$scriptdir/lib/play.play_2.10-2.1.0.jar\"")
+                .contains("play.core.server.NettyServer");
+    }
+
+    private static DependencyNode node(DependencyNode parent, Artifact artifact) {
+        DependencyNode node = new DependencyNode(artifact);
+        parent.addChild(node);
+        return node;
+    }
+
+    private static Artifact artifact(String groupId, String artifactId, String scope) {
+        Artifact artifact = new DefaultArtifact(groupId, artifactId, VersionRange.createFromVersion("1.0"), scope,
+                "jar", null, new DefaultArtifactHandler("jar"));
+        artifact.setFile(new File(artifactId + "-1.0.jar"));
+        return artifact;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the placement of the artifacts in <tt>target</tt>.
+ */
+public class FilePlacementTest {
+
+    private File dir;
+    private File source;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("target/tests/FilePlacementTest");
+        FileUtils.deleteQuietly(dir);
+        source = new File(dir, "dist/app-1.0.zip");
+        FileUtils.writeStringToFile(source, "distribution");
+    }
+
+    @Test
+    public void testMove() throws IOException {
+        File target = new File(dir, "target/app-1.0.zip");
+
+        assertThat(FilePlacement.place(source, target, true)).isEqualTo(FilePlacement.Strategy.MOVE);
+        assertThat(source.exists()).isFalse();
+        assertThat(FileUtils.readFileToString(target)).isEqualTo("distribution");
+    }
+
+    @Test
+    public void testPlaceReplacesTheTarget() throws IOException {
+        File target = new File(dir, "target/app-1.0.zip");
+        FileUtils.writeStringToFile(target, "stale");
+
+        FilePlacement.Strategy strategy = FilePlacement.place(source, target, false);
+
+        assertThat(strategy).isNotEqualTo(FilePlacement.Strategy.MOVE);
+        assertThat(source.exists()).isTrue();
+        assertThat(FileUtils.readFileToString(target)).isEqualTo("distribution");
+
+        // Replacing the source does not change the placed file, even if it is a hard link.
+        FileUtils.forceDelete(source);
+        FileUtils.writeStringToFile(source, "new distribution");
+        assertThat(FileUtils.readFileToString(target)).isEqualTo("distribution");
+    }
+
+    @Test
+    public void testPlaceWithoutLink() throws IOException {
+        File target = new File(dir, "lib/app-1.0.zip");
+
+        FilePlacement.Strategy strategy = FilePlacement.place(source, target, false, false);
+
+        assertThat(strategy).isNotEqualTo(FilePlacement.Strategy.LINK);
+        assertThat(FileUtils.readFileToString(target)).isEqualTo("distribution");
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingSource() throws IOException {
+        FilePlacement.place(new File(dir, "missing.zip"), new File(dir, "target/missing.zip"), false);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the fingerprint computation used to skip unchanged compilations.
+ */
+public class FingerprintTest {
+
+    @Test
+    public void testFingerprintOfUnchangedDirectory() throws IOException {
+        File dir = prepare("testFingerprintOfUnchangedDirectory");
+
+        Fingerprint first = new Fingerprint().addDirectory("app", dir).add("play", "2.1.0");
+        Fingerprint second = new Fingerprint().addDirectory("app", dir).add("play", "2.1.0");
+
+        assertThat(first.matches(second)).isTrue();
+        assertThat(first.getDigest()).isEqualTo(second.getDigest());
+        assertThat(first.diff(second)).isEmpty();
+    }
+
+    @Test
+    public void testFingerprintDetectsChanges() throws IOException {
+        File dir = prepare("testFingerprintDetectsChanges");
+        Fingerprint first = new Fingerprint().addDirectory("app", dir).add("play", "2.1.0");
+
+        FileUtils.writeStringToFile(new File(dir, "controllers/Application.java"), "class Application { }");
+        Fingerprint second = new Fingerprint().addDirectory("app", dir).add("play", "2.1.1");
+
+        assertThat(first.matches(second)).isFalse();
+        assertThat(second.diff(first)).containsOnly("app/controllers/Application.java", "play");
+    }
+
+    @Test
+    public void testTargetAndHiddenFilesAreIgnored() throws IOException {
+        File dir = prepare("testTargetAndHiddenFilesAreIgnored");
+        Fingerprint first = new Fingerprint().addDirectory("project", dir);
+
+        FileUtils.writeStringToFile(new File(dir, "target/streams/out"), "sbt output");
+        FileUtils.writeStringToFile(new File(dir, ".DS_Store"), "finder");
+        Fingerprint second = new Fingerprint().addDirectory("project", dir);
+
+        assertThat(first.matches(second)).isTrue();
+    }
+
+    @Test
+    public void testStoreAndLoad() throws IOException {
+        File dir = prepare("testStoreAndLoad");
+        Fingerprint fingerprint = new Fingerprint().addDirectory("app", dir).add("env:PATH", "/usr/bin");
+
+        File manifest = new File("target/tests/testStoreAndLoad-fingerprint/compile.fingerprint");
+        fingerprint.store(manifest);
+        Fingerprint loaded = Fingerprint.load(manifest);
+
+        assertThat(fingerprint.matches(loaded)).isTrue();
+        // Values are not stored in clear.
+        assertThat(FileUtils.readFileToString(manifest)).doesNotContain("/usr/bin");
+        assertThat(Fingerprint.load(new File("target/tests/missing.fingerprint"))).isNull();
+    }
+
+    private File prepare(String name) throws IOException {
+        File dir = new File("target/tests/" + name);
+        FileUtils.deleteQuietly(dir);
+        FileUtils.writeStringToFile(new File(dir, "controllers/Application.java"), "class Application {}");
+        FileUtils.writeStringToFile(new File(dir, "views/index.scala.html"), "@main(\"Hello\")");
+        return dir;
+    }
+}
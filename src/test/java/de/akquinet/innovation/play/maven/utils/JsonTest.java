@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the JSON support used for the container images.
+ */
+public class JsonTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testParse() {
+        Map<String, Object> value = (Map<String, Object>) Json.parse(
+                " {\"name\": \"a \\\"b\\\" \\u00e9\", \"size\": 12, \"ratio\": 1.5, \"list\": [true, false, null],"
+                        + " \"empty\": {}}");
+
+        assertThat(value.get("name")).isEqualTo("a \"b\" \u00e9");
+        assertThat(value.get("size")).isEqualTo(12L);
+        assertThat(value.get("ratio")).isEqualTo(1.5);
+        assertThat((List<Object>) value.get("list")).containsExactly(true, false, null);
+        assertThat((Map<String, Object>) value.get("empty")).isEmpty();
+    }
+
+    @Test
+    public void testWrite() {
+        Map<String, Object> value = new LinkedHashMap<String, Object>();
+        value.put("name", "a \"b\"\n");
+        value.put("size", 12L);
+        value.put("list", Arrays.asList(true, null));
+        value.put("empty", new LinkedHashMap<String, Object>());
+
+        String json = Json.write(value);
+
+        assertThat(json).isEqualTo("{\"name\":\"a \\\"b\\\"\\n\",\"size\":12,\"list\":[true,null],\"empty\":{}}");
+        assertThat(Json.parse(json)).isEqualTo(value);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDocument() {
+        Json.parse("{\"name\": }");
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the container images built from the layers of the distribution.
+ */
+public class OciImageTest {
+
+    private File root;
+    private List<DistributionLayers.Layer> layers;
+
+    @Before
+    public void setUp() throws IOException {
+        root = new File("target/tests/OciImageTest");
+        FileUtils.deleteQuietly(root);
+        File application = new File(root, "app.jar");
+        FileUtils.writeStringToFile(application, "the application");
+        File library = new File(root, "lang.jar");
+        FileUtils.writeStringToFile(library, "a library");
+        File distribution = new File(root, "app-1.0.zip");
+        ZipWriter writer = new ZipWriter(distribution);
+        writer.addFile("app-1.0/lib/app.app-1.0.jar", application);
+        writer.addFile("app-1.0/lib/commons-lang.commons-lang-2.6.jar", library);
+        writer.close();
+        layers = DistributionLayers.write(distribution, application, root, "app-1.0", 0);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testImageLayout() throws IOException {
+        OciImage image = new OciImage("acme/app", "1.0");
+        for (DistributionLayers.Layer layer : layers) {
+            image.addLayer(layer);
+        }
+        image.setEntrypoint(Arrays.asList("/app-1.0/start"));
+        image.setWorkingDirectory("/app-1.0");
+        image.addExposedPort("9000");
+        image.setEnvironment("JAVA_OPTS", "-Xmx512m");
+        File file = new File(root, "image.tar");
+        image.write(file);
+
+        Map<String, byte[]> entries = readTar(file);
+        assertThat(entries.keySet()).contains("oci-layout", "index.json", "manifest.json", "blobs/sha256/");
+        assertThat(json(entries, "oci-layout")).isEqualTo(Json.parse("{\"imageLayoutVersion\":\"1.0.0\"}"));
+
+        Map<String, Object> index = (Map<String, Object>) json(entries, "index.json");
+        Map<String, Object> descriptor = ((List<Map<String, Object>>) index.get("manifests")).get(0);
+        assertThat(descriptor.get("digest")).isEqualTo(image.getDigest());
+        assertThat(((Map<String, Object>) descriptor.get("annotations")).get("org.opencontainers.image.ref.name"))
+                .isEqualTo("1.0");
+
+        Map<String, Object> manifest = (Map<String, Object>) json(entries, blob(image.getDigest()));
+        List<Map<String, Object>> descriptors = (List<Map<String, Object>>) manifest.get("layers");
+        assertThat(descriptors).hasSize(2);
+        for (int i = 0; i < layers.size(); i++) {
+            assertThat(descriptors.get(i).get("digest")).isEqualTo("sha256:" + layers.get(i).getDigest());
+            assertThat(descriptors.get(i).get("size")).isEqualTo(layers.get(i).getFile().length());
+            assertThat(entries.get(blob("sha256:" + layers.get(i).getDigest())))
+                    .isEqualTo(FileUtils.readFileToByteArray(layers.get(i).getFile()));
+        }
+
+        Map<String, Object> config = (Map<String, Object>) json(entries,
+                blob((String) ((Map<String, Object>) manifest.get("config")).get("digest")));
+        assertThat(config.get("created")).isEqualTo("1970-01-01T00:00:00Z");
+        assertThat(config.get("architecture")).isEqualTo("amd64");
+        Map<String, Object> container = (Map<String, Object>) config.get("config");
+        assertThat((List<Object>) container.get("Entrypoint")).containsExactly("/app-1.0/start");
+        assertThat((List<Object>) container.get("Env")).containsExactly("JAVA_OPTS=-Xmx512m");
+        assertThat((Map<String, Object>) container.get("ExposedPorts")).hasSize(1);
+        assertThat((List<Object>) ((Map<String, Object>) config.get("rootfs")).get("diff_ids")).containsExactly(
+                "sha256:" + layers.get(0).getDigest(), "sha256:" + layers.get(1).getDigest());
+
+        List<Map<String, Object>> docker = (List<Map<String, Object>>) json(entries, "manifest.json");
+        assertThat((List<Object>) docker.get(0).get("RepoTags")).containsExactly("acme/app:1.0");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBaseImage() throws IOException {
+        File base = new File(root, "base");
+        File layer = new File(base, "blobs/sha256/" + repeat('1', 64));
+        FileUtils.writeStringToFile(layer, "compressed layer");
+        String config = "{\"architecture\":\"amd64\",\"os\":\"linux\",\"config\":{\"Env\":[\"PATH=/bin\","
+                + "\"JAVA_OPTS=-Xmx1g\"],\"Cmd\":[\"jshell\"]},\"rootfs\":{\"type\":\"layers\",\"diff_ids\":"
+                + "[\"sha256:" + repeat('2', 64) + "\"]}}";
+        FileUtils.writeStringToFile(new File(base, "blobs/sha256/" + repeat('3', 64)), config);
+        String manifest = "{\"schemaVersion\":2,\"config\":{\"digest\":\"sha256:" + repeat('3', 64) + "\"},"
+                + "\"layers\":[{\"mediaType\":\"application/vnd.oci.image.layer.v1.tar+gzip\",\"digest\":\"sha256:"
+                + repeat('1', 64) + "\",\"size\":16}]}";
+        FileUtils.writeStringToFile(new File(base, "blobs/sha256/" + repeat('4', 64)), manifest);
+        FileUtils.writeStringToFile(new File(base, "index.json"), "{\"manifests\":[{\"mediaType\":"
+                + "\"application/vnd.oci.image.manifest.v1+json\",\"digest\":\"sha256:" + repeat('4', 64) + "\","
+                + "\"platform\":{\"architecture\":\"arm64\",\"os\":\"linux\"}},{\"mediaType\":"
+                + "\"application/vnd.oci.image.manifest.v1+json\",\"digest\":\"sha256:" + repeat('4', 64) + "\","
+                + "\"platform\":{\"architecture\":\"amd64\",\"os\":\"linux\"}}]}");
+        FileUtils.writeStringToFile(new File(base, "oci-layout"), "{\"imageLayoutVersion\":\"1.0.0\"}");
+
+        OciImage image = new OciImage("acme/app", "1.0");
+        image.setBase(base);
+        image.addLayer(layers.get(0));
+        image.setEntrypoint(Arrays.asList("/app-1.0/start"));
+        image.setEnvironment("JAVA_OPTS", "-Xmx512m");
+        File file = new File(root, "image.tar");
+        image.write(file);
+
+        Map<String, byte[]> entries = readTar(file);
+        Map<String, Object> written = (Map<String, Object>) json(entries, blob(image.getDigest()));
+        List<Map<String, Object>> descriptors = (List<Map<String, Object>>) written.get("layers");
+        assertThat(descriptors).hasSize(2);
+        assertThat(descriptors.get(0).get("mediaType")).isEqualTo("application/vnd.oci.image.layer.v1.tar+gzip");
+        assertThat(entries.get(blob("sha256:" + repeat('1', 64)))).isEqualTo("compressed layer".getBytes("UTF-8"));
+
+        Map<String, Object> configuration = (Map<String, Object>) json(entries,
+                blob((String) ((Map<String, Object>) written.get("config")).get("digest")));
+        Map<String, Object> container = (Map<String, Object>) configuration.get("config");
+        assertThat((List<Object>) container.get("Env")).containsExactly("PATH=/bin", "JAVA_OPTS=-Xmx512m");
+        assertThat(container.containsKey("Cmd")).isFalse();
+        assertThat((List<Object>) ((Map<String, Object>) configuration.get("rootfs")).get("diff_ids"))
+                .containsExactly("sha256:" + repeat('2', 64), "sha256:" + layers.get(0).getDigest());
+    }
+
+    @Test(expected = IOException.class)
+    public void testMissingBaseImage() throws IOException {
+        new OciImage("acme/app", "1.0").setBase(new File(root, "missing"));
+    }
+
+    @Test
+    public void testReproducibleImage() throws IOException {
+        OciImage first = new OciImage("acme/app", "1.0");
+        OciImage second = new OciImage("acme/app", "1.0");
+        for (DistributionLayers.Layer layer : layers) {
+            first.addLayer(layer);
+            second.addLayer(layer);
+        }
+        first.write(new File(root, "first.tar"));
+        second.write(new File(root, "second.tar"));
+
+        assertThat(first.getDigest()).isEqualTo(second.getDigest());
+        assertThat(FileUtils.contentEquals(new File(root, "first.tar"), new File(root, "second.tar"))).isTrue();
+    }
+
+    private static String blob(String digest) {
+        return "blobs/" + digest.replace(':', '/');
+    }
+
+    private static Object json(Map<String, byte[]> entries, String name) throws IOException {
+        assertThat(entries.keySet()).contains(name);
+        return Json.parse(new String(entries.get(name), "UTF-8"));
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            value.append(c);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Reads the entries of a tar archive written by {@link TarWriter}, with short names.
+     */
+    private static Map<String, byte[]> readTar(File file) throws IOException {
+        byte[] tar = FileUtils.readFileToByteArray(file);
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        int offset = 0;
+        while (offset + TarWriter.BLOCK_SIZE <= tar.length && tar[offset] != 0) {
+            int end = offset;
+            while (tar[end] != 0) {
+                end++;
+            }
+            String name = new String(tar, offset, end - offset, "UTF-8");
+            String prefix = new String(tar, offset + 345, 155, "UTF-8").trim();
+            if (prefix.length() > 0) {
+                name = prefix + "/" + name;
+            }
+            int size = Integer.parseInt(new String(tar, offset + 124, 11, "UTF-8"), 8);
+            byte[] content = new byte[size];
+            System.arraycopy(tar, offset + TarWriter.BLOCK_SIZE, content, 0, size);
+            entries.put(name, content);
+            offset += TarWriter.BLOCK_SIZE * (1 + (size + TarWriter.BLOCK_SIZE - 1) / TarWriter.BLOCK_SIZE);
+        }
+        return entries;
+    }
+}
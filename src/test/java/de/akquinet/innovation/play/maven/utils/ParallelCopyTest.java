@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the copy of files on several threads.
+ */
+public class ParallelCopyTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("target/tests/ParallelCopyTest");
+        FileUtils.deleteQuietly(dir);
+        for (int i = 0; i < 20; i++) {
+            FileUtils.writeStringToFile(new File(dir, "repository/lib-" + i + ".jar"), "content " + i);
+        }
+    }
+
+    @Test
+    public void testCopyInOrder() throws IOException {
+        RecordingLog log = new RecordingLog();
+        ParallelCopy copy = new ParallelCopy(3, false, log);
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            copy.copy(new File(dir, "repository/lib-" + i + ".jar"), new File(dir, "lib/lib-" + i + ".jar"),
+                    "Copying lib-" + i + ".jar");
+            expected.add("Copying lib-" + i + ".jar");
+        }
+        copy.finish();
+
+        assertThat(copy.getCopied()).isEqualTo(20);
+        assertThat(log.messages).isEqualTo(expected);
+        for (int i = 0; i < 20; i++) {
+            assertThat(FileUtils.readFileToString(new File(dir, "lib/lib-" + i + ".jar"))).isEqualTo("content " + i);
+        }
+    }
+
+    @Test
+    public void testCopyOnTheCallingThread() throws IOException {
+        ParallelCopy copy = new ParallelCopy(1, true, null);
+        File target = new File(dir, "lib/lib-0.jar");
+        copy.copy(new File(dir, "repository/lib-0.jar"), target, null);
+
+        // Copied before the end.
+        assertThat(target.isFile()).isTrue();
+        copy.finish();
+        assertThat(FileUtils.readFileToString(target)).isEqualTo("content 0");
+    }
+
+    @Test(expected = IOException.class)
+    public void testFailedCopy() throws IOException {
+        ParallelCopy copy = new ParallelCopy(2, false, null);
+        copy.copy(new File(dir, "repository/lib-0.jar"), new File(dir, "lib/lib-0.jar"), null);
+        copy.copy(new File(dir, "repository/missing.jar"), new File(dir, "lib/missing.jar"), null);
+        copy.finish();
+    }
+
+    private static class RecordingLog extends SystemStreamLog {
+        private final List<String> messages = new ArrayList<String>();
+
+        public void info(CharSequence content) {
+            messages.add(content.toString());
+        }
+    }
+}
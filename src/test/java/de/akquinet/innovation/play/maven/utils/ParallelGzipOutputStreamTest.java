@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the gzip compression on several threads.
+ */
+public class ParallelGzipOutputStreamTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = createData(100000);
+
+        byte[] compressed = compress(data, 4, 8192);
+
+        assertThat(decompress(compressed)).isEqualTo(data);
+        assertThat(compressed.length).isLessThan(data.length);
+    }
+
+    @Test
+    public void testOutputDoesNotDependOnThreads() throws IOException {
+        byte[] data = createData(100000);
+
+        assertThat(compress(data, 1, 8192)).isEqualTo(compress(data, 3, 8192));
+    }
+
+    @Test
+    public void testEmptyStream() throws IOException {
+        byte[] compressed = compress(new byte[0], 2, 8192);
+
+        assertThat(compressed.length).isGreaterThan(0);
+        assertThat(decompress(compressed).length).isEqualTo(0);
+    }
+
+    private static byte[] createData(int size) {
+        // Compressible, but not trivially.
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, int threads, int blockSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(out, Deflater.DEFAULT_COMPRESSION, threads,
+                blockSize);
+        // Written in small chunks, crossing the block boundaries.
+        for (int i = 0; i < data.length; i += 1000) {
+            gzip.write(data, i, Math.min(1000, data.length - i));
+        }
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static byte[] decompress(byte[] data) throws IOException {
+        return IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+}
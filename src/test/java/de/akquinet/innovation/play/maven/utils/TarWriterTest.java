@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the tar archives written for the layers of the distribution.
+ */
+public class TarWriterTest {
+
+    @Test
+    public void testEntries() throws IOException {
+        File file = new File("target/tests/TarWriterTest/entries.tar");
+        FileUtils.deleteQuietly(file);
+        FileUtils.forceMkdir(file.getParentFile());
+        TarWriter writer = new TarWriter(new FileOutputStream(file));
+        writer.addDirectory("app", TarWriter.DIRECTORY_MODE, 1350000000000L);
+        writer.addEntry("app/start", TarWriter.EXECUTABLE_MODE, 1350000000000L, 5,
+                new ByteArrayInputStream("hello".getBytes("UTF-8")));
+        writer.close();
+
+        byte[] tar = FileUtils.readFileToByteArray(file);
+        // 2 headers, 1 block of content and the 2 end blocks.
+        assertThat(tar.length).isEqualTo(5 * TarWriter.BLOCK_SIZE);
+        assertThat(string(tar, 0, 100)).isEqualTo("app/");
+        assertThat(tar[156]).isEqualTo((byte) '5');
+        assertThat(string(tar, 512, 100)).isEqualTo("app/start");
+        assertThat(string(tar, 512 + 100, 8)).isEqualTo("0000755");
+        assertThat(string(tar, 512 + 124, 12)).isEqualTo("00000000005");
+        assertThat(string(tar, 512 + 136, 12)).isEqualTo(Long.toOctalString(1350000000L));
+        assertThat(string(tar, 512 + 257, 6)).isEqualTo("ustar");
+        assertThat(string(tar, 1024, 5)).isEqualTo("hello");
+        assertThat(checksum(tar, 512)).isEqualTo(Long.parseLong(string(tar, 512 + 148, 7), 8));
+    }
+
+    @Test
+    public void testLongNames() throws IOException {
+        StringBuilder name = new StringBuilder("app/");
+        for (int i = 0; i < 30; i++) {
+            name.append("directory/");
+        }
+        File file = new File("target/tests/TarWriterTest/long.tar");
+        FileUtils.deleteQuietly(file);
+        FileUtils.forceMkdir(file.getParentFile());
+        TarWriter writer = new TarWriter(new FileOutputStream(file));
+        // Split in a prefix and a name.
+        writer.addEntry(name.substring(0, 120) + "file", TarWriter.FILE_MODE, 0, 0,
+                new ByteArrayInputStream(new byte[0]));
+        // Too long, a PAX header is written.
+        writer.addEntry(name + "file", TarWriter.FILE_MODE, 0, 0, new ByteArrayInputStream(new byte[0]));
+        writer.close();
+
+        byte[] tar = FileUtils.readFileToByteArray(file);
+        assertThat(string(tar, 345, 155) + "/" + string(tar, 0, 100)).isEqualTo(name.substring(0, 120) + "file");
+        assertThat(tar[512 + 156]).isEqualTo((byte) 'x');
+        assertThat(string(tar, 1024, 512)).isEqualTo(new String(TarWriter.paxRecord("path", name + "file"),
+                "UTF-8"));
+    }
+
+    @Test
+    public void testPaxRecordLength() throws IOException {
+        assertThat(new String(TarWriter.paxRecord("a", "bcd"), "UTF-8")).isEqualTo("8 a=bcd\n");
+        // 97 bytes without the length: 2 digits are not enough, the record is 101 bytes.
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 94; i++) {
+            value.append('v');
+        }
+        byte[] record = TarWriter.paxRecord("a", value.toString());
+        assertThat(record.length).isEqualTo(101);
+        assertThat(new String(record, "UTF-8")).startsWith("101 a=");
+    }
+
+    private static String string(byte[] data, int offset, int length) throws IOException {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, "UTF-8");
+    }
+
+    private static long checksum(byte[] tar, int offset) {
+        long checksum = 0;
+        for (int i = offset; i < offset + TarWriter.BLOCK_SIZE; i++) {
+            checksum += (i >= offset + 148 && i < offset + 156) ? ' ' : tar[i] & 0xFF;
+        }
+        return checksum;
+    }
+}
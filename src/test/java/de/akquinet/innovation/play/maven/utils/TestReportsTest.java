@@ -0,0 +1,115 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the conversion of the Play test reports.
+ */
+public class TestReportsTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("target/tests/TestReportsTest");
+        FileUtils.deleteQuietly(dir);
+        FileUtils.writeStringToFile(new File(dir, "test-reports/ModelTest.xml"), "<?xml version=\"1.0\"?>\n" +
+                "<testsuite hostname=\"ci\" name=\"ModelTest\" tests=\"3\" errors=\"0\" failures=\"1\" time=\"2.5\">\n" +
+                "  <properties><property name=\"java.version\" value=\"1.6\"/></properties>\n" +
+                "  <testcase classname=\"ModelTest\" name=\"findById\" time=\"1.75\"/>\n" +
+                "  <testcase classname=\"ModelTest\" name=\"pagination\" time=\"0.5\">\n" +
+                "    <failure message=\"expected:&lt;20&gt; but was:&lt;10&gt;\" type=\"java.lang.AssertionError\">" +
+                "java.lang.AssertionError: expected:&lt;20&gt; but was:&lt;10&gt;</failure>\n" +
+                "  </testcase>\n" +
+                "  <testcase classname=\"ModelTest\" name=\"ignored\" time=\"0\"><skipped/></testcase>\n" +
+                "  <system-out><![CDATA[Starting application]]></system-out>\n" +
+                "  <system-err></system-err>\n" +
+                "</testsuite>");
+        FileUtils.writeStringToFile(new File(dir, "test-reports/FunctionalTest.xml"), "<?xml version=\"1.0\"?>\n" +
+                "<testsuite name=\"FunctionalTest\" tests=\"1\" errors=\"0\" failures=\"0\" time=\"4.25\">\n" +
+                "  <testcase classname=\"FunctionalTest\" name=\"redirectHomePage\" time=\"4.25\"/>\n" +
+                "</testsuite>");
+    }
+
+    @Test
+    public void testRead() throws IOException {
+        List<TestReports.Suite> suites = TestReports.read(new File(dir, "test-reports"));
+
+        assertThat(suites).hasSize(2);
+        TestReports.Suite model = suites.get(1);
+        assertThat(model.getName()).isEqualTo("ModelTest");
+        assertThat(model.getTime()).isEqualTo(2.5);
+        assertThat(model.getTestCases()).hasSize(3);
+        assertThat(model.getCount(TestReports.TestCase.FAILURE)).isEqualTo(1);
+        assertThat(model.getCount(TestReports.TestCase.SKIPPED)).isEqualTo(1);
+        assertThat(model.isFailed()).isTrue();
+        assertThat(model.getTestCases().get(1).getMessage()).isEqualTo("expected:<20> but was:<10>");
+        assertThat(suites.get(0).isFailed()).isFalse();
+    }
+
+    @Test
+    public void testFailingClasses() throws IOException {
+        List<TestReports.Suite> suites = TestReports.read(new File(dir, "test-reports"));
+
+        assertThat(TestReports.getFailingClasses(suites, null)).containsExactly("ModelTest");
+        assertThat(TestReports.getFailingClasses(suites, Arrays.asList("ModelTest", "FunctionalTest")))
+                .containsExactly("ModelTest");
+        // The report of a class not run by the current execution is ignored.
+        assertThat(TestReports.getFailingClasses(suites, Collections.singletonList("FunctionalTest"))).isEmpty();
+    }
+
+    @Test
+    public void testSlowestTests() throws IOException {
+        List<TestReports.TestCase> slowest = TestReports.getSlowestTests(TestReports.read(
+                new File(dir, "test-reports")), 2);
+
+        assertThat(slowest).hasSize(2);
+        assertThat(slowest.get(0).getName()).isEqualTo("redirectHomePage");
+        assertThat(slowest.get(1).getName()).isEqualTo("findById");
+    }
+
+    @Test
+    public void testWriteSurefireReports() throws IOException {
+        List<TestReports.Suite> suites = TestReports.read(new File(dir, "test-reports"));
+        File surefire = new File(dir, "surefire-reports");
+
+        TestReports.writeSurefireReports(suites, surefire);
+
+        File report = new File(surefire, "TEST-ModelTest.xml");
+        assertThat(report).exists();
+        String content = FileUtils.readFileToString(report);
+        assertThat(content).contains("skipped=\"1\"").contains("failures=\"1\"").contains("time=\"1.750\"")
+                .contains("<property name=\"java.version\" value=\"1.6\"/>").contains("Starting application");
+
+        // The converted reports can be read again.
+        List<TestReports.Suite> converted = TestReports.read(surefire);
+        assertThat(converted).hasSize(2);
+        assertThat(converted.get(1).getCount(TestReports.TestCase.FAILURE)).isEqualTo(1);
+        assertThat(converted.get(1).getTestCases().get(1).getMessage()).isEqualTo("expected:<20> but was:<10>");
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the discovery and the sharding of the test classes.
+ */
+public class TestShardingTest {
+
+    @Test
+    public void testFindTestClasses() throws IOException {
+        File dir = new File("target/tests/testFindTestClasses");
+        FileUtils.deleteQuietly(dir);
+        FileUtils.writeStringToFile(new File(dir, "test/ModelTest.java"), "import org.junit.*;\n" +
+                "public class ModelTest {}");
+        FileUtils.writeStringToFile(new File(dir, "test/models/UserTest.java"), "package models;\n\n" +
+                "public class UserTest {}");
+        FileUtils.writeStringToFile(new File(dir, "test/AbstractTest.java"), "public abstract class AbstractTest {}");
+        FileUtils.writeStringToFile(new File(dir, "test/Helpers.java"), "public class Helpers {}");
+        FileUtils.writeStringToFile(new File(dir, "src/test/scala/ApplicationSpec.scala"), "package controllers\n" +
+                "package web\n\nclass ApplicationSpec extends Specification {}");
+
+        List<String> classes = TestSharding.findTestClasses(Arrays.asList(new File(dir, "test"),
+                new File(dir, "src/test/scala"), new File(dir, "missing")));
+
+        assertThat(classes).containsExactly("ModelTest", "controllers.web.ApplicationSpec", "models.UserTest");
+    }
+
+    @Test
+    public void testSplit() {
+        List<String> classes = Arrays.asList("A", "B", "C", "D", "E");
+
+        List<List<String>> shards = TestSharding.split(classes, 2);
+        assertThat(shards).hasSize(2);
+        assertThat(shards.get(0)).containsExactly("A", "C", "E");
+        assertThat(shards.get(1)).containsExactly("B", "D");
+
+        assertThat(TestSharding.split(classes, 8)).hasSize(5);
+        assertThat(TestSharding.split(Arrays.<String>asList(), 4)).isEmpty();
+    }
+
+    @Test
+    public void testSplitUsingDurations() {
+        Map<String, Double> durations = new HashMap<String, Double>();
+        durations.put("FunctionalTest", 40.0);
+        durations.put("IntegrationTest", 30.0);
+        durations.put("ModelTest", 5.0);
+        durations.put("UserTest", 5.0);
+        durations.put("ComputerTest", 10.0);
+        List<String> classes = Arrays.asList("ComputerTest", "FunctionalTest", "IntegrationTest", "ModelTest",
+                "UserTest", "NewTest");
+
+        List<List<String>> shards = TestSharding.split(classes, 2, durations);
+
+        // NewTest has no history, it is expected to last the average (18s).
+        assertThat(shards.get(0)).containsExactly("FunctionalTest", "ComputerTest", "UserTest");
+        assertThat(shards.get(1)).containsExactly("IntegrationTest", "NewTest", "ModelTest");
+    }
+
+    @Test
+    public void testDurationHistory() throws IOException {
+        File dir = new File("target/tests/testDurationHistory");
+        FileUtils.deleteQuietly(dir);
+        FileUtils.writeStringToFile(new File(dir, "test-reports/ModelTest.xml"), "<?xml version=\"1.0\"?>\n" +
+                "<testsuite name=\"ModelTest\" tests=\"2\" failures=\"0\" errors=\"0\" time=\"1.5\">\n" +
+                "<testcase classname=\"ModelTest\" name=\"findById\" time=\"1.2\"/>\n" +
+                "<testcase classname=\"ModelTest\" name=\"pagination\" time=\"0.3\"/>\n" +
+                "</testsuite>");
+
+        Map<String, Double> durations = TestReports.readDurations(new File(dir, "test-reports"));
+        assertThat(durations.get("ModelTest")).isEqualTo(1.5);
+
+        File history = new File(dir, "play2/test-durations.properties");
+        assertThat(TestSharding.loadDurations(history)).isEmpty();
+        TestSharding.storeDurations(history, durations);
+        assertThat(TestSharding.loadDurations(history)).isEqualTo(durations);
+    }
+
+    @Test
+    public void testTestOnlyCommand() {
+        assertThat(TestSharding.getTestOnlyCommand(Arrays.asList("ModelTest", "models.UserTest")))
+                .isEqualTo("test-only ModelTest models.UserTest");
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2012 akquinet
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.akquinet.innovation.play.maven.utils;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+/**
+ * Test the single-pass zip rewriting used to add files to the distribution.
+ */
+public class ZipWriterTest {
+
+    private File dir;
+    private File archive;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = new File("target/tests/ZipWriterTest");
+        FileUtils.deleteQuietly(dir);
+        archive = new File(dir, "app-1.0.zip");
+        FileUtils.forceMkdir(dir);
+
+        // Built with ZipOutputStream: the entries use data descriptors.
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            out.putNextEntry(new ZipEntry("app-1.0/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("app-1.0/start"));
+            out.write("exec java play.core.server.NettyServer".getBytes("UTF-8"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("app-1.0/lib/app.jar"));
+            out.write(new byte[10000]);
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testReadEntries() throws IOException {
+        ZipReader reader = new ZipReader(archive);
+        try {
+            assertThat(reader.getEntries()).hasSize(3);
+            ZipReader.Entry jar = reader.getEntry("app-1.0/lib/app.jar");
+            assertThat(jar.getSize()).isEqualTo(10000);
+            assertThat(jar.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+            assertThat(reader.getEntry("app-1.0/").isDirectory()).isTrue();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testAddFiles() throws IOException {
+        File start = new File(dir, "files/start");
+        FileUtils.writeStringToFile(start, "#!/bin/sh\nexec java -Xmx512m play.core.server.NettyServer");
+        start.setExecutable(true);
+        File conf = new File(dir, "files/conf");
+        FileUtils.writeStringToFile(new File(conf, "prod.conf"), "application.mode=prod");
+        FileUtils.writeStringToFile(new File(conf, "logger.xml"), "<configuration/>");
+
+        long compressedJarSize = getCompressedSize(archive, "app-1.0/lib/app.jar");
+
+        Map<String, File> files = new LinkedHashMap<String, File>();
+        files.putAll(ZipWriter.listTree("app-1.0/start", start));
+        files.putAll(ZipWriter.listTree("app-1.0/conf", conf));
+        ZipWriter.addFiles(archive, files, Deflater.BEST_SPEED, 1, -1);
+
+        assertThat(new File(dir, "app-1.0.zip.tmp").exists()).isFalse();
+        ZipFile zip = new ZipFile(archive);
+        try {
+            assertThat(getNames(zip)).containsExactly("app-1.0/", "app-1.0/lib/app.jar", "app-1.0/start",
+                    "app-1.0/conf/", "app-1.0/conf/logger.xml", "app-1.0/conf/prod.conf");
+            // Replaced.
+            assertThat(read(zip, "app-1.0/start")).startsWith("#!/bin/sh");
+            assertThat(read(zip, "app-1.0/conf/prod.conf")).isEqualTo("application.mode=prod");
+            // Copied without being recompressed.
+            assertThat(zip.getEntry("app-1.0/lib/app.jar").getCompressedSize()).isEqualTo(compressedJarSize);
+            assertThat(IOUtils.toByteArray(zip.getInputStream(zip.getEntry("app-1.0/lib/app.jar"))))
+                    .isEqualTo(new byte[10000]);
+        } finally {
+            zip.close();
+        }
+
+        ZipReader reader = new ZipReader(archive);
+        try {
+            assertThat(reader.getEntry("app-1.0/start").getUnixMode()).isEqualTo(0100755);
+            assertThat(reader.getEntry("app-1.0/conf/prod.conf").getUnixMode()).isEqualTo(0100644);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testParallelCompression() throws IOException {
+        File tree = new File(dir, "webapp");
+        for (int i = 0; i < 20; i++) {
+            StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 1000 * i; j++) {
+                content.append("line ").append(j).append('\n');
+            }
+            FileUtils.writeStringToFile(new File(tree, "WEB-INF/classes/Class" + i + ".txt"), content.toString());
+        }
+        FileUtils.copyFile(archive, new File(tree, "WEB-INF/lib/app.jar"));
+
+        File serial = new File(dir, "serial.war");
+        write(serial, tree, 1);
+        File parallel = new File(dir, "parallel.war");
+        write(parallel, tree, 4);
+
+        // The archive does not depend on the number of threads.
+        assertThat(FileUtils.contentEquals(serial, parallel)).isTrue();
+        ZipFile zip = new ZipFile(parallel);
+        try {
+            assertThat(zip.size()).isEqualTo(26);
+            assertThat(read(zip, "webapp/WEB-INF/classes/Class19.txt")).endsWith("line 18999\n");
+            assertThat(read(zip, "webapp/MANIFEST.MF")).isEqualTo("Manifest-Version: 1.0");
+            // Already compressed.
+            assertThat(zip.getEntry("webapp/WEB-INF/lib/app.jar").getMethod()).isEqualTo(ZipEntry.STORED);
+            assertThat(zip.getEntry("webapp/WEB-INF/classes/Class1.txt").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void write(File file, File tree, int threads) throws IOException {
+        ZipWriter writer = new ZipWriter(file);
+        try {
+            writer.setThreads(threads);
+            writer.addTree("webapp", tree);
+            writer.addData("webapp/MANIFEST.MF", "Manifest-Version: 1.0".getBytes("UTF-8"), 1350000000000L);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testReproducibleArchive() throws IOException {
+        File jar = new File(dir, "app.jar");
+        createJar(jar);
+        File other = new File(dir, "other.jar");
+        createJar(other);
+        // Different times and extra fields.
+        other.setLastModified(jar.lastModified() - 3600000L);
+
+        ZipWriter.addFiles(jar, new LinkedHashMap<String, File>(), Deflater.DEFAULT_COMPRESSION, 1, 1350000000000L);
+        ZipWriter.addFiles(other, new LinkedHashMap<String, File>(), Deflater.DEFAULT_COMPRESSION, 4, 1350000000000L);
+
+        assertThat(FileUtils.contentEquals(jar, other)).isTrue();
+        ZipFile zip = new ZipFile(jar);
+        try {
+            // Sorted, the manifest first.
+            assertThat(getNames(zip)).containsExactly("META-INF/", "META-INF/MANIFEST.MF", "Application.class",
+                    "views/", "views/index.html");
+        } finally {
+            zip.close();
+        }
+        ZipReader reader = new ZipReader(jar);
+        try {
+            ZipReader.Entry entry = reader.getEntry("views/index.html");
+            assertThat(entry.getUnixMode()).isEqualTo(0100644);
+            assertThat(entry.extra.length).isEqualTo(0);
+            assertThat(reader.getEntry("views/").getUnixMode()).isEqualTo(040755);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void createJar(File file) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            out.putNextEntry(new ZipEntry("META-INF/"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            out.write("Manifest-Version: 1.0\r\n\r\n".getBytes("UTF-8"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("views/"));
+            out.closeEntry();
+            ZipEntry index = new ZipEntry("views/index.html");
+            // Extended timestamp extra field.
+            index.setExtra(new byte[]{0x55, 0x54, 5, 0, 1, (byte) System.nanoTime(), 0, 0, 0});
+            out.putNextEntry(index);
+            out.write("<html></html>".getBytes("UTF-8"));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("Application.class"));
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void testUpdateKeepsUnchangedEntries() throws IOException {
+        File lib = new File(dir, "lib.jar");
+        FileUtils.writeStringToFile(lib, "a library");
+        File conf = new File(dir, "application.conf");
+        FileUtils.writeStringToFile(conf, "application.secret=abc");
+        File app = new File(dir, "app.jar");
+        FileUtils.writeStringToFile(app, "version 1");
+        File updated = new File(dir, "updated.zip");
+        update(updated, lib, conf, app);
+
+        FileUtils.writeStringToFile(app, "version 2 of the application");
+        ZipWriter writer = update(updated, lib, conf, app);
+
+        assertThat(writer.getKeptEntries()).isEqualTo(3);
+        File fresh = new File(dir, "fresh.zip");
+        write(new ZipWriter(fresh), lib, conf, app);
+        assertThat(FileUtils.contentEquals(updated, fresh)).isTrue();
+        ZipFile zip = new ZipFile(updated);
+        try {
+            assertThat(read(zip, "app/lib/app.jar")).isEqualTo("version 2 of the application");
+            assertThat(read(zip, "app/conf/application.conf")).isEqualTo("application.secret=abc");
+        } finally {
+            zip.close();
+        }
+
+        // A change of the first entry rewrites the whole archive, and the removed entries are dropped.
+        FileUtils.writeStringToFile(lib, "a new library");
+        writer = ZipWriter.update(updated);
+        try {
+            writer.setTimestamp(1350000000000L);
+            writer.addDirectory("app/", 0);
+            writer.addFile("app/lib/lib.jar", lib);
+        } finally {
+            writer.close();
+        }
+        assertThat(writer.getKeptEntries()).isEqualTo(1);
+        zip = new ZipFile(updated);
+        try {
+            assertThat(getNames(zip)).containsExactly("app/", "app/lib/lib.jar");
+            assertThat(read(zip, "app/lib/lib.jar")).isEqualTo("a new library");
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void testUpdateOfInvalidArchive() throws IOException {
+        File updated = new File(dir, "updated.zip");
+        FileUtils.writeStringToFile(updated, "not an archive");
+        File file = new File(dir, "file.txt");
+        FileUtils.writeStringToFile(file, "content");
+
+        ZipWriter writer = ZipWriter.update(updated);
+        try {
+            writer.addFile("file.txt", file);
+        } finally {
+            writer.close();
+        }
+
+        assertThat(writer.getKeptEntries()).isEqualTo(0);
+        ZipFile zip = new ZipFile(updated);
+        try {
+            assertThat(read(zip, "file.txt")).isEqualTo("content");
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static ZipWriter update(File archive, File lib, File conf, File app) throws IOException {
+        return write(ZipWriter.update(archive), lib, conf, app);
+    }
+
+    private static ZipWriter write(ZipWriter writer, File lib, File conf, File app) throws IOException {
+        try {
+            writer.setThreads(2);
+            writer.setTimestamp(1350000000000L);
+            writer.addDirectory("app/", 0);
+            writer.addFile("app/lib/lib.jar", lib);
+            writer.addFile("app/conf/application.conf", conf);
+            writer.addFile("app/lib/app.jar", app);
+        } finally {
+            writer.close();
+        }
+        return writer;
+    }
+
+    @Test
+    public void testDosTime() {
+        long time = ZipReader.fromDosTime(ZipWriter.toDosTime(1350000000000L));
+        assertThat(Math.abs(time - 1350000000000L)).isLessThanOrEqualTo(2000L);
+    }
+
+    private static long getCompressedSize(File file, String name) throws IOException {
+        ZipFile zip = new ZipFile(file);
+        try {
+            return zip.getEntry(name).getCompressedSize();
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static List<String> getNames(ZipFile zip) {
+        List<String> names = new ArrayList<String>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            names.add(entries.nextElement().getName());
+        }
+        return names;
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        InputStream in = zip.getInputStream(zip.getEntry(name));
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}